@@ -21,7 +21,6 @@ import static org.forgerock.audit.batch.CommonAuditBatchConfiguration.POLLING_TI
 import static org.forgerock.audit.batch.CommonAuditBatchConfiguration.POLLING_TIMEOUT_UNIT;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
@@ -36,6 +35,16 @@ import org.slf4j.LoggerFactory;
 
 /**
  * SyslogPublisher that offloads message transmission to a separate thread.
+ * <p>
+ * Publishing threads copy their message and enqueue it without any further coordination: the queue is the only
+ * point at which they meet, and only the writer thread uses the connection.
+ * <p>
+ * Messages published with a {@link DeliveryListener} are queued along with it, other messages are queued as is. Once
+ * the writer thread has flushed a batch of messages, it hands the listeners of the whole batch to an acknowledger
+ * thread in a single task, so that they are notified without holding up the writer nor waking a thread per message.
+ * Listeners of messages that could not be sent, or whose batch could not be flushed, are notified that their
+ * delivery was abandoned, as are those of messages still queued when the publisher is closed. As a failed send closes
+ * the connection, the messages of the batch written to it before the failure are abandoned too.
  */
 class AsynchronousSyslogPublisher implements SyslogPublisher {
 
@@ -44,16 +53,20 @@ class AsynchronousSyslogPublisher implements SyslogPublisher {
     /** Minimum {@link #capacity} value.  **/
     private static final int MIN_CAPACITY = 5000;
 
+    /** Name of the writer thread. */
+    private final String name;
     /** SyslogConnection through which buffered messages are sent. */
     private final SyslogConnection connection;
-    /** Queue to store unpublished records. */
-    private final BlockingQueue<byte[]> queue;
+    /** Queue to store unpublished records: messages, or {@link AcknowledgedMessage}s. */
+    private final BlockingQueue<Object> queue;
     /** Single threaded executor which runs the WriterTask. */
     private final ExecutorService executorService;
     /** Maximum number of messages that can be queued before producers start to block. */
     private final int capacity;
     /** Flag for notifying the WriterTask to exit. */
     private volatile boolean stopRequested;
+    /** Notifies the delivery listeners; started by the WriterTask on first use, and only used by it until closed. */
+    private ExecutorService acknowledger;
 
     /**
      * Construct a new BufferedSyslogPublisher.
@@ -65,6 +78,7 @@ class AsynchronousSyslogPublisher implements SyslogPublisher {
      */
     AsynchronousSyslogPublisher(final String name, final SyslogConnection connection, final int capacity) {
         Reject.ifNull(connection);
+        this.name = name;
         this.connection = connection;
         this.capacity = Math.max(capacity, MIN_CAPACITY);
         this.queue = new LinkedBlockingQueue<>(this.capacity);
@@ -74,12 +88,30 @@ class AsynchronousSyslogPublisher implements SyslogPublisher {
     }
 
     @Override
-    public void publishMessage(String syslogMessage) throws IOException {
+    public void publishMessage(SyslogMessageBuffer syslogMessage) throws IOException {
+        // The caller reuses its buffer, so the queue needs its own exact-size copy of the message
+        enqueue(syslogMessage.toByteArray());
+    }
+
+    @Override
+    public void publishMessage(SyslogMessageBuffer syslogMessage, DeliveryListener listener) {
+        if (!enqueue(new AcknowledgedMessage(syslogMessage.toByteArray(), listener))) {
+            listener.onAbandoned(new IOException("Syslog publisher is closed"));
+        }
+    }
+
+    /**
+     * Puts the provided record on the queue for the writer, blocking while the queue is full, and returns
+     * <code>false</code> if the publisher was closed before there was room for it.
+     */
+    private boolean enqueue(Object record) {
+        boolean queued = false;
         boolean interrupted = false;
         while (!stopRequested) {
             // Put request on queue for writer
             try {
-                queue.put(syslogMessage.getBytes(StandardCharsets.UTF_8));
+                queue.put(record);
+                queued = true;
                 break;
             } catch (InterruptedException e) {
                 // We expect this to happen. Just ignore it and hopefully
@@ -90,6 +122,12 @@ class AsynchronousSyslogPublisher implements SyslogPublisher {
         if (interrupted) {
             Thread.currentThread().interrupt();
         }
+        return queued;
+    }
+
+    @Override
+    public double getOccupancy() {
+        return (double) queue.size() / capacity;
     }
 
     @Override
@@ -109,25 +147,125 @@ class AsynchronousSyslogPublisher implements SyslogPublisher {
         // Close the wrapped publisher.
         connection.close();
 
+        // Records queued after the writer exited are never sent.
+        final IOException closed = new IOException("Syslog publisher is closed");
+        Object record;
+        while ((record = queue.poll()) != null) {
+            if (record instanceof AcknowledgedMessage) {
+                notify(((AcknowledgedMessage) record).listener, closed);
+            }
+        }
+        if (acknowledger != null) {
+            acknowledger.shutdown();
+            while (!acknowledger.isTerminated()) {
+                try {
+                    acknowledger.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
         if (interrupted) {
             Thread.currentThread().interrupt();
         }
     }
 
-    private void publishBufferedMessages(List<byte[]> syslogMessages) {
-        for (byte[] syslogMessage : syslogMessages) {
+    private void publishBufferedMessages(List<Object> records) {
+        List<DeliveryListener> listeners = null;
+        List<IOException> failures = null;
+        // index of the first listener whose message was written to the connection since it was last flushed
+        int unflushed = 0;
+        for (Object record : records) {
+            final byte[] syslogMessage;
+            final DeliveryListener listener;
+            if (record instanceof AcknowledgedMessage) {
+                syslogMessage = ((AcknowledgedMessage) record).message;
+                listener = ((AcknowledgedMessage) record).listener;
+            } else {
+                syslogMessage = (byte[]) record;
+                listener = null;
+            }
+            IOException failure = null;
             try {
                 connection.reconnect();
                 connection.send(syslogMessage);
             } catch (IOException ex) {
                 logger.error("Error when writing a message, message size: " + syslogMessage.length, ex);
                 connection.close();
+                failure = ex;
+            }
+            if (listener != null) {
+                if (listeners == null) {
+                    listeners = new ArrayList<>();
+                    failures = new ArrayList<>();
+                }
+                listeners.add(listener);
+                failures.add(failure);
+            }
+            if (failure != null && listeners != null) {
+                // closing the connection discarded the messages written to it since it was last flushed
+                for (int i = unflushed; i < listeners.size(); i++) {
+                    if (failures.get(i) == null) {
+                        failures.set(i, failure);
+                    }
+                }
+                unflushed = listeners.size();
             }
         }
+        IOException flushFailure = null;
         try {
             connection.flush();
         } catch (IOException ex) {
-            // exception logged in flush()
+            logger.error("Error when flushing the connection", ex);
+            flushFailure = ex;
+        }
+        if (listeners != null) {
+            acknowledge(listeners, failures, flushFailure);
+        }
+    }
+
+    /**
+     * Notifies the listeners of a batch on the acknowledger thread, in a single task.
+     */
+    private void acknowledge(List<DeliveryListener> listeners, List<IOException> failures, IOException flushFailure) {
+        if (acknowledger == null) {
+            acknowledger = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name + "-acknowledger");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        acknowledger.execute(() -> {
+            for (int i = 0; i < listeners.size(); i++) {
+                notify(listeners.get(i), failures.get(i) != null ? failures.get(i) : flushFailure);
+            }
+        });
+    }
+
+    private static void notify(DeliveryListener listener, IOException failure) {
+        try {
+            if (failure == null) {
+                listener.onDelivered();
+            } else {
+                listener.onAbandoned(failure);
+            }
+        } catch (RuntimeException ex) {
+            logger.error("Error when acknowledging the delivery of a message", ex);
+        }
+    }
+
+    /**
+     * A message queued along with the listener to be notified of its delivery.
+     */
+    private static final class AcknowledgedMessage {
+
+        private final byte[] message;
+        private final DeliveryListener listener;
+
+        private AcknowledgedMessage(byte[] message, DeliveryListener listener) {
+            this.message = message;
+            this.listener = listener;
         }
     }
 
@@ -141,14 +279,14 @@ class AsynchronousSyslogPublisher implements SyslogPublisher {
          */
         @Override
         public void run() {
-            List<byte[]> drainList = new ArrayList<>(capacity);
+            List<Object> drainList = new ArrayList<>(capacity);
 
             boolean interrupted = false;
             while (!stopRequested || !queue.isEmpty()) {
                 try {
                     queue.drainTo(drainList, capacity);
                     if (drainList.isEmpty()) {
-                        byte[] message = queue.poll(POLLING_TIMEOUT, POLLING_TIMEOUT_UNIT);
+                        Object message = queue.poll(POLLING_TIMEOUT, POLLING_TIMEOUT_UNIT);
                         if (message != null) {
                             publishBufferedMessages(singletonList(message));
                         }
@@ -0,0 +1,97 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.DegradedModeConfiguration;
+import org.forgerock.util.Reject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides, from the occupancy of the {@link SyslogPublisher}'s queue, whether the publisher is backed up: whether
+ * events should be formatted in the minimal form of the degraded mode or, with watermarks of its own, whether the less
+ * severe ones should be shed.
+ * <p>
+ * The mode is entered once the occupancy reaches the high watermark, and only left once the backlog has drained to
+ * the low watermark, so that formatting does not flip between both forms while the occupancy hovers around a single
+ * threshold. Each transition is logged once.
+ * <p>
+ * Objects are thread-safe and can therefore be freely shared across threads without synchronization.
+ */
+final class BacklogMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(BacklogMonitor.class);
+
+    private final SyslogPublisher publisher;
+    private final double highWatermark;
+    private final double lowWatermark;
+    private final String enteredMessage;
+    private final String leftMessage;
+    private final AtomicBoolean degraded = new AtomicBoolean();
+
+    /**
+     * Construct a new BacklogMonitor.
+     *
+     * @param publisher The publisher whose queue is monitored.
+     * @param config    The degraded mode configuration.
+     */
+    BacklogMonitor(SyslogPublisher publisher, DegradedModeConfiguration config) {
+        this(publisher, config.getHighWatermark(), config.getLowWatermark(), "Degraded mode",
+                "formatting events in degraded mode", "formatting events in full again");
+    }
+
+    /**
+     * Construct a new BacklogMonitor.
+     *
+     * @param publisher      The publisher whose queue is monitored.
+     * @param highWatermark  The occupancy at which the publisher is considered backed up.
+     * @param lowWatermark   The occupancy to which the backlog must drain for the publisher to no longer be.
+     * @param mode           The name of the mode entered, as used in error messages.
+     * @param enteredMessage What happens while the publisher is backed up, as logged when the mode is entered.
+     * @param leftMessage    What happens once the backlog has drained, as logged when the mode is left.
+     */
+    BacklogMonitor(SyslogPublisher publisher, double highWatermark, double lowWatermark, String mode,
+            String enteredMessage, String leftMessage) {
+        Reject.ifNull(publisher);
+        Reject.ifTrue(lowWatermark < 0 || highWatermark > 1 || lowWatermark > highWatermark,
+                mode + " watermarks must satisfy 0 <= lowWatermark <= highWatermark <= 1");
+        this.publisher = publisher;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.enteredMessage = enteredMessage;
+        this.leftMessage = leftMessage;
+    }
+
+    /**
+     * Returns <code>true</code> if the publisher is backed up, such that the event about to be formatted should be
+     * formatted in the minimal form, or shed.
+     *
+     * @return <code>true</code> while the publisher is backed up.
+     */
+    boolean isDegraded() {
+        final double occupancy = publisher.getOccupancy();
+        if (!degraded.get()) {
+            if (occupancy >= highWatermark && degraded.compareAndSet(false, true)) {
+                logger.warn("Syslog publisher queue is {}% full; {}", Math.round(occupancy * 100), enteredMessage);
+            }
+        } else if (occupancy <= lowWatermark && degraded.compareAndSet(true, false)) {
+            logger.info("Syslog publisher queue has drained to {}%; {}", Math.round(occupancy * 100), leftMessage);
+        }
+        return degraded.get();
+    }
+}
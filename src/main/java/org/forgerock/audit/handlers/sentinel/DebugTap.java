@@ -0,0 +1,208 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static java.util.Collections.emptyList;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.DebugTapConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lets operators see the messages sent to the Syslog daemon without paying for it on every event.
+ * <p>
+ * Callers first ask {@link #shouldRecord()} and only pass the message to {@link #record(SyslogMessageBuffer)} when
+ * it returns <code>true</code>, so that a disabled tap costs nothing beyond a virtual call. Messages are only decoded
+ * as text when they are logged or {@link #dump() dumped}.
+ * <p>
+ * Implementations are thread-safe and can be freely shared across threads without synchronization: the ring tap
+ * guards each of its entries with the entry's own monitor, so that recording threads only contend when they wrap
+ * around onto the same entry, or with a dump reading it.
+ */
+abstract class DebugTap {
+
+    private static final Logger logger = LoggerFactory.getLogger(DebugTap.class);
+
+    /** Tap that records nothing. */
+    static final DebugTap OFF = new DebugTap() {
+        @Override
+        boolean shouldRecord() {
+            return false;
+        }
+
+        @Override
+        void record(SyslogMessageBuffer message) {
+            // nothing to do
+        }
+    };
+
+    /**
+     * Creates the tap described by the provided configuration.
+     *
+     * @param config The debug tap configuration.
+     * @return the debug tap.
+     */
+    static DebugTap create(DebugTapConfiguration config) {
+        if (config == null || config.getMode() == null) {
+            return OFF;
+        }
+        switch (config.getMode()) {
+        case SAMPLED:
+            return new SampledDebugTap(config.getSampleInterval(), config.getMaxPerSecond());
+        case RING:
+            return new RingDebugTap(config.getRingSize());
+        default:
+            return OFF;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the message currently being formatted should be passed to
+     * {@link #record(SyslogMessageBuffer)}.
+     *
+     * @return <code>true</code> if the message should be recorded.
+     */
+    abstract boolean shouldRecord();
+
+    /**
+     * Records a message; the buffer is only read during the call.
+     *
+     * @param message The message sent to the Syslog daemon.
+     */
+    abstract void record(SyslogMessageBuffer message);
+
+    /**
+     * Returns the recorded messages still held by this tap, oldest first.
+     *
+     * @return the recorded messages.
+     */
+    List<String> dump() {
+        return emptyList();
+    }
+
+    /**
+     * Logs one in every <code>sampleInterval</code> messages through SLF4J at debug level, optionally capped to a
+     * maximum number of messages per second.
+     */
+    private static final class SampledDebugTap extends DebugTap {
+
+        private final int sampleInterval;
+        private final int maxPerSecond;
+        private final AtomicLong counter = new AtomicLong();
+        private final AtomicLong windowStart = new AtomicLong();
+        private final AtomicInteger windowCount = new AtomicInteger();
+
+        private SampledDebugTap(int sampleInterval, int maxPerSecond) {
+            this.sampleInterval = Math.max(sampleInterval, 1);
+            this.maxPerSecond = maxPerSecond;
+        }
+
+        @Override
+        boolean shouldRecord() {
+            if (!logger.isDebugEnabled() || counter.getAndIncrement() % sampleInterval != 0) {
+                return false;
+            }
+            if (maxPerSecond <= 0) {
+                return true;
+            }
+            final long second = System.currentTimeMillis() / 1000;
+            final long start = windowStart.get();
+            if (start != second && windowStart.compareAndSet(start, second)) {
+                windowCount.set(0);
+            }
+            return windowCount.incrementAndGet() <= maxPerSecond;
+        }
+
+        @Override
+        void record(SyslogMessageBuffer message) {
+            logger.debug("Sentinel message: {}", message);
+        }
+    }
+
+    /**
+     * Keeps the last <code>size</code> messages in memory so that they can be {@link #dump() dumped} on demand.
+     * <p>
+     * Each entry of the ring reuses its byte array, which only grows, so that recording a message costs a copy of its
+     * bytes rather than an allocation and a decoding; messages are decoded when dumped.
+     */
+    private static final class RingDebugTap extends DebugTap {
+
+        private final Slot[] ring;
+        private final AtomicLong sequence = new AtomicLong();
+
+        private RingDebugTap(int size) {
+            this.ring = new Slot[Math.max(size, 1)];
+            for (int i = 0; i < ring.length; i++) {
+                ring[i] = new Slot();
+            }
+        }
+
+        @Override
+        boolean shouldRecord() {
+            return true;
+        }
+
+        @Override
+        void record(SyslogMessageBuffer message) {
+            final long seq = sequence.getAndIncrement();
+            final Slot slot = ring[(int) (seq % ring.length)];
+            synchronized (slot) {
+                if (slot.sequence > seq) {
+                    // a later message already took this slot
+                    return;
+                }
+                if (slot.bytes.length < message.length()) {
+                    slot.bytes = Arrays.copyOf(slot.bytes, Math.max(slot.bytes.length * 2, message.length()));
+                }
+                System.arraycopy(message.array(), message.offset(), slot.bytes, 0, message.length());
+                slot.length = message.length();
+                slot.sequence = seq;
+            }
+        }
+
+        @Override
+        List<String> dump() {
+            final long end = sequence.get();
+            final long start = Math.max(0, end - ring.length);
+            final List<String> messages = new ArrayList<>((int) (end - start));
+            for (long i = start; i < end; i++) {
+                final Slot slot = ring[(int) (i % ring.length)];
+                synchronized (slot) {
+                    if (slot.sequence == i) {
+                        messages.add(new String(slot.bytes, 0, slot.length, StandardCharsets.UTF_8));
+                    }
+                }
+            }
+            return messages;
+        }
+
+        /**
+         * An entry of the ring, guarded by its own monitor.
+         */
+        private static final class Slot {
+            private byte[] bytes = new byte[0];
+            private int length;
+            private long sequence = -1;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.forgerock.audit.batch.CommonAuditBatchConfiguration.POLLING_TIMEOUT;
+import static org.forgerock.audit.batch.CommonAuditBatchConfiguration.POLLING_TIMEOUT_UNIT;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.forgerock.audit.handlers.sentinel.SyslogFormatter.TopicPlan;
+import org.forgerock.json.JsonValue;
+import org.forgerock.util.Reject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves the formatting of audit events off the threads that publish them.
+ * <p>
+ * Publishing threads only enqueue a {@link TopicPlan#snapshot(JsonValue) snapshot} of the event, together with the
+ * time at which it was published so that its timestamp is unaffected by the delay. A small pool of formatter threads
+ * renders the messages in parallel and hands them to the {@link SyslogPublisher}. Each topic is always formatted by
+ * the same thread, so events of a topic reach the publisher in the order in which they were published.
+ * <p>
+ * Parallelism therefore only spans topics: the events of a single topic are formatted one at a time, on one thread,
+ * however many threads are configured, and a handler publishing a single busy topic gains nothing from more than
+ * one formatter thread.
+ * <p>
+ * Formatting failures can no longer be reported to the publishing thread; they are logged instead, and reported to
+ * the {@link DeliveryListener} of the event, if any.
+ * <p>
+ * When given a {@link BacklogMonitor}, whether an event is formatted in the minimal form of the degraded mode is
+ * decided as it is formatted, from the backlog at that time.
+ */
+class DeferredFormatter {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeferredFormatter.class);
+
+    /** Minimum capacity, shared by the formatter threads, as for {@link AsynchronousSyslogPublisher}. */
+    private static final int MIN_CAPACITY = 5000;
+
+    private final SyslogFormatter formatter;
+    private final SyslogPublisher publisher;
+    /** Decides when events are formatted in degraded mode; <code>null</code> if they are always formatted in full. */
+    private final BacklogMonitor backlogMonitor;
+    private final Lane[] lanes;
+    /** Flag for notifying the formatter threads to exit once their queue is empty. */
+    private volatile boolean stopRequested;
+
+    /**
+     * Construct a new DeferredFormatter and start its formatter threads.
+     *
+     * @param name           the name prefix of the formatter threads.
+     * @param formatter      the formatter rendering the messages.
+     * @param publisher      the publisher to which the rendered messages are handed.
+     * @param backlogMonitor decides when events are formatted in degraded mode; <code>null</code> for never.
+     * @param threads        the number of formatter threads.
+     * @param capacity       the maximum number of events waiting to be formatted before publishing threads block;
+     *                       raised to {@value #MIN_CAPACITY} if lower.
+     */
+    DeferredFormatter(String name, SyslogFormatter formatter, SyslogPublisher publisher, BacklogMonitor backlogMonitor,
+            int threads, int capacity) {
+        Reject.ifNull(formatter);
+        Reject.ifNull(publisher);
+        this.formatter = formatter;
+        this.publisher = publisher;
+        this.backlogMonitor = backlogMonitor;
+        this.lanes = new Lane[Math.max(threads, 1)];
+        final int laneCapacity = Math.max(Math.max(capacity, MIN_CAPACITY) / lanes.length, 1);
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(laneCapacity);
+            final Thread thread = new Thread(lanes[i], name + "-" + i);
+            thread.setDaemon(true);
+            lanes[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Enqueues an audit event for formatting and publication, blocking while the queue of its topic is full.
+     *
+     * @param topicPlan  The plan of the topic to which the <code>auditEvent</code> belongs.
+     * @param auditEvent The audit event, which must not be modified afterwards.
+     */
+    void submit(TopicPlan topicPlan, JsonValue auditEvent) {
+        submit(topicPlan, auditEvent, null);
+    }
+
+    /**
+     * Enqueues an audit event for formatting and publication with acknowledgement, blocking while the queue of its
+     * topic is full.
+     *
+     * @param topicPlan  The plan of the topic to which the <code>auditEvent</code> belongs.
+     * @param auditEvent The audit event, which must not be modified afterwards.
+     * @param listener   The listener notified of the delivery of the message, or <code>null</code> for none.
+     */
+    void submit(TopicPlan topicPlan, JsonValue auditEvent, DeliveryListener listener) {
+        final PendingEvent pendingEvent =
+                new PendingEvent(topicPlan, auditEvent, System.currentTimeMillis(), listener);
+        final Lane lane = lanes[(topicPlan.getTopic().hashCode() & Integer.MAX_VALUE) % lanes.length];
+        boolean queued = false;
+        boolean interrupted = false;
+        while (!stopRequested) {
+            try {
+                lane.queue.put(pendingEvent);
+                queued = true;
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        // An event queued after its formatter thread has exited would never be formatted
+        if (listener != null && (!queued || !lane.thread.isAlive() && lane.queue.remove(pendingEvent))) {
+            listener.onAbandoned(new IOException("Syslog formatter is closed"));
+        }
+    }
+
+    /**
+     * Formats and publishes the events still queued, then stops the formatter threads.
+     */
+    void close() {
+        stopRequested = true;
+        boolean interrupted = false;
+        for (Lane lane : lanes) {
+            while (lane.thread.isAlive()) {
+                try {
+                    lane.thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void formatAndPublish(PendingEvent pendingEvent, SyslogMessageBuffer buffer) {
+        buffer.reset();
+        try {
+            if (backlogMonitor != null && backlogMonitor.isDegraded()) {
+                formatter.formatDegraded(pendingEvent.topicPlan, pendingEvent.auditEvent, pendingEvent.publishedAt,
+                        buffer);
+            } else {
+                formatter.format(pendingEvent.topicPlan, pendingEvent.auditEvent, pendingEvent.publishedAt, buffer);
+            }
+        } catch (Exception ex) {
+            logger.error("Unable to format " + pendingEvent.topicPlan.getTopic() + " audit event", ex);
+            if (pendingEvent.listener != null) {
+                pendingEvent.listener.onAbandoned(ex);
+            }
+            return;
+        }
+        try {
+            if (pendingEvent.listener != null) {
+                publisher.publishMessage(buffer, pendingEvent.listener);
+            } else {
+                publisher.publishMessage(buffer);
+            }
+        } catch (IOException ex) {
+            logger.error("Unable to publish " + pendingEvent.topicPlan.getTopic() + " audit event", ex);
+            if (pendingEvent.listener != null) {
+                pendingEvent.listener.onAbandoned(ex);
+            }
+        }
+    }
+
+    /**
+     * An event waiting to be formatted.
+     */
+    private static final class PendingEvent {
+
+        private final TopicPlan topicPlan;
+        private final JsonValue auditEvent;
+        private final long publishedAt;
+        /** Notified of the delivery of the message; <code>null</code> if delivery is not acknowledged. */
+        private final DeliveryListener listener;
+
+        private PendingEvent(TopicPlan topicPlan, JsonValue auditEvent, long publishedAt, DeliveryListener listener) {
+            this.topicPlan = topicPlan;
+            this.auditEvent = auditEvent;
+            this.publishedAt = publishedAt;
+            this.listener = listener;
+        }
+    }
+
+    /**
+     * A formatter thread and its queue; runs until the queue is empty AND we've been asked to terminate.
+     */
+    private final class Lane implements Runnable {
+
+        private final BlockingQueue<PendingEvent> queue;
+        private Thread thread;
+
+        private Lane(int capacity) {
+            this.queue = new LinkedBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void run() {
+            SyslogMessageBuffer buffer = new SyslogMessageBuffer();
+            boolean interrupted = false;
+            while (!stopRequested || !queue.isEmpty()) {
+                try {
+                    final PendingEvent pendingEvent = queue.poll(POLLING_TIMEOUT, POLLING_TIMEOUT_UNIT);
+                    if (pendingEvent != null) {
+                        formatAndPublish(pendingEvent, buffer);
+                        if (!buffer.isRetainable()) {
+                            buffer = new SyslogMessageBuffer();
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    // Ignore. We'll rerun the loop and presumably fall out.
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+/**
+ * Notified of the fate of a message published with acknowledgement: exactly one of its methods is called, once.
+ * Either may be called on a thread of the publisher, and so must return promptly.
+ */
+interface DeliveryListener {
+
+    /**
+     * Called once the message has been flushed to the Syslog daemon.
+     */
+    void onDelivered();
+
+    /**
+     * Called if the message will not be delivered, because it could not be formatted or sent, or because the
+     * publisher was closed before it could be.
+     *
+     * @param cause The reason delivery was abandoned.
+     */
+    void onAbandoned(Exception cause);
+}
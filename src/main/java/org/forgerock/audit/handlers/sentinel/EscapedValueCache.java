@@ -0,0 +1,191 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of the escaped, UTF-8 encoded SD-PARAM values of a single field, so that values which repeat
+ * constantly, such as component names, statuses, realms or the ids of service accounts, skip escaping and encoding.
+ * <p>
+ * Eviction follows the CLOCK algorithm: looking a value up marks its entry as referenced, and inserting a value into
+ * a full cache sweeps the clock hand past referenced entries, clearing their mark, until it finds one to evict.
+ * <p>
+ * A cache created for automatic opt-in starts out probing: once it has seen {@link #PROBE_LOOKUPS} lookups it stays
+ * active if at least half of them were hits and otherwise disables itself and lets go of its entries. Hits and misses
+ * are only counted while probing, with {@link LongAdder}s, so that lookups in an active cache touch no shared counter.
+ * <p>
+ * Objects are thread-safe. Lookups are lock-free; insertions are skipped rather than waited for when another thread
+ * is already inserting.
+ */
+final class EscapedValueCache {
+
+    /** Number of lookups after which a probing cache decides whether it is worth keeping. */
+    static final int PROBE_LOOKUPS = 1024;
+    /** Longer values are unlikely to repeat and are not cached. */
+    static final int MAX_VALUE_LENGTH = 256;
+
+    private static final int PROBING = 0;
+    private static final int ACTIVE = 1;
+    private static final int DISABLED = 2;
+
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final Entry[] clock;
+    private final ReentrantLock insertLock = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile int state;
+    private int hand;
+    private int size;
+
+    /**
+     * Construct a new EscapedValueCache.
+     *
+     * @param maxEntries The maximum number of values held.
+     * @param probing    <code>true</code> if the cache should disable itself unless its hit rate proves high.
+     */
+    EscapedValueCache(int maxEntries, boolean probing) {
+        final int capacity = Math.max(maxEntries, 1);
+        this.entries = new ConcurrentHashMap<>(capacity * 4 / 3 + 1);
+        this.clock = new Entry[capacity];
+        this.state = probing ? PROBING : ACTIVE;
+    }
+
+    /**
+     * Returns <code>false</code> once a probing cache has disabled itself.
+     *
+     * @return <code>true</code> if values should be looked up and stored.
+     */
+    boolean isEnabled() {
+        return state != DISABLED;
+    }
+
+    /**
+     * Returns the escaped bytes cached for the provided raw value.
+     *
+     * @param value The raw field value.
+     * @return the escaped, UTF-8 encoded value, or <code>null</code> if it is not cached.
+     */
+    byte[] get(String value) {
+        final Entry entry = entries.get(value);
+        if (entry != null) {
+            entry.referenced = true;
+        }
+        if (state == PROBING) {
+            probe(entry != null);
+        }
+        return entry != null ? entry.bytes : null;
+    }
+
+    private void probe(boolean hit) {
+        (hit ? hits : misses).increment();
+        if (hits.sum() + misses.sum() >= PROBE_LOOKUPS) {
+            decide();
+        }
+    }
+
+    /**
+     * Caches the escaped bytes of a raw value, evicting another value if the cache is full.
+     *
+     * @param value   The raw field value.
+     * @param escaped The escaped, UTF-8 encoded value.
+     */
+    void put(String value, byte[] escaped) {
+        if (state == DISABLED || !insertLock.tryLock()) {
+            return;
+        }
+        try {
+            if (entries.containsKey(value)) {
+                return;
+            }
+            final Entry entry = new Entry(value, escaped);
+            if (size < clock.length) {
+                clock[size++] = entry;
+            } else {
+                while (clock[hand].referenced) {
+                    clock[hand].referenced = false;
+                    hand = (hand + 1) % clock.length;
+                }
+                entries.remove(clock[hand].value);
+                clock[hand] = entry;
+                hand = (hand + 1) % clock.length;
+            }
+            entries.put(value, entry);
+        } finally {
+            insertLock.unlock();
+        }
+    }
+
+    private void decide() {
+        insertLock.lock();
+        try {
+            if (state != PROBING) {
+                return;
+            }
+            final long probeHits = hits.sum();
+            if (probeHits * 2 >= probeHits + misses.sum()) {
+                state = ACTIVE;
+            } else {
+                state = DISABLED;
+                entries.clear();
+                Arrays.fill(clock, null);
+                size = 0;
+            }
+        } finally {
+            insertLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of lookups that found their value cached while the cache was probing.
+     *
+     * @return the hit count.
+     */
+    long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that did not find their value cached while the cache was probing.
+     *
+     * @return the miss count.
+     */
+    long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        final String[] states = { "probing", "active", "disabled" };
+        return states[state] + " (probe hits=" + hits.sum() + ", probe misses=" + misses.sum() + ", size="
+                + entries.size() + ")";
+    }
+
+    private static final class Entry {
+
+        private final String value;
+        private final byte[] bytes;
+        private volatile boolean referenced;
+
+        private Entry(String value, byte[] bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.forgerock.audit.events.AuditEventHelper.getAuditEventSchema;
+import static org.forgerock.audit.util.JsonSchemaUtils.generateJsonPointers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.Aggregation;
+import org.forgerock.audit.handlers.sentinel.SyslogFormatter.TopicPlan;
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.util.Reject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collapses the repeated events of the topics that have an {@link Aggregation} into a single message per time
+ * window, before they are formatted.
+ * <p>
+ * Events are keyed on the values of the configured fields. The first event of a key opens a window and is held back;
+ * repeats within the window only update its count and the time of the last of them. A background thread closes the
+ * windows that have expired and publishes a message for each of them, as does the arrival of a repeat after its
+ * window has expired. Windows are kept in the order in which they were opened, so that when a topic has as many
+ * windows open as configured, the oldest one is closed early to make room, and so that expired windows are found
+ * without scanning the others. Windows still open are closed by {@link #close()}.
+ * <p>
+ * Objects are thread-safe and can therefore be freely shared across threads without synchronization.
+ */
+final class EventAggregator {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventAggregator.class);
+
+    private final SyslogFormatter formatter;
+    private final SyslogPublisher publisher;
+    private final Map<String, TopicAggregation> topicAggregations = new HashMap<>();
+    private final ScheduledExecutorService flushService;
+
+    /**
+     * Construct a new EventAggregator.
+     *
+     * @param aggregations        The configured aggregations.
+     * @param eventTopicsMetaData Schemas and additional meta-data for known audit event topics.
+     * @param formatter           The formatter of the messages standing for each window.
+     * @param publisher           The publisher to which those messages are published.
+     */
+    EventAggregator(List<Aggregation> aggregations, EventTopicsMetaData eventTopicsMetaData,
+            SyslogFormatter formatter, SyslogPublisher publisher) {
+        Reject.ifNull(formatter, publisher);
+        this.formatter = formatter;
+        this.publisher = publisher;
+        long flushInterval = Long.MAX_VALUE;
+        for (Aggregation aggregation : aggregations) {
+            Reject.ifTrue(aggregation.getFields() == null || aggregation.getFields().isEmpty(),
+                    "Syslog aggregation for topic " + aggregation.getTopic() + " requires at least one field");
+            Reject.ifTrue(aggregation.getWindowMillis() <= 0, "Syslog aggregation 'windowMillis' must be positive");
+            Reject.ifTrue(aggregation.getMaxKeys() <= 0, "Syslog aggregation 'maxKeys' must be positive");
+
+            if (topicAggregations.containsKey(aggregation.getTopic())) {
+                logger.warn("Multiple Syslog aggregations defined for {} topic", aggregation.getTopic());
+                continue;
+            }
+
+            final TopicPlan topicPlan = formatter.getTopicPlan(aggregation.getTopic());
+            if (topicPlan == null) {
+                logger.warn("Syslog aggregation defined for unknown topic {}", aggregation.getTopic());
+                continue;
+            }
+
+            final JsonPointer[] pointers = compilePointers(aggregation, eventTopicsMetaData);
+            if (pointers != null) {
+                topicAggregations.put(aggregation.getTopic(), new TopicAggregation(topicPlan, pointers,
+                        aggregation.getWindowMillis(), aggregation.getMaxKeys()));
+                flushInterval = Math.min(flushInterval, Math.max(1, aggregation.getWindowMillis() / 2));
+            }
+        }
+        if (!topicAggregations.isEmpty()) {
+            this.flushService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "SentinelEventAggregator");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flushService.scheduleWithFixedDelay(
+                    () -> flushExpired(System.currentTimeMillis()), flushInterval, flushInterval,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.flushService = null;
+        }
+    }
+
+    private static JsonPointer[] compilePointers(Aggregation aggregation, EventTopicsMetaData eventTopicsMetaData) {
+        final Set<String> topicFieldPointers;
+        try {
+            topicFieldPointers = generateJsonPointers(
+                    getAuditEventSchema(eventTopicsMetaData.getSchema(aggregation.getTopic())));
+        } catch (ResourceException e) {
+            logger.warn(e.getMessage());
+            return null;
+        }
+        final List<JsonPointer> pointers = new ArrayList<>();
+        for (String field : aggregation.getFields()) {
+            final String pointer = field.startsWith("/") ? field : "/" + field;
+            if (!topicFieldPointers.contains(pointer)) {
+                logger.warn("Syslog aggregation for topic {} references unknown field {}",
+                        aggregation.getTopic(), field);
+                return null;
+            }
+            pointers.add(new JsonPointer(pointer));
+        }
+        return pointers.toArray(new JsonPointer[pointers.size()]);
+    }
+
+    /**
+     * Takes over the provided audit event if its topic is aggregated, either opening a window for its key or counting
+     * it as a repeat of the event that did.
+     *
+     * @param topic      The topic of the audit event.
+     * @param auditEvent The audit event about to be published.
+     * @return <code>true</code> if the event has been taken over, <code>false</code> if it should be published as
+     * usual.
+     */
+    boolean aggregate(String topic, JsonValue auditEvent) {
+        return aggregate(topic, auditEvent, System.currentTimeMillis());
+    }
+
+    /**
+     * Takes over the provided audit event, published at the provided time, if its topic is aggregated.
+     *
+     * @param topic      The topic of the audit event.
+     * @param auditEvent The audit event about to be published.
+     * @param nowMillis  The time at which the event is published, in milliseconds since the epoch.
+     * @return <code>true</code> if the event has been taken over.
+     */
+    boolean aggregate(String topic, JsonValue auditEvent, long nowMillis) {
+        final TopicAggregation aggregation = topicAggregations.get(topic);
+        if (aggregation == null) {
+            return false;
+        }
+        final Window closed = aggregation.add(auditEvent, nowMillis);
+        if (closed != null) {
+            publish(aggregation.topicPlan, closed);
+        }
+        return true;
+    }
+
+    /**
+     * Publishes the windows that have expired by the provided time.
+     *
+     * @param nowMillis The current time, in milliseconds since the epoch.
+     */
+    void flushExpired(long nowMillis) {
+        for (TopicAggregation aggregation : topicAggregations.values()) {
+            for (Window window : aggregation.removeExpired(nowMillis)) {
+                publish(aggregation.topicPlan, window);
+            }
+        }
+    }
+
+    /**
+     * Stops the background thread, then publishes the windows still open.
+     */
+    void close() {
+        if (flushService != null) {
+            flushService.shutdownNow();
+            try {
+                flushService.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushExpired(Long.MAX_VALUE);
+    }
+
+    private void publish(TopicPlan topicPlan, Window window) {
+        final SyslogMessageBuffer buffer = new SyslogMessageBuffer();
+        try {
+            if (window.count == 1) {
+                formatter.format(topicPlan, window.firstEvent, window.firstMillis, buffer);
+            } else {
+                formatter.formatAggregated(topicPlan, window.firstEvent, window.count, window.firstMillis,
+                        window.lastMillis, buffer);
+            }
+        } catch (Exception ex) {
+            logger.error("Unable to format " + topicPlan.getTopic() + " audit event", ex);
+            return;
+        }
+        try {
+            publisher.publishMessage(buffer);
+        } catch (IOException ex) {
+            logger.error("Unable to publish " + topicPlan.getTopic() + " audit event", ex);
+        }
+    }
+
+    /**
+     * The open windows of a topic, oldest first.
+     */
+    private static final class TopicAggregation {
+
+        private final TopicPlan topicPlan;
+        private final JsonPointer[] pointers;
+        private final long windowMillis;
+        private final int maxKeys;
+        private final LinkedHashMap<List<String>, Window> windows = new LinkedHashMap<>();
+
+        private TopicAggregation(TopicPlan topicPlan, JsonPointer[] pointers, long windowMillis, int maxKeys) {
+            this.topicPlan = topicPlan;
+            this.pointers = pointers;
+            this.windowMillis = windowMillis;
+            this.maxKeys = maxKeys;
+        }
+
+        /**
+         * Adds the event to the window of its key, and returns the window that had to be closed to do so, if any.
+         */
+        private Window add(JsonValue auditEvent, long nowMillis) {
+            final List<String> key = keyOf(auditEvent);
+            synchronized (this) {
+                Window closed = null;
+                final Window window = windows.get(key);
+                if (window != null) {
+                    if (nowMillis - window.firstMillis < windowMillis) {
+                        window.count++;
+                        window.lastMillis = Math.max(window.lastMillis, nowMillis);
+                        return null;
+                    }
+                    closed = windows.remove(key);
+                } else if (windows.size() >= maxKeys) {
+                    final Iterator<Window> eldest = windows.values().iterator();
+                    closed = eldest.next();
+                    eldest.remove();
+                }
+                windows.put(key, new Window(auditEvent.copy(), nowMillis));
+                return closed;
+            }
+        }
+
+        private synchronized List<Window> removeExpired(long nowMillis) {
+            final List<Window> expired = new ArrayList<>();
+            final Iterator<Window> iterator = windows.values().iterator();
+            while (iterator.hasNext()) {
+                final Window window = iterator.next();
+                if (nowMillis - window.firstMillis < windowMillis) {
+                    break;
+                }
+                expired.add(window);
+                iterator.remove();
+            }
+            return expired;
+        }
+
+        private List<String> keyOf(JsonValue auditEvent) {
+            final String[] key = new String[pointers.length];
+            for (int i = 0; i < pointers.length; i++) {
+                final JsonValue value = auditEvent.get(pointers[i]);
+                if (value != null && !value.isNull()) {
+                    key[i] = value.isString() ? value.asString() : value.getObject().toString();
+                }
+            }
+            return Arrays.asList(key);
+        }
+    }
+
+    /**
+     * The repeats of the first event of a key within a window.
+     */
+    private static final class Window {
+
+        private final JsonValue firstEvent;
+        private final long firstMillis;
+        private long lastMillis;
+        private int count = 1;
+
+        private Window(JsonValue firstEvent, long firstMillis) {
+            this.firstEvent = firstEvent;
+            this.firstMillis = firstMillis;
+            this.lastMillis = firstMillis;
+        }
+    }
+}
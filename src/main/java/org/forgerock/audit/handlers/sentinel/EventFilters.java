@@ -0,0 +1,284 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.forgerock.audit.events.AuditEventHelper.getAuditEventSchema;
+import static org.forgerock.audit.util.JsonSchemaUtils.generateJsonPointers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.EventFilter;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.EventFilter.Combination;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.FilterCondition;
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.util.Reject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Decides which audit events are dropped by the configured {@link EventFilter}s, before any formatting is done.
+ * <p>
+ * The filters are compiled once, per topic, into pre-parsed {@link JsonPointer}s and conditions that are plain
+ * string predicates, so that topics without filters cost a single map lookup and filtered topics only read the
+ * fields their conditions name. Filters are evaluated in the configured order, and the first one to match is
+ * credited with a hit.
+ * <p>
+ * Objects are thread-safe and can therefore be freely shared across threads without synchronization.
+ */
+final class EventFilters {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventFilters.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Map<String, TopicFilters> topicFilters = new HashMap<>();
+    private final List<Rule> rules = new ArrayList<>();
+
+    /**
+     * Compiles the provided filters.
+     *
+     * @param filters             The configured event filters.
+     * @param eventTopicsMetaData Schemas and additional meta-data for known audit event topics.
+     */
+    EventFilters(List<EventFilter> filters, EventTopicsMetaData eventTopicsMetaData) {
+        final Map<String, List<EventFilter>> filtersByTopic = new LinkedHashMap<>();
+        for (EventFilter filter : filters) {
+            Reject.ifTrue(filter.getConditions() == null || filter.getConditions().isEmpty(),
+                    "Syslog filter for topic " + filter.getTopic() + " requires at least one condition");
+            if (!eventTopicsMetaData.containsTopic(filter.getTopic())) {
+                logger.warn("Syslog filter defined for unknown topic {}", filter.getTopic());
+                continue;
+            }
+            filtersByTopic.computeIfAbsent(filter.getTopic(), topic -> new ArrayList<>()).add(filter);
+        }
+        for (Map.Entry<String, List<EventFilter>> entry : filtersByTopic.entrySet()) {
+            final TopicFilters compiled = compile(entry.getKey(), entry.getValue(), eventTopicsMetaData);
+            if (compiled != null) {
+                topicFilters.put(entry.getKey(), compiled);
+            }
+        }
+    }
+
+    private TopicFilters compile(String topic, List<EventFilter> filters, EventTopicsMetaData eventTopicsMetaData) {
+        final Set<String> topicFieldPointers;
+        try {
+            topicFieldPointers = generateJsonPointers(getAuditEventSchema(eventTopicsMetaData.getSchema(topic)));
+        } catch (ResourceException e) {
+            logger.warn(e.getMessage());
+            return null;
+        }
+        final List<String> fields = new ArrayList<>();
+        final List<Rule> topicRules = new ArrayList<>();
+        int position = 0;
+        filters:
+        for (EventFilter filter : filters) {
+            final String name = filter.getName() != null ? filter.getName() : topic + "[" + position + "]";
+            position++;
+            final List<Condition> conditions = new ArrayList<>();
+            for (FilterCondition condition : filter.getConditions()) {
+                String field = condition.getField();
+                if (field != null && !field.startsWith("/")) {
+                    field = "/" + field;
+                }
+                if (!topicFieldPointers.contains(field)) {
+                    logger.warn("Syslog filter {} for topic {} references unknown field {}",
+                            name, topic, condition.getField());
+                    continue filters;
+                }
+                int slot = fields.indexOf(field);
+                if (slot < 0) {
+                    slot = fields.size();
+                    fields.add(field);
+                }
+                conditions.add(new Condition(slot, compile(name, condition)));
+            }
+            final Rule rule = new Rule(name, filter.getMatch() == Combination.ANY,
+                    conditions.toArray(new Condition[conditions.size()]));
+            topicRules.add(rule);
+            rules.add(rule);
+        }
+        if (topicRules.isEmpty()) {
+            return null;
+        }
+        final List<JsonPointer> pointers = new ArrayList<>(fields.size());
+        for (String field : fields) {
+            pointers.add(new JsonPointer(field));
+        }
+        return new TopicFilters(pointers, topicRules.toArray(new Rule[topicRules.size()]));
+    }
+
+    private static Predicate<String> compile(String name, FilterCondition condition) {
+        Reject.ifNull(condition.getOperator(), "Syslog filter " + name + " requires an 'operator' for each condition");
+        if (condition.getOperator() == FilterCondition.Operator.IN) {
+            Reject.ifTrue(condition.getValues() == null || condition.getValues().isEmpty(),
+                    "Syslog filter " + name + " requires 'values' for the IN operator");
+            final Set<String> values = new HashSet<>(condition.getValues());
+            return values::contains;
+        }
+        final String value = condition.getValue();
+        Reject.ifNull(value, "Syslog filter " + name + " requires a 'value' for the "
+                + condition.getOperator() + " operator");
+        switch (condition.getOperator()) {
+        case EQUALS:
+            return value::equals;
+        case PREFIX:
+            return text -> text.startsWith(value);
+        case REGEX:
+            final Pattern pattern = Pattern.compile(value);
+            return text -> pattern.matcher(text).matches();
+        default:
+            throw new IllegalArgumentException("Unsupported Syslog filter operator " + condition.getOperator());
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the provided audit event is dropped by one of the filters of its topic.
+     *
+     * @param topic      The topic of the audit event.
+     * @param auditEvent The audit event about to be published.
+     * @return <code>true</code> if the event should not be published.
+     */
+    boolean isDropped(String topic, JsonValue auditEvent) {
+        final TopicFilters filters = topicFilters.get(topic);
+        return filters != null && filters.matches(auditEvent, null);
+    }
+
+    /**
+     * Returns <code>true</code> if the provided serialized audit event is dropped by one of the filters of its
+     * topic. Only the fields named by the conditions of the topic are read from it.
+     *
+     * @param topic      The topic of the audit event.
+     * @param auditEvent The UTF-8 encoded JSON of the audit event about to be published.
+     * @return <code>true</code> if the event should not be published.
+     * @throws IOException if the event is not a well-formed JSON object.
+     */
+    boolean isDropped(String topic, byte[] auditEvent) throws IOException {
+        final TopicFilters filters = topicFilters.get(topic);
+        if (filters == null) {
+            return false;
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(auditEvent)) {
+            return filters.matches(null, filters.fieldReader.read(parser));
+        }
+    }
+
+    /**
+     * Returns the number of events dropped by each filter, in the configured order.
+     *
+     * @return the hit counts, keyed by filter name.
+     */
+    Map<String, Long> getHitCounts() {
+        final Map<String, Long> hitCounts = new LinkedHashMap<>();
+        for (Rule rule : rules) {
+            hitCounts.merge(rule.name, rule.hits.get(), Long::sum);
+        }
+        return hitCounts;
+    }
+
+    /**
+     * The compiled filters of a topic, along with the fields their conditions read.
+     */
+    private static final class TopicFilters {
+
+        private final JsonPointer[] pointers;
+        private final StreamingFieldReader fieldReader;
+        private final Rule[] rules;
+
+        private TopicFilters(List<JsonPointer> pointers, Rule[] rules) {
+            this.pointers = pointers.toArray(new JsonPointer[pointers.size()]);
+            this.fieldReader = new StreamingFieldReader(pointers);
+            this.rules = rules;
+        }
+
+        /**
+         * Evaluates the filters against either the parsed event or the field values already read from it.
+         */
+        private boolean matches(JsonValue auditEvent, JsonValue[] values) {
+            for (Rule rule : rules) {
+                if (rule.matches(auditEvent, values, pointers)) {
+                    rule.hits.incrementAndGet();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A compiled {@link EventFilter}.
+     */
+    private static final class Rule {
+
+        private final String name;
+        private final boolean any;
+        private final Condition[] conditions;
+        private final AtomicLong hits = new AtomicLong();
+
+        private Rule(String name, boolean any, Condition[] conditions) {
+            this.name = name;
+            this.any = any;
+            this.conditions = conditions;
+        }
+
+        private boolean matches(JsonValue auditEvent, JsonValue[] values, JsonPointer[] pointers) {
+            for (Condition condition : conditions) {
+                final JsonValue value = values != null
+                        ? values[condition.slot]
+                        : auditEvent.get(pointers[condition.slot]);
+                if (condition.holds(value) == any) {
+                    return any;
+                }
+            }
+            return !any;
+        }
+    }
+
+    /**
+     * A compiled {@link FilterCondition}, reading the field held in the given slot.
+     */
+    private static final class Condition {
+
+        private final int slot;
+        private final Predicate<String> predicate;
+
+        private Condition(int slot, Predicate<String> predicate) {
+            this.slot = slot;
+            this.predicate = predicate;
+        }
+
+        private boolean holds(JsonValue value) {
+            if (value == null || value.isNull()) {
+                return false;
+            }
+            return predicate.test(value.isString() ? value.asString() : value.getObject().toString());
+        }
+    }
+}
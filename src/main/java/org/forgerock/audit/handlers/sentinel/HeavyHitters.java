@@ -0,0 +1,126 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded sketch of the most frequent of an unbounded set of keys, such as client addresses.
+ * <p>
+ * Frequencies are estimated by a count-min sketch: a few rows of counters, each indexed by a different hash of the
+ * key, whose minimum over-estimates the frequency of the key by a small margin. The keys whose estimate ranks among
+ * the highest are kept as candidates, along with their latest estimate; once twice as many candidates as needed have
+ * accumulated, a single thread trims them back to the highest ones and raises the estimate newcomers must exceed.
+ * Counting a key therefore costs a few atomic increments, and a map update for the keys that are, or could become,
+ * heavy hitters.
+ * <p>
+ * Objects are thread-safe and can therefore be freely shared across threads without synchronization.
+ */
+final class HeavyHitters {
+
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+    private final int capacity;
+    private final int widthMask;
+    private final AtomicLongArray counters;
+    private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+    private final AtomicBoolean trimming = new AtomicBoolean();
+    /** The lowest estimate among the candidates kept by the last trim. */
+    private volatile long threshold;
+
+    /**
+     * Construct a new HeavyHitters sketch.
+     *
+     * @param topKeys The number of most frequent keys to be reported.
+     */
+    HeavyHitters(int topKeys) {
+        this.capacity = Math.max(1, topKeys) * 4;
+        final int width = Integer.highestOneBit(Math.max(1024, capacity * 64) - 1) << 1;
+        this.widthMask = width - 1;
+        this.counters = new AtomicLongArray(DEPTH * width);
+    }
+
+    /**
+     * Counts an occurrence of the provided key.
+     *
+     * @param key The key.
+     */
+    void add(String key) {
+        final int hash = key.hashCode();
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            final int index = row * (widthMask + 1) + (mix(hash, SEEDS[row]) & widthMask);
+            estimate = Math.min(estimate, counters.incrementAndGet(index));
+        }
+        if (estimate > threshold || candidates.size() < capacity || candidates.containsKey(key)) {
+            candidates.put(key, estimate);
+            if (candidates.size() > 2 * capacity) {
+                trim();
+            }
+        }
+    }
+
+    /**
+     * Returns the most frequent keys, most frequent first, with their estimated number of occurrences.
+     *
+     * @param count The number of keys to return.
+     * @return the most frequent keys.
+     */
+    List<Map.Entry<String, Long>> top(int count) {
+        final List<Map.Entry<String, Long>> top = sortedCandidates();
+        return top.size() > count ? top.subList(0, count) : top;
+    }
+
+    private void trim() {
+        if (trimming.compareAndSet(false, true)) {
+            try {
+                final List<Map.Entry<String, Long>> sorted = sortedCandidates();
+                if (sorted.size() > capacity) {
+                    for (Map.Entry<String, Long> evicted : sorted.subList(capacity, sorted.size())) {
+                        candidates.remove(evicted.getKey(), evicted.getValue());
+                    }
+                    threshold = sorted.get(capacity - 1).getValue();
+                }
+            } finally {
+                trimming.set(false);
+            }
+        }
+    }
+
+    private List<Map.Entry<String, Long>> sortedCandidates() {
+        final List<Map.Entry<String, Long>> sorted = new ArrayList<>(candidates.size());
+        for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+            sorted.add(new SimpleImmutableEntry<>(candidate.getKey(), candidate.getValue()));
+        }
+        sorted.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return sorted;
+    }
+
+    private static int mix(int hash, int seed) {
+        int h = hash * seed;
+        h ^= h >>> 16;
+        h *= 0x7FEB352D;
+        h ^= h >>> 15;
+        return h;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.audit.providers.LocalHostNameProvider;
+import org.forgerock.util.Reject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Supplies the address and name of the local host for the <code>src</code> and <code>targetType</code> CEF
+ * extension fields.
+ * <p>
+ * Both values are resolved once at construction and, if a refresh interval is configured, re-resolved periodically
+ * on a background thread so that the request threads formatting events never wait on name resolution. When a
+ * refresh fails, the last successfully resolved values continue to be served.
+ * <p>
+ * Objects are thread-safe and can therefore be freely shared across threads without synchronization.
+ */
+class HostIdentity implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HostIdentity.class);
+    private static final String NIL_VALUE = "-";
+
+    private final LocalHostNameProvider localHostNameProvider;
+    private final ScheduledExecutorService refreshService;
+    private volatile Identity identity = new Identity(NIL_VALUE, NIL_VALUE);
+
+    /**
+     * Construct a new HostIdentity.
+     *
+     * @param localHostNameProvider Strategy for obtaining hostname of current server.
+     * @param refreshInterval       Milliseconds between attempts to re-resolve the local host; zero or less to
+     *                              resolve only once.
+     */
+    HostIdentity(LocalHostNameProvider localHostNameProvider, long refreshInterval) {
+        Reject.ifNull(localHostNameProvider, "LocalHostNameProvider must not be null");
+        this.localHostNameProvider = localHostNameProvider;
+        refresh();
+        if (refreshInterval > 0) {
+            this.refreshService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "SentinelHostIdentity");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refreshService.scheduleWithFixedDelay(
+                    this::refresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+        } else {
+            this.refreshService = null;
+        }
+    }
+
+    /**
+     * Returns the textual IP address of the local host.
+     *
+     * @return the host address, or <code>-</code> if it has never been resolved.
+     */
+    String getHostAddress() {
+        return identity.hostAddress;
+    }
+
+    /**
+     * Returns the name of the local host, as provided by the {@link LocalHostNameProvider} or, failing that, as
+     * resolved from the local host address.
+     *
+     * @return the host name, or <code>-</code> if it has never been resolved.
+     */
+    String getHostName() {
+        return identity.hostName;
+    }
+
+    /**
+     * Re-resolves the local host, keeping the previous values for any part that cannot be resolved.
+     */
+    void refresh() {
+        final Identity previous = identity;
+        String hostAddress = previous.hostAddress;
+        String hostName = null;
+        try {
+            hostName = localHostNameProvider.getLocalHostName();
+        } catch (RuntimeException e) {
+            logger.warn("Unable to obtain local host name from provider; continuing to use {}", previous.hostName, e);
+            if (!NIL_VALUE.equals(previous.hostName)) {
+                hostName = previous.hostName;
+            }
+        }
+        try {
+            final InetAddress localHost = InetAddress.getLocalHost();
+            hostAddress = localHost.getHostAddress();
+            if (hostName == null) {
+                hostName = localHost.getHostName();
+            }
+        } catch (UnknownHostException | RuntimeException e) {
+            logger.warn("Unable to resolve local host; continuing to use {}/{}", previous.hostName,
+                    previous.hostAddress, e);
+        }
+        identity = new Identity(hostAddress, hostName != null ? hostName : previous.hostName);
+    }
+
+    /**
+     * Stops refreshing the local host identity.
+     */
+    @Override
+    public void close() {
+        if (refreshService != null) {
+            refreshService.shutdownNow();
+        }
+    }
+
+    /**
+     * Immutable pairing of host address and name, so that both are always read consistently.
+     */
+    private static final class Identity {
+
+        private final String hostAddress;
+        private final String hostName;
+
+        private Identity(String hostAddress, String hostName) {
+            this.hostAddress = hostAddress;
+            this.hostName = hostName;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.SheddingConfiguration;
+import org.forgerock.audit.handlers.sentinel.SyslogFormatter.TopicPlan;
+import org.forgerock.json.JsonValue;
+import org.forgerock.util.Reject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drops the events less severe than the configured minimum {@link Severity} while the {@link SyslogPublisher} is
+ * backed up, before they are formatted, so that the threads publishing them return at once rather than block waiting
+ * for room in its queue.
+ * <p>
+ * Shedding starts once the occupancy of the queue reaches the high watermark and stops once it has drained to the low
+ * watermark, as decided by a {@link BacklogMonitor}. Once shedding has stopped, as noticed by the next event published
+ * or by a background check every {@value #CHECK_INTERVAL_MILLIS} milliseconds, whichever comes first, a
+ * {@link Severity#WARNING} summary of the events dropped in the meantime is published, with the
+ * {@link #SHEDDING_SUMMARY} event name and a <code>topic.SEVERITY</code> SD-PARAM for each number of events dropped.
+ * Closing the shedder publishes the summary of the events dropped since shedding started, if any.
+ * <p>
+ * The events dropped are counted per topic and severity, in total and since shedding started, with a lock-free array
+ * of counters per topic.
+ * <p>
+ * Objects are thread-safe and can therefore be freely shared across threads without synchronization.
+ */
+final class LoadShedder {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadShedder.class);
+    private static final Severity[] SEVERITIES = Severity.values();
+    /** Event name of the summary published when load shedding stops. */
+    static final String SHEDDING_SUMMARY = "SYSLOG-SHEDDING-SUMMARY";
+    /** Milliseconds between background checks of whether shedding has stopped. */
+    static final long CHECK_INTERVAL_MILLIS = 1000;
+
+    private final BacklogMonitor backlogMonitor;
+    private final Severity minimumSeverity;
+    private final SyslogFormatter formatter;
+    private final SyslogPublisher publisher;
+    private final AtomicBoolean shedding = new AtomicBoolean();
+    private volatile long sheddingSince;
+    private final Map<String, ShedCounters> shedCounters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService checkService;
+
+    /**
+     * Construct a new LoadShedder.
+     *
+     * @param publisher The publisher whose queue is monitored, and to which the summaries are published.
+     * @param formatter The formatter of the summaries.
+     * @param config    The load shedding configuration.
+     */
+    LoadShedder(SyslogPublisher publisher, SyslogFormatter formatter, SheddingConfiguration config) {
+        this(publisher, formatter, config, CHECK_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Construct a new LoadShedder.
+     *
+     * @param publisher     The publisher whose queue is monitored, and to which the summaries are published.
+     * @param formatter     The formatter of the summaries.
+     * @param config        The load shedding configuration.
+     * @param checkInterval Milliseconds between background checks of whether shedding has stopped; zero or less to
+     *                      only check as events are published.
+     */
+    LoadShedder(SyslogPublisher publisher, SyslogFormatter formatter, SheddingConfiguration config,
+            long checkInterval) {
+        Reject.ifNull(config.getMinimumSeverity(), "Syslog shedding 'minimumSeverity' is required");
+        this.backlogMonitor = new BacklogMonitor(publisher, config.getHighWatermark(), config.getLowWatermark(),
+                "Load shedding", "dropping events less severe than " + config.getMinimumSeverity(),
+                "no longer dropping events");
+        this.minimumSeverity = config.getMinimumSeverity();
+        this.formatter = formatter;
+        this.publisher = publisher;
+        if (checkInterval > 0) {
+            this.checkService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "SentinelLoadShedder");
+                thread.setDaemon(true);
+                return thread;
+            });
+            checkService.scheduleWithFixedDelay(this::checkBacklog, checkInterval, checkInterval,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.checkService = null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the provided audit event should be dropped rather than published, counting it
+     * if so.
+     *
+     * @param topicPlan  The plan of the topic to which the <code>auditEvent</code> belongs.
+     * @param auditEvent The audit event about to be published.
+     * @return <code>true</code> if the publisher is backed up and the event is less severe than the minimum.
+     */
+    boolean shouldShed(TopicPlan topicPlan, JsonValue auditEvent) {
+        if (!backlogMonitor.isDegraded()) {
+            stopShedding();
+            return false;
+        }
+        if (!shedding.get() && shedding.compareAndSet(false, true)) {
+            sheddingSince = System.currentTimeMillis();
+        }
+        final Severity severity = topicPlan.resolveSeverity(auditEvent);
+        if (severity.getCode() <= minimumSeverity.getCode()) {
+            return false;
+        }
+        final ShedCounters counters = shedCounters.computeIfAbsent(topicPlan.getTopic(), topic -> new ShedCounters());
+        counters.total.incrementAndGet(severity.ordinal());
+        counters.sinceSheddingStarted.incrementAndGet(severity.ordinal());
+        return true;
+    }
+
+    /**
+     * Returns the number of events dropped since the handler started.
+     *
+     * @return the shed event counts, by topic and severity.
+     */
+    Map<String, Map<Severity, Long>> getShedEventCounts() {
+        final Map<String, Map<Severity, Long>> counts = new TreeMap<>();
+        for (Map.Entry<String, ShedCounters> entry : shedCounters.entrySet()) {
+            final Map<Severity, Long> topicCounts = new EnumMap<>(Severity.class);
+            for (Severity severity : SEVERITIES) {
+                final long count = entry.getValue().total.get(severity.ordinal());
+                if (count > 0) {
+                    topicCounts.put(severity, count);
+                }
+            }
+            counts.put(entry.getKey(), topicCounts);
+        }
+        return counts;
+    }
+
+    /**
+     * Stops the background check, then publishes the summary of the events dropped since shedding started, if any.
+     */
+    void close() {
+        if (checkService != null) {
+            checkService.shutdownNow();
+            try {
+                checkService.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        shedding.set(false);
+        publishSummary();
+    }
+
+    /**
+     * Publishes the summary if the backlog has drained since shedding started, although no event was published since.
+     */
+    private void checkBacklog() {
+        try {
+            if (shedding.get() && !backlogMonitor.isDegraded()) {
+                stopShedding();
+            }
+        } catch (RuntimeException ex) {
+            logger.error("Unable to publish Syslog shedding summary", ex);
+        }
+    }
+
+    private void stopShedding() {
+        if (shedding.get() && shedding.compareAndSet(true, false)) {
+            publishSummary();
+        }
+    }
+
+    private void publishSummary() {
+        final Map<String, String> params = new LinkedHashMap<>();
+        long shedEvents = 0;
+        for (Map.Entry<String, ShedCounters> entry : new TreeMap<>(shedCounters).entrySet()) {
+            for (Severity severity : SEVERITIES) {
+                final long count = entry.getValue().sinceSheddingStarted.getAndSet(severity.ordinal(), 0);
+                if (count > 0) {
+                    params.put(entry.getKey() + "." + severity.name(), String.valueOf(count));
+                    shedEvents += count;
+                }
+            }
+        }
+        if (shedEvents == 0) {
+            return;
+        }
+        final SyslogMessageBuffer buffer = new SyslogMessageBuffer();
+        formatter.formatSummary(SHEDDING_SUMMARY, Severity.WARNING, "shedding", shedEvents, sheddingSince,
+                System.currentTimeMillis(), params, buffer);
+        try {
+            publisher.publishMessage(buffer);
+        } catch (IOException ex) {
+            logger.error("Unable to publish Syslog shedding summary", ex);
+        }
+    }
+
+    /**
+     * The numbers of events of a topic dropped, indexed by severity ordinal.
+     */
+    private static final class ShedCounters {
+
+        private final AtomicLongArray total = new AtomicLongArray(SEVERITIES.length);
+        private final AtomicLongArray sinceSheddingStarted = new AtomicLongArray(SEVERITIES.length);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Brings a message that exceeds the maximum message size back within it by truncating its largest values first.
+ * <p>
+ * The values are those whose spans were recorded in the {@link SyslogMessageBuffer} as the message was encoded. A
+ * common cap is chosen so that the values longer than it, once cut down to it and followed by a
+ * {@link #TRUNCATION_MARKER}, leave the message within the maximum size; shorter values are left untouched. Values
+ * are cut on UTF-8 character boundaries and never between a backslash and the character it escapes, and the message
+ * is compacted in place, without any intermediate copy.
+ * <p>
+ * A message whose header and parameter names alone exceed the maximum size is left as small as truncating every
+ * value makes it.
+ */
+final class MessageSizeLimiter {
+
+    /** Appended to each truncated value. */
+    static final String TRUNCATION_MARKER = NestedValueWriter.TRUNCATION_MARKER;
+
+    private static final byte[] MARKER = TRUNCATION_MARKER.getBytes(StandardCharsets.UTF_8);
+
+    private MessageSizeLimiter() {
+        // utility class
+    }
+
+    /**
+     * Returns the number of bytes that may be written for a single value while encoding, given the bytes of the
+     * message that are not values so far: any more and the value would have to be truncated anyway.
+     * <p>
+     * The result is large enough for the value to still be selected for truncation by {@link #limit}, which adds
+     * the marker.
+     *
+     * @param maxSize       The maximum message size.
+     * @param overheadSoFar The number of bytes written so far that do not belong to a value.
+     * @return the maximum number of bytes worth writing for the next value.
+     */
+    static int maxValueSize(int maxSize, int overheadSoFar) {
+        return Math.max(maxSize - overheadSoFar, 0) + MARKER.length + 1;
+    }
+
+    /**
+     * Truncates the largest values of the message in the provided buffer until it fits the maximum size.
+     *
+     * @param message The encoded message, with the spans of its values recorded.
+     * @param maxSize The maximum message size, in bytes.
+     * @return <code>true</code> if any value was truncated.
+     */
+    static boolean limit(SyslogMessageBuffer message, int maxSize) {
+        final int length = message.length();
+        if (length <= maxSize || message.getSpanCount() == 0) {
+            return false;
+        }
+        int valueBytes = 0;
+        int largest = 0;
+        for (int i = 0; i < message.getSpanCount(); i++) {
+            final int valueLength = message.getSpanEnd(i) - message.getSpanStart(i);
+            valueBytes += valueLength;
+            largest = Math.max(largest, valueLength);
+        }
+        final int budget = maxSize - (length - valueBytes);
+
+        // the largest cap for which the kept values fit the budget
+        int low = 0;
+        int high = largest;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (keptBytes(message, mid) <= budget) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return truncate(message, low);
+    }
+
+    private static int keptBytes(SyslogMessageBuffer message, int cap) {
+        int kept = 0;
+        for (int i = 0; i < message.getSpanCount(); i++) {
+            final int valueLength = message.getSpanEnd(i) - message.getSpanStart(i);
+            kept += isTruncated(valueLength, cap) ? cap + MARKER.length : valueLength;
+        }
+        return kept;
+    }
+
+    /**
+     * Values are only truncated if that saves more than the marker costs, so that compacting never needs to write
+     * ahead of what it reads.
+     */
+    private static boolean isTruncated(int valueLength, int cap) {
+        return valueLength > cap + MARKER.length;
+    }
+
+    private static boolean truncate(SyslogMessageBuffer message, int cap) {
+        final byte[] bytes = message.array();
+        final int offset = message.offset();
+        int read = 0;
+        int write = 0;
+        boolean truncated = false;
+        for (int i = 0; i < message.getSpanCount(); i++) {
+            final int start = message.getSpanStart(i);
+            final int end = message.getSpanEnd(i);
+            if (!isTruncated(end - start, cap)) {
+                continue;
+            }
+            final int cut = safeCut(bytes, offset + start, offset + start + cap) - offset;
+            System.arraycopy(bytes, offset + read, bytes, offset + write, cut - read);
+            write += cut - read;
+            System.arraycopy(MARKER, 0, bytes, offset + write, MARKER.length);
+            write += MARKER.length;
+            read = end;
+            truncated = true;
+        }
+        final int length = message.length();
+        System.arraycopy(bytes, offset + read, bytes, offset + write, length - read);
+        message.truncate(write + length - read);
+        return truncated;
+    }
+
+    /**
+     * Moves the cut back, if need be, so that it neither falls inside a UTF-8 encoded character nor separates an
+     * escaping backslash from the character it escapes.
+     */
+    private static int safeCut(byte[] bytes, int start, int cut) {
+        int i = start;
+        while (i < cut) {
+            i += bytes[i] == '\\' ? 2 : 1;
+        }
+        if (i > cut) {
+            return cut - 1;
+        }
+        while (cut > start && (bytes[cut] & 0xc0) == 0x80) {
+            cut--;
+        }
+        return cut;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.json.JsonValue;
+
+/**
+ * Writes the JSON representation of audit event field values that are objects, arrays or other non-string values
+ * directly into the message buffer, already escaped for use as an SD-PARAM value.
+ * <p>
+ * The value is walked once, in the same layout as {@link JsonValue#toString()} (<code>{ "a": 1, "b": [ 2 ] }</code>),
+ * without building an intermediate JSON string to be escaped and copied again. Walking stops, and a
+ * {@link #TRUNCATION_MARKER} is appended, once the value has produced the given number of bytes or is nested too
+ * deeply, so that a pathological subtree cannot blow up the message. Strings that do not fit are cut on a character
+ * boundary, never inside an escape sequence or a UTF-8 encoded character.
+ */
+final class NestedValueWriter {
+
+    /** Appended in place of whatever part of a value was not written. */
+    static final String TRUNCATION_MARKER = "...";
+
+    /** Nesting depth beyond which values are truncated rather than walked. */
+    private static final int MAX_DEPTH = 64;
+
+    /** Largest number of bytes a single character of a string is written as: <code>\\u001f</code>. */
+    private static final int MAX_CHARACTER_SIZE = 7;
+
+    // JSON punctuation, already escaped for use in an SD-PARAM value
+    private static final byte[] NULL = bytes("null");
+    private static final byte[] OBJECT_START = bytes("{ ");
+    private static final byte[] OBJECT_END = bytes(" }");
+    private static final byte[] ARRAY_START = bytes("[ ");
+    private static final byte[] ARRAY_END = bytes(" \\]");
+    private static final byte[] QUOTE = bytes("\\\"");
+    private static final byte[] KEY_SEPARATOR = bytes("\\\": ");
+    private static final byte[] VALUE_SEPARATOR = bytes(", ");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private NestedValueWriter() {
+        // utility class
+    }
+
+    /**
+     * Appends the escaped JSON representation of the provided value.
+     *
+     * @param value     The value, as returned by {@link JsonValue#getObject()}.
+     * @param sd        The buffer to which the escaped JSON is appended.
+     * @param maxLength The number of bytes after which writing stops.
+     */
+    static void write(Object value, SyslogMessageBuffer sd, int maxLength) {
+        final int limit = sd.length() + maxLength;
+        if (!writeValue(value, sd, limit, 0)) {
+            sd.append(TRUNCATION_MARKER);
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the value was truncated.
+     */
+    private static boolean writeValue(Object value, SyslogMessageBuffer sd, int limit, int depth) {
+        if (sd.length() >= limit || depth > MAX_DEPTH) {
+            return false;
+        }
+        final Object object = value instanceof JsonValue ? ((JsonValue) value).getObject() : value;
+        if (object == null) {
+            sd.append(NULL);
+        } else if (object instanceof String) {
+            return writeString((String) object, sd, limit);
+        } else if (object instanceof Map) {
+            sd.append(OBJECT_START);
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+                if (!first) {
+                    sd.append(VALUE_SEPARATOR);
+                }
+                first = false;
+                sd.append(QUOTE);
+                if (!writeStringContent(String.valueOf(entry.getKey()), sd, limit)) {
+                    return false;
+                }
+                sd.append(KEY_SEPARATOR);
+                if (!writeValue(entry.getValue(), sd, limit, depth + 1)) {
+                    return false;
+                }
+            }
+            sd.append(OBJECT_END);
+        } else if (object instanceof List) {
+            sd.append(ARRAY_START);
+            final List<?> list = (List<?>) object;
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    sd.append(VALUE_SEPARATOR);
+                }
+                if (!writeValue(list.get(i), sd, limit, depth + 1)) {
+                    return false;
+                }
+            }
+            sd.append(ARRAY_END);
+        } else if (object instanceof Number || object instanceof Boolean) {
+            sd.append(object.toString());
+        } else {
+            ParamValueEscaper.escape(object.toString(), sd);
+        }
+        return true;
+    }
+
+    /**
+     * @return <code>false</code> if the string was truncated.
+     */
+    private static boolean writeString(String value, SyslogMessageBuffer sd, int limit) {
+        sd.append(QUOTE);
+        if (!writeStringContent(value, sd, limit - QUOTE.length)) {
+            return false;
+        }
+        sd.append(QUOTE);
+        return true;
+    }
+
+    /**
+     * Writes as much of the content of a JSON string as fits before the limit.
+     *
+     * @return <code>false</code> if the string was truncated.
+     */
+    private static boolean writeStringContent(String value, SyslogMessageBuffer sd, int limit) {
+        final int end = fittingLength(value, limit - sd.length());
+        writeStringContent(value, end, sd);
+        return end == value.length();
+    }
+
+    /**
+     * Returns the number of leading characters of the value whose escaped UTF-8 encoding fits in the given number of
+     * bytes, without splitting a surrogate pair.
+     */
+    private static int fittingLength(String value, int budget) {
+        final int length = value.length();
+        if ((long) length * MAX_CHARACTER_SIZE <= budget) {
+            return length;
+        }
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            int width = 1;
+            final int characterSize;
+            if (c == '"' || c == '\\') {
+                characterSize = 4;
+            } else if (c == ']') {
+                characterSize = 2;
+            } else if (c < 0x20) {
+                characterSize = c == '\b' || c == '\f' || c == '\n' || c == '\r' || c == '\t' ? 3 : MAX_CHARACTER_SIZE;
+            } else if (c < 0x80) {
+                characterSize = 1;
+            } else if (c < 0x800) {
+                characterSize = 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                characterSize = 4;
+                width = 2;
+            } else {
+                characterSize = 3;
+            }
+            if (size + characterSize > budget) {
+                return i;
+            }
+            size += characterSize;
+            i += width - 1;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the first characters of the content of a JSON string: JSON escaping first, then SD-PARAM escaping of the
+     * result, so that <code>"</code> becomes <code>\\\"</code> and <code>\</code> becomes <code>\\\\</code>.
+     */
+    private static void writeStringContent(String value, int end, SyslogMessageBuffer sd) {
+        int start = 0;
+        for (int i = 0; i < end; i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sd.append(value, start, i).append((byte) '\\').append((byte) '\\').append((byte) '\\');
+                start = i;
+            } else if (c == ']') {
+                sd.append(value, start, i).append((byte) '\\');
+                start = i;
+            } else if (c < 0x20) {
+                sd.append(value, start, i).append((byte) '\\').append((byte) '\\');
+                writeControlCharacter(c, sd);
+                start = i + 1;
+            }
+        }
+        sd.append(value, start, end);
+    }
+
+    private static void writeControlCharacter(char c, SyslogMessageBuffer sd) {
+        switch (c) {
+        case '\b':
+            sd.append((byte) 'b');
+            break;
+        case '\f':
+            sd.append((byte) 'f');
+            break;
+        case '\n':
+            sd.append((byte) 'n');
+            break;
+        case '\r':
+            sd.append((byte) 'r');
+            break;
+        case '\t':
+            sd.append((byte) 't');
+            break;
+        default:
+            sd.append((byte) 'u').append((byte) '0').append((byte) '0')
+                    .append((byte) HEX[c >> 4]).append((byte) HEX[c & 0xf]);
+            break;
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
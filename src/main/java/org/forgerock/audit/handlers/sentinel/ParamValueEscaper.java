@@ -0,0 +1,95 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+/**
+ * Escapes SD-PARAM values: <code>\</code>, <code>"</code> and <code>]</code> are each preceded by a backslash.
+ * <p>
+ * Values are scanned once and written straight into the message buffer; the common case of a value that needs no
+ * escaping is copied as is, and otherwise escaping starts at the first character that needs it.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc5424#section-6.3.3">RFC-5424 section 6.3.3</a>
+ */
+final class ParamValueEscaper {
+
+    private ParamValueEscaper() {
+        // utility class
+    }
+
+    /**
+     * Returns <code>true</code> if the provided character must be escaped in an SD-PARAM value.
+     *
+     * @param c The character.
+     * @return <code>true</code> if the character must be preceded by a backslash.
+     */
+    static boolean isEscaped(char c) {
+        return c == '\\' || c == '"' || c == ']';
+    }
+
+    /**
+     * Appends the escaped UTF-8 encoding of the provided value to the message being built.
+     *
+     * @param value The SD-PARAM value.
+     * @param sd    The buffer to which the escaped value is appended.
+     */
+    static void escape(String value, SyslogMessageBuffer sd) {
+        final int first = indexOfEscaped(value);
+        if (first < 0) {
+            sd.append(value);
+            return;
+        }
+        final int length = value.length();
+        int start = 0;
+        for (int i = first; i < length; i++) {
+            if (isEscaped(value.charAt(i))) {
+                sd.append(value, start, i).append((byte) '\\');
+                start = i;
+            }
+        }
+        sd.append(value, start, length);
+    }
+
+    /**
+     * Appends the escaped UTF-8 encoding of the first characters of the provided value to the message being built.
+     *
+     * @param value The SD-PARAM value.
+     * @param end   The number of characters to escape and append; must not split a surrogate pair.
+     * @param sd    The buffer to which the escaped value is appended.
+     */
+    static void escape(String value, int end, SyslogMessageBuffer sd) {
+        int start = 0;
+        for (int i = 0; i < end; i++) {
+            if (isEscaped(value.charAt(i))) {
+                sd.append(value, start, i).append((byte) '\\');
+                start = i;
+            }
+        }
+        sd.append(value, start, end);
+    }
+
+    /**
+     * Returns the index of the first character of the value that must be escaped, or -1 if there is none.
+     */
+    private static int indexOfEscaped(String value) {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (isEscaped(value.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static java.util.Collections.singletonList;
+import static org.forgerock.audit.events.AuditEventHelper.getAuditEventSchema;
+import static org.forgerock.audit.util.JsonSchemaUtils.generateJsonPointers;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.RateLimit;
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.util.Reject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Samples the audit events of the topics that have a {@link RateLimit}, and admits the rest through lock-free token
+ * buckets, before any formatting is done.
+ * <p>
+ * Each bucket is a single {@link AtomicLong} holding the theoretical arrival time of the next event: admitting an
+ * event pushes it one emission interval further, and events are admitted as long as it is no more than the burst
+ * ahead of the current time. An event therefore costs one compare-and-set, and a bucket that has been idle for long
+ * enough is full again without being refilled. Buckets of field values are created on first use and, once the
+ * configured number of values is tracked, idle ones are evicted at most once per second; values that still find no
+ * room share an overflow bucket.
+ * <p>
+ * Objects are thread-safe and can therefore be freely shared across threads without synchronization.
+ */
+final class RateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimiter.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final long EVICTION_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, TopicLimit> topicLimits = new HashMap<>();
+    private final AtomicLong suppressedEvents = new AtomicLong();
+
+    /**
+     * Compiles the provided rate limits.
+     *
+     * @param rateLimits          The configured rate limits.
+     * @param eventTopicsMetaData Schemas and additional meta-data for known audit event topics.
+     */
+    RateLimiter(List<RateLimit> rateLimits, EventTopicsMetaData eventTopicsMetaData) {
+        for (RateLimit rateLimit : rateLimits) {
+            Reject.ifTrue(rateLimit.getSampleRate() < 0 || rateLimit.getSampleRate() > 1,
+                    "Syslog rate limit 'sampleRate' between 0 and 1 is required");
+            Reject.ifTrue(rateLimit.getMaxTrackedValues() <= 0,
+                    "Syslog rate limit 'maxTrackedValues' must be positive");
+
+            if (topicLimits.containsKey(rateLimit.getTopic())) {
+                logger.warn("Multiple Syslog rate limits defined for {} topic", rateLimit.getTopic());
+                continue;
+            }
+
+            if (!eventTopicsMetaData.containsTopic(rateLimit.getTopic())) {
+                logger.warn("Syslog rate limit defined for unknown topic {}", rateLimit.getTopic());
+                continue;
+            }
+
+            JsonPointer pointer = null;
+            if (rateLimit.getField() != null) {
+                String field = rateLimit.getField();
+                if (!field.startsWith("/")) {
+                    field = "/" + field;
+                }
+                try {
+                    JsonValue auditEventMetaData = eventTopicsMetaData.getSchema(rateLimit.getTopic());
+                    if (!generateJsonPointers(getAuditEventSchema(auditEventMetaData)).contains(field)) {
+                        logger.warn("Syslog rate limit for topic {} references unknown field {}",
+                                rateLimit.getTopic(), rateLimit.getField());
+                        continue;
+                    }
+                } catch (ResourceException e) {
+                    logger.warn(e.getMessage());
+                    continue;
+                }
+                pointer = new JsonPointer(field);
+            }
+
+            topicLimits.put(rateLimit.getTopic(), new TopicLimit(rateLimit, pointer));
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the provided audit event is to be published, and <code>false</code> if it is
+     * suppressed by the sampling or the rate limit of its topic.
+     *
+     * @param topic      The topic of the audit event.
+     * @param auditEvent The audit event about to be published.
+     * @return <code>true</code> if the event is admitted.
+     */
+    boolean tryAcquire(String topic, JsonValue auditEvent) {
+        return tryAcquire(topic, auditEvent, System.nanoTime());
+    }
+
+    /**
+     * Returns <code>true</code> if the provided audit event is to be published at the provided time.
+     *
+     * @param topic      The topic of the audit event.
+     * @param auditEvent The audit event about to be published.
+     * @param nanoTime   The current value of {@link System#nanoTime()}.
+     * @return <code>true</code> if the event is admitted.
+     */
+    boolean tryAcquire(String topic, JsonValue auditEvent, long nanoTime) {
+        final TopicLimit limit = topicLimits.get(topic);
+        if (limit == null) {
+            return true;
+        }
+        final JsonValue value = limit.pointer == null ? null : auditEvent.get(limit.pointer);
+        return admit(limit, value, nanoTime);
+    }
+
+    /**
+     * Returns <code>true</code> if the provided serialized audit event is to be published. Only the limited field,
+     * if any, is read from it.
+     *
+     * @param topic      The topic of the audit event.
+     * @param auditEvent The UTF-8 encoded JSON of the audit event about to be published.
+     * @return <code>true</code> if the event is admitted.
+     * @throws IOException if the event is not a well-formed JSON object.
+     */
+    boolean tryAcquire(String topic, byte[] auditEvent) throws IOException {
+        final TopicLimit limit = topicLimits.get(topic);
+        if (limit == null) {
+            return true;
+        }
+        JsonValue value = null;
+        if (limit.fieldReader != null) {
+            try (JsonParser parser = JSON_FACTORY.createParser(auditEvent)) {
+                value = limit.fieldReader.read(parser)[0];
+            }
+        }
+        return admit(limit, value, System.nanoTime());
+    }
+
+    private boolean admit(TopicLimit limit, JsonValue value, long nanoTime) {
+        if (limit.isAdmitted(value, nanoTime)) {
+            return true;
+        }
+        suppressedEvents.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Returns the number of events suppressed by sampling or rate limiting.
+     *
+     * @return the suppressed event count.
+     */
+    long getSuppressedEventCount() {
+        return suppressedEvents.get();
+    }
+
+    /**
+     * The compiled {@link RateLimit} of a topic.
+     */
+    private static final class TopicLimit {
+
+        private final double sampleRate;
+        /** Nanoseconds between two events at the sustained rate, or zero if the rate is not limited. */
+        private final long interval;
+        /** How far ahead of the current time the next theoretical arrival may be for an event to be admitted. */
+        private final long tolerance;
+        private final JsonPointer pointer;
+        private final StreamingFieldReader fieldReader;
+        private final int maxTrackedValues;
+        private final TokenBucket topicBucket = new TokenBucket();
+        private final TokenBucket overflowBucket = new TokenBucket();
+        private final Map<String, TokenBucket> valueBuckets = new ConcurrentHashMap<>();
+        private final AtomicLong lastEviction = new AtomicLong(System.nanoTime() - EVICTION_INTERVAL);
+
+        private TopicLimit(RateLimit rateLimit, JsonPointer pointer) {
+            this.sampleRate = rateLimit.getSampleRate();
+            if (rateLimit.getEventsPerSecond() > 0) {
+                this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rateLimit.getEventsPerSecond()));
+                final long burst = rateLimit.getBurst() > 0
+                        ? rateLimit.getBurst()
+                        : Math.max(1, (long) Math.ceil(rateLimit.getEventsPerSecond()));
+                this.tolerance = (burst - 1) * interval;
+            } else {
+                this.interval = 0;
+                this.tolerance = 0;
+            }
+            this.pointer = pointer;
+            this.fieldReader = pointer == null ? null : new StreamingFieldReader(singletonList(pointer));
+            this.maxTrackedValues = rateLimit.getMaxTrackedValues();
+        }
+
+        private boolean isAdmitted(JsonValue value, long nanoTime) {
+            if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+                return false;
+            }
+            if (interval == 0) {
+                return true;
+            }
+            final TokenBucket bucket = pointer == null ? topicBucket : bucketFor(value, nanoTime);
+            return bucket.tryAcquire(nanoTime, interval, tolerance);
+        }
+
+        /**
+         * Returns the bucket of the provided field value; events without the field share the bucket of the empty
+         * value.
+         */
+        private TokenBucket bucketFor(JsonValue value, long nanoTime) {
+            final String key = value == null || value.isNull()
+                    ? ""
+                    : value.isString() ? value.asString() : value.getObject().toString();
+            TokenBucket bucket = valueBuckets.get(key);
+            if (bucket == null) {
+                if (valueBuckets.size() >= maxTrackedValues && !evictIdleBuckets(nanoTime)) {
+                    return overflowBucket;
+                }
+                bucket = valueBuckets.computeIfAbsent(key, k -> new TokenBucket());
+            }
+            return bucket;
+        }
+
+        /**
+         * Evicts the buckets that are full again, unless that was done less than a second ago, and returns
+         * <code>true</code> if there is room for a new one.
+         */
+        private boolean evictIdleBuckets(long nanoTime) {
+            final long last = lastEviction.get();
+            if (nanoTime - last >= EVICTION_INTERVAL && lastEviction.compareAndSet(last, nanoTime)) {
+                valueBuckets.values().removeIf(bucket -> bucket.isFull(nanoTime));
+            }
+            return valueBuckets.size() < maxTrackedValues;
+        }
+    }
+
+    /**
+     * A token bucket, kept as the theoretical arrival time of the next event.
+     */
+    private static final class TokenBucket {
+
+        private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+        private boolean tryAcquire(long nanoTime, long interval, long tolerance) {
+            while (true) {
+                final long arrival = theoreticalArrival.get();
+                final long next = Math.max(arrival, nanoTime);
+                if (next - nanoTime > tolerance) {
+                    return false;
+                }
+                if (theoreticalArrival.compareAndSet(arrival, next + interval)) {
+                    return true;
+                }
+            }
+        }
+
+        private boolean isFull(long nanoTime) {
+            return theoreticalArrival.get() <= nanoTime;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.forgerock.audit.events.AuditEventHelper.getAuditEventSchema;
+import static org.forgerock.audit.util.JsonSchemaUtils.generateJsonPointers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.Rollup;
+import org.forgerock.audit.handlers.sentinel.StructuredDataFormatter.Field;
+import org.forgerock.audit.handlers.sentinel.SyslogFormatter.TopicPlan;
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.util.Reject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Counts the events of the topics that have a {@link Rollup}, and publishes a summary of them every interval.
+ * <p>
+ * The counters of the current interval of a topic are lock-free: a {@link LongAdder} for the total, an array of
+ * counters indexed by {@link Severity}, a map of counters per outcome, bounded to {@value #MAX_OUTCOMES} distinct
+ * outcomes beyond which the others are counted under {@value #OTHER_OUTCOME}, and a {@link HeavyHitters} sketch of
+ * the most frequent keys. A background thread swaps in fresh counters at the end of every interval, and publishes a
+ * {@link Severity#INFORMATIONAL} summary of those it has swapped out, with the {@link #ROLLUP} event name and the
+ * <code>topic</code>, <code>severity.SEVERITY</code>, <code>outcome.OUTCOME</code>, <code>topN.key</code> and
+ * <code>topN.count</code> SD-PARAMs. The counters of the interval under way are summarized by {@link #close()}.
+ * <p>
+ * Outcomes and keys are reported as the field projection of the topic reports their field: masked or hashed when it
+ * redacts the field, and not at all when it excludes it.
+ * <p>
+ * Objects are thread-safe and can therefore be freely shared across threads without synchronization.
+ */
+final class Rollups {
+
+    private static final Logger logger = LoggerFactory.getLogger(Rollups.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final Severity[] SEVERITIES = Severity.values();
+    /** Event name of the summaries. */
+    static final String ROLLUP = "SYSLOG-ROLLUP";
+    /** Number of distinct outcomes counted per interval. */
+    static final int MAX_OUTCOMES = 32;
+    /** Outcome under which the events whose outcome finds no room are counted. */
+    static final String OTHER_OUTCOME = "other";
+    /** Maximum length of an SD-NAME. */
+    private static final int MAX_SD_NAME_LENGTH = 32;
+
+    private final SyslogFormatter formatter;
+    private final SyslogPublisher publisher;
+    private final Map<String, TopicRollup> topicRollups = new HashMap<>();
+    private final ScheduledExecutorService rollupService;
+
+    /**
+     * Construct a new Rollups.
+     *
+     * @param rollups             The configured rollups.
+     * @param eventTopicsMetaData Schemas and additional meta-data for known audit event topics.
+     * @param formatter           The formatter of the summaries.
+     * @param publisher           The publisher to which the summaries are published.
+     */
+    Rollups(List<Rollup> rollups, EventTopicsMetaData eventTopicsMetaData, SyslogFormatter formatter,
+            SyslogPublisher publisher) {
+        Reject.ifNull(formatter, publisher);
+        this.formatter = formatter;
+        this.publisher = publisher;
+        for (Rollup rollup : rollups) {
+            Reject.ifTrue(rollup.getIntervalMillis() <= 0, "Syslog rollup 'intervalMillis' must be positive");
+            Reject.ifTrue(rollup.getTopKeys() <= 0, "Syslog rollup 'topKeys' must be positive");
+
+            if (topicRollups.containsKey(rollup.getTopic())) {
+                logger.warn("Multiple Syslog rollups defined for {} topic", rollup.getTopic());
+                continue;
+            }
+
+            final TopicPlan topicPlan = formatter.getTopicPlan(rollup.getTopic());
+            if (topicPlan == null) {
+                logger.warn("Syslog rollup defined for unknown topic {}", rollup.getTopic());
+                continue;
+            }
+
+            final Set<String> topicFieldPointers;
+            try {
+                topicFieldPointers = generateJsonPointers(
+                        getAuditEventSchema(eventTopicsMetaData.getSchema(rollup.getTopic())));
+            } catch (ResourceException e) {
+                logger.warn(e.getMessage());
+                continue;
+            }
+            final StructuredDataFormatter structuredDataFormatter = topicPlan.getStructuredDataFormatter();
+            final Field outcomeField = compileField(rollup, structuredDataFormatter,
+                    compilePointer(rollup, rollup.getOutcomeField(), topicFieldPointers));
+            final Field keyField = compileField(rollup, structuredDataFormatter,
+                    compilePointer(rollup, rollup.getKeyField(), topicFieldPointers));
+            topicRollups.put(rollup.getTopic(), new TopicRollup(topicPlan, rollup, outcomeField, keyField));
+        }
+
+        if (!topicRollups.isEmpty()) {
+            this.rollupService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "SentinelRollup");
+                thread.setDaemon(true);
+                return thread;
+            });
+            for (TopicRollup topicRollup : topicRollups.values()) {
+                rollupService.scheduleAtFixedRate(() -> publish(topicRollup, System.currentTimeMillis()),
+                        topicRollup.intervalMillis, topicRollup.intervalMillis, TimeUnit.MILLISECONDS);
+            }
+        } else {
+            this.rollupService = null;
+        }
+    }
+
+    /**
+     * Returns the pointer to the provided field, or <code>null</code> if none is configured or it is not a field of
+     * the topic, in which case events are not counted by it.
+     */
+    private static JsonPointer compilePointer(Rollup rollup, String field, Set<String> topicFieldPointers) {
+        if (field == null) {
+            return null;
+        }
+        final String pointer = field.startsWith("/") ? field : "/" + field;
+        if (!topicFieldPointers.contains(pointer)) {
+            logger.warn("Syslog rollup for topic {} references unknown field {}", rollup.getTopic(), field);
+            return null;
+        }
+        return new JsonPointer(pointer);
+    }
+
+    /**
+     * Returns the provided field, compiled so that its values are redacted as the field projection of the topic
+     * redacts them, or <code>null</code> if there is no such field or the projection excludes it, in which case
+     * events are not counted by it.
+     */
+    private static Field compileField(Rollup rollup, StructuredDataFormatter structuredDataFormatter,
+            JsonPointer pointer) {
+        if (pointer == null) {
+            return null;
+        }
+        final Field field = structuredDataFormatter.compileReportedField(pointer);
+        if (field == null) {
+            logger.warn("Syslog rollup for topic {} references field {}, which its field projection excludes",
+                    rollup.getTopic(), pointer);
+        }
+        return field;
+    }
+
+    /**
+     * Counts the provided audit event in the current interval of its topic, if the topic has a rollup.
+     *
+     * @param topic      The topic of the audit event.
+     * @param auditEvent The audit event received.
+     */
+    void count(String topic, JsonValue auditEvent) {
+        final TopicRollup rollup = topicRollups.get(topic);
+        if (rollup == null) {
+            return;
+        }
+        final Field outcomeField = rollup.outcomeField;
+        final Field keyField = rollup.keyField;
+        rollup.current.get().count(rollup.topicPlan.resolveSeverity(auditEvent),
+                outcomeField == null ? null : reportedValue(outcomeField, auditEvent.get(outcomeField.pointer)),
+                keyField == null ? null : reportedValue(keyField, auditEvent.get(keyField.pointer)));
+    }
+
+    /**
+     * Counts the provided serialized audit event in the current interval of its topic, if the topic has a rollup.
+     * Only the severity, outcome and key fields, if any, are read from it.
+     *
+     * @param topic      The topic of the audit event.
+     * @param auditEvent The UTF-8 encoded JSON of the audit event received.
+     * @throws IOException if the event is not a well-formed JSON object.
+     */
+    void count(String topic, byte[] auditEvent) throws IOException {
+        final TopicRollup rollup = topicRollups.get(topic);
+        if (rollup == null) {
+            return;
+        }
+        JsonValue[] values = null;
+        if (rollup.fieldReader != null) {
+            try (JsonParser parser = JSON_FACTORY.createParser(auditEvent)) {
+                values = rollup.fieldReader.read(parser);
+            }
+        }
+        final SeverityResolver severityResolver = rollup.topicPlan.getSeverityResolver();
+        rollup.current.get().count(
+                severityResolver.resolveValue(rollup.severitySlot < 0 ? null : values[rollup.severitySlot]),
+                rollup.outcomeSlot < 0 ? null : reportedValue(rollup.outcomeField, values[rollup.outcomeSlot]),
+                rollup.keySlot < 0 ? null : reportedValue(rollup.keyField, values[rollup.keySlot]));
+    }
+
+    /**
+     * Stops the background thread, then publishes the summaries of the intervals under way.
+     */
+    void close() {
+        if (rollupService != null) {
+            rollupService.shutdownNow();
+            try {
+                rollupService.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        final long nowMillis = System.currentTimeMillis();
+        for (TopicRollup topicRollup : topicRollups.values()) {
+            publish(topicRollup, nowMillis);
+        }
+    }
+
+    /**
+     * Ends the current interval of the provided topic at the provided time, and publishes its summary unless no event
+     * was counted during it.
+     */
+    private void publish(TopicRollup topicRollup, long nowMillis) {
+        final Counters counters = topicRollup.current.getAndSet(new Counters(topicRollup.topKeys, nowMillis));
+        final long total = counters.total.sum();
+        if (total == 0) {
+            return;
+        }
+        final SyslogMessageBuffer buffer = new SyslogMessageBuffer();
+        try {
+            formatter.formatSummary(ROLLUP, Severity.INFORMATIONAL, "rollup", total, counters.startMillis, nowMillis,
+                    summarize(topicRollup, counters), buffer);
+        } catch (Exception ex) {
+            logger.error("Unable to format Syslog rollup of " + topicRollup.topicPlan.getTopic() + " topic", ex);
+            return;
+        }
+        try {
+            publisher.publishMessage(buffer);
+        } catch (IOException ex) {
+            logger.error("Unable to publish Syslog rollup of " + topicRollup.topicPlan.getTopic() + " topic", ex);
+        }
+    }
+
+    private static Map<String, String> summarize(TopicRollup topicRollup, Counters counters) {
+        final Map<String, String> params = new LinkedHashMap<>();
+        params.put("topic", topicRollup.topicPlan.getTopic());
+        for (Severity severity : SEVERITIES) {
+            final long count = counters.bySeverity.get(severity.ordinal());
+            if (count > 0) {
+                params.put("severity." + severity.name(), String.valueOf(count));
+            }
+        }
+        for (Map.Entry<String, LongAdder> outcome : new TreeMap<>(counters.byOutcome).entrySet()) {
+            params.put(toSdName("outcome." + outcome.getKey()), String.valueOf(outcome.getValue().sum()));
+        }
+        if (counters.keys != null) {
+            int rank = 1;
+            for (Map.Entry<String, Long> key : counters.keys.top(topicRollup.topKeys)) {
+                params.put("top" + rank + ".key", key.getKey());
+                params.put("top" + rank + ".count", String.valueOf(key.getValue()));
+                rank++;
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Replaces the characters that are not allowed in an SD-NAME by underscores, and truncates it to the maximum
+     * length.
+     */
+    static String toSdName(String name) {
+        final StringBuilder sdName = new StringBuilder(Math.min(name.length(), MAX_SD_NAME_LENGTH));
+        for (int i = 0; i < name.length() && sdName.length() < MAX_SD_NAME_LENGTH; i++) {
+            final char c = name.charAt(i);
+            sdName.append(c > ' ' && c < 127 && c != '=' && c != ']' && c != '"' ? c : '_');
+        }
+        return sdName.toString();
+    }
+
+    /**
+     * Returns the text of the provided value of a field, redacted as the field projection of the topic redacts the
+     * field, or <code>null</code> if there is none.
+     */
+    private static String reportedValue(Field field, JsonValue value) {
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        return StructuredDataFormatter.redact(field,
+                value.isString() ? value.asString() : value.getObject().toString());
+    }
+
+    /**
+     * The compiled {@link Rollup} of a topic, and the counters of its current interval.
+     */
+    private static final class TopicRollup {
+
+        private final TopicPlan topicPlan;
+        private final long intervalMillis;
+        private final int topKeys;
+        /** The field by which events are counted per outcome, or <code>null</code> if there is none. */
+        private final Field outcomeField;
+        /** The field whose most frequent values are reported, or <code>null</code> if there is none. */
+        private final Field keyField;
+        /** Reader of the severity, outcome and key fields, or <code>null</code> if none of them is needed. */
+        private final StreamingFieldReader fieldReader;
+        private final int severitySlot;
+        private final int outcomeSlot;
+        private final int keySlot;
+        private final AtomicReference<Counters> current;
+
+        private TopicRollup(TopicPlan topicPlan, Rollup rollup, Field outcomeField, Field keyField) {
+            this.topicPlan = topicPlan;
+            this.intervalMillis = rollup.getIntervalMillis();
+            this.topKeys = keyField == null ? 0 : rollup.getTopKeys();
+            this.outcomeField = outcomeField;
+            this.keyField = keyField;
+            final List<JsonPointer> pointers = new ArrayList<>();
+            this.severitySlot = addPointer(pointers, topicPlan.getSeverityResolver().getPointer());
+            this.outcomeSlot = addPointer(pointers, outcomeField == null ? null : outcomeField.pointer);
+            this.keySlot = addPointer(pointers, keyField == null ? null : keyField.pointer);
+            this.fieldReader = pointers.isEmpty() ? null : new StreamingFieldReader(pointers);
+            this.current = new AtomicReference<>(new Counters(topKeys, System.currentTimeMillis()));
+        }
+
+        private static int addPointer(List<JsonPointer> pointers, JsonPointer pointer) {
+            if (pointer == null) {
+                return -1;
+            }
+            pointers.add(pointer);
+            return pointers.size() - 1;
+        }
+    }
+
+    /**
+     * The counts of the events of a topic during an interval.
+     */
+    private static final class Counters {
+
+        private final long startMillis;
+        private final LongAdder total = new LongAdder();
+        private final AtomicLongArray bySeverity = new AtomicLongArray(SEVERITIES.length);
+        private final Map<String, LongAdder> byOutcome = new ConcurrentHashMap<>();
+        /** The most frequent keys, or <code>null</code> if the topic has no key field. */
+        private final HeavyHitters keys;
+
+        private Counters(int topKeys, long startMillis) {
+            this.startMillis = startMillis;
+            this.keys = topKeys > 0 ? new HeavyHitters(topKeys) : null;
+        }
+
+        private void count(Severity severity, String outcomeText, String keyText) {
+            total.increment();
+            bySeverity.incrementAndGet(severity.ordinal());
+            if (outcomeText != null) {
+                LongAdder counter = byOutcome.get(outcomeText);
+                if (counter == null) {
+                    counter = byOutcome.size() < MAX_OUTCOMES
+                            ? byOutcome.computeIfAbsent(outcomeText, o -> new LongAdder())
+                            : byOutcome.computeIfAbsent(OTHER_OUTCOME, o -> new LongAdder());
+                }
+                counter.increment();
+            }
+            if (keys != null && keyText != null) {
+                keys.add(keyText);
+            }
+        }
+    }
+}
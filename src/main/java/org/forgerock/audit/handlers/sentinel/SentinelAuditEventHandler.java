@@ -18,14 +18,23 @@ package org.forgerock.audit.handlers.sentinel;
 
 import static org.forgerock.audit.util.ResourceExceptionsUtil.adapt;
 import static org.forgerock.audit.util.ResourceExceptionsUtil.notSupported;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.json.resource.Responses.newResourceResponse;
 
 import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 
 import org.forgerock.audit.Audit;
 import org.forgerock.audit.events.EventTopicsMetaData;
 import org.forgerock.audit.events.handlers.AuditEventHandlerBase;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.EventBufferingConfiguration;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.ResponseMode;
+import org.forgerock.audit.handlers.sentinel.SyslogFormatter.TopicPlan;
 import org.forgerock.audit.providers.DefaultLocalHostNameProvider;
 import org.forgerock.audit.providers.LocalHostNameProvider;
 import org.forgerock.audit.providers.ProductInfoProvider;
@@ -41,6 +50,7 @@ import org.forgerock.json.resource.ResourceResponse;
 import org.forgerock.services.context.Context;
 import org.forgerock.util.Reject;
 import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +64,26 @@ public class SentinelAuditEventHandler extends AuditEventHandlerBase {
 
     private final SyslogPublisher publisher;
     private final SyslogFormatter formatter;
+    /** Counts the events of the configured topics into periodic summaries; <code>null</code> unless configured. */
+    private final Rollups rollups;
+    /** Drops the events matching the configured filters before they are formatted. */
+    private final EventFilters filters;
+    /** Samples and limits the rate of the events of the configured topics before they are formatted. */
+    private final RateLimiter rateLimiter;
+    /** Collapses repeated events; <code>null</code> unless aggregations are configured. */
+    private final EventAggregator aggregator;
+    /** Formats events off the publishing threads; <code>null</code> unless deferred formatting is enabled. */
+    private final DeferredFormatter deferredFormatter;
+    /** Decides when events are formatted in degraded mode; <code>null</code> unless the degraded mode is enabled. */
+    private final BacklogMonitor backlogMonitor;
+    /** Drops the less severe events while the publisher is backed up; <code>null</code> unless shedding is enabled. */
+    private final LoadShedder loadShedder;
+    /** What the response to a published event holds. */
+    private final ResponseMode responseMode;
+    /** Whether the promise returned for a published event only completes once the event has been delivered. */
+    private final boolean acknowledgeDelivery;
+    /** Per-thread buffers into which messages are encoded, so that formatting allocates next to nothing. */
+    private final ThreadLocal<SyslogMessageBuffer> messageBuffers = ThreadLocal.withInitial(SyslogMessageBuffer::new);
 
     /**
      * Create a new SyslogAuditEventHandler instance.
@@ -85,6 +115,8 @@ public class SentinelAuditEventHandler extends AuditEventHandlerBase {
                 "Syslog 'facility' is required");
         Reject.ifTrue(configuration.getProtocol() == TransportProtocol.TCP && configuration.getConnectTimeout() == 0,
                 "Syslog 'connectTimeout' is required for TCP connections");
+        Reject.ifNull(configuration.getResponseMode(),
+                "Syslog 'responseMode' of CLONE, ORIGINAL or ID_ONLY is required");
 
         InetSocketAddress socketAddress = new InetSocketAddress(configuration.getHost(), configuration.getPort());
         this.publisher = configuration.getProtocol().getPublisher(socketAddress, configuration);
@@ -93,6 +125,27 @@ public class SentinelAuditEventHandler extends AuditEventHandlerBase {
                 configuration,
                 getLocalHostNameProvider(localHostNameProvider),
                 getProductNameProvider(productInfoProvider));
+        this.rollups = configuration.getRollups().isEmpty()
+                ? null
+                : new Rollups(configuration.getRollups(), eventTopicsMetaData, formatter, publisher);
+        this.filters = new EventFilters(configuration.getFilters(), eventTopicsMetaData);
+        this.rateLimiter = new RateLimiter(configuration.getRateLimits(), eventTopicsMetaData);
+        this.aggregator = configuration.getAggregations().isEmpty()
+                ? null
+                : new EventAggregator(configuration.getAggregations(), eventTopicsMetaData, formatter, publisher);
+        EventBufferingConfiguration buffering = configuration.getBuffering();
+        this.backlogMonitor = buffering.isEnabled() && buffering.getDegradedMode().isEnabled()
+                ? new BacklogMonitor(publisher, buffering.getDegradedMode())
+                : null;
+        this.loadShedder = buffering.isEnabled() && buffering.getShedding().isEnabled()
+                ? new LoadShedder(publisher, formatter, buffering.getShedding())
+                : null;
+        this.deferredFormatter = buffering.isEnabled() && buffering.isDeferredFormatting()
+                ? new DeferredFormatter("SyslogFormatter", formatter, publisher, backlogMonitor,
+                        buffering.getFormatterThreads(), buffering.getMaxSize())
+                : null;
+        this.responseMode = configuration.getResponseMode();
+        this.acknowledgeDelivery = buffering.isEnabled() && buffering.isAcknowledgeDelivery();
 
         logger.debug("Successfully configured Syslog audit event handler.");
     }
@@ -126,36 +179,205 @@ public class SentinelAuditEventHandler extends AuditEventHandlerBase {
      */
     @Override
     public void shutdown() {
-        synchronized (publisher) {
-            publisher.close();
+        if (rollups != null) {
+            rollups.close();
         }
+        if (aggregator != null) {
+            aggregator.close();
+        }
+        if (deferredFormatter != null) {
+            deferredFormatter.close();
+        }
+        if (loadShedder != null) {
+            loadShedder.close();
+        }
+        publisher.close();
+        formatter.close();
+    }
+
+    /**
+     * Returns the most recent messages sent to the Syslog daemon, oldest first, when the debug tap has been
+     * configured to keep them in memory.
+     *
+     * @return the recent messages; empty unless the debug tap runs in {@code RING} mode.
+     */
+    public List<String> getRecentMessages() {
+        return formatter.getRecentMessages();
+    }
+
+    /**
+     * Returns the number of events whose message had field values truncated to fit the maximum message size.
+     *
+     * @return the truncated event count; always zero unless a maximum message size is configured.
+     */
+    public long getTruncatedEventCount() {
+        return formatter.getTruncatedEventCount();
+    }
+
+    /**
+     * Returns the number of events formatted in the minimal form of the degraded mode because the event buffer was
+     * backed up.
+     *
+     * @return the degraded event count; always zero unless the degraded mode is enabled.
+     */
+    public long getDegradedEventCount() {
+        return formatter.getDegradedEventCount();
+    }
+
+    /**
+     * Returns the number of events dropped by each of the configured filters.
+     *
+     * @return the hit counts, keyed by filter name in the configured order; filters that are not named are keyed by
+     * their topic and position, as in {@code access[0]}.
+     */
+    public Map<String, Long> getFilterHitCounts() {
+        return filters.getHitCounts();
+    }
+
+    /**
+     * Returns the number of events suppressed by the sampling or the rate limit of their topic.
+     *
+     * @return the suppressed event count; always zero unless rate limits are configured.
+     */
+    public long getSuppressedEventCount() {
+        return rateLimiter.getSuppressedEventCount();
+    }
+
+    /**
+     * Returns the number of events dropped by load shedding while the event buffer was backed up.
+     *
+     * @return the shed event counts, by topic and severity; always empty unless load shedding is enabled.
+     */
+    public Map<String, Map<Severity, Long>> getShedEventCounts() {
+        return loadShedder != null
+                ? loadShedder.getShedEventCounts()
+                : Collections.<String, Map<Severity, Long>>emptyMap();
     }
 
     @Override
     public Promise<ResourceResponse, ResourceException> publishEvent(Context context, String topic, JsonValue event) {
 
         try { //rj? could set a breakpt right below
-            final String syslogMessage = formatAsSyslogMessage(topic, event);
-            synchronized (publisher) {
+            if (rollups != null) {
+                rollups.count(topic, event);
+            }
+            if (filters.isDropped(topic, event)) {
+                logger.trace("Dropped {} audit event matching a Syslog filter", topic);
+            } else if (!rateLimiter.tryAcquire(topic, event)) {
+                getTopicPlan(topic).recordSuppressedEvent();
+            } else if (aggregator != null && aggregator.aggregate(topic, event)) {
+                logger.trace("Aggregated {} audit event", topic);
+            } else if (loadShedder != null && loadShedder.shouldShed(getTopicPlan(topic), event)) {
+                logger.trace("Shed {} audit event", topic);
+            } else if (acknowledgeDelivery) {
+                final DeliveryPromise delivery = new DeliveryPromise(newResponse(event));
+                if (deferredFormatter != null) {
+                    final TopicPlan topicPlan = getTopicPlan(topic);
+                    deferredFormatter.submit(topicPlan, topicPlan.snapshot(event), delivery);
+                } else {
+                    final SyslogMessageBuffer syslogMessage = messageBuffer();
+                    formatAsSyslogMessage(topic, event, syslogMessage);
+                    publisher.publishMessage(syslogMessage, delivery);
+                }
+                return delivery.promise;
+            } else if (deferredFormatter != null) {
+                final TopicPlan topicPlan = getTopicPlan(topic);
+                deferredFormatter.submit(topicPlan, topicPlan.snapshot(event));
+            } else {
+                final SyslogMessageBuffer syslogMessage = messageBuffer();
+                formatAsSyslogMessage(topic, event, syslogMessage);
                 publisher.publishMessage(syslogMessage);
             }
 
-            return newResourceResponse(
-                    event.get(ResourceResponse.FIELD_CONTENT_ID).asString(),
-                    null,
-                    event.clone()).asPromise();
+            return newResponse(event).asPromise();
 
         } catch (Exception ex) {
             return adapt(ex).asPromise();
         }
     }
 
-    private String formatAsSyslogMessage(String topic, JsonValue auditEvent) throws ResourceException {
-        if (!formatter.canFormat(topic)) {
+    /**
+     * Publishes an audit event that is already serialized as JSON, such as one replayed from a file, without parsing
+     * it into a {@link JsonValue}: only the fields that make up the Syslog message are read from it. The message is
+     * identical to the one {@link #publishEvent(Context, String, JsonValue)} would publish for the parsed event.
+     * <p>
+     * The event is counted, filtered, rate limited and formatted on the calling thread, even when deferred formatting
+     * is enabled. Serialized events are never aggregated nor shed: the caller is blocked until the publisher has room
+     * for them instead.
+     *
+     * @param topic      The topic of the audit event.
+     * @param auditEvent The UTF-8 encoded JSON of the audit event.
+     * @throws ResourceException if the event could not be formatted or published.
+     */
+    public void publishEvent(String topic, byte[] auditEvent) throws ResourceException {
+        final TopicPlan topicPlan = getTopicPlan(topic);
+        final SyslogMessageBuffer syslogMessage = messageBuffer();
+        try {
+            if (rollups != null) {
+                rollups.count(topic, auditEvent);
+            }
+            if (filters.isDropped(topic, auditEvent)) {
+                logger.trace("Dropped {} audit event matching a Syslog filter", topic);
+                return;
+            }
+            if (!rateLimiter.tryAcquire(topic, auditEvent)) {
+                topicPlan.recordSuppressedEvent();
+                return;
+            }
+            formatter.format(topicPlan, auditEvent, syslogMessage);
+        } catch (Exception ex) {
+            throw new BadRequestException(ex);
+        }
+        try {
+            publisher.publishMessage(syslogMessage);
+        } catch (Exception ex) {
+            throw adapt(ex);
+        }
+    }
+
+    private SyslogMessageBuffer messageBuffer() {
+        SyslogMessageBuffer buffer = messageBuffers.get();
+        if (!buffer.isRetainable()) {
+            buffer = new SyslogMessageBuffer();
+            messageBuffers.set(buffer);
+        }
+        buffer.reset();
+        return buffer;
+    }
+
+    private ResourceResponse newResponse(JsonValue event) {
+        final String id = event.get(ResourceResponse.FIELD_CONTENT_ID).asString();
+        return newResourceResponse(id, null, responseContent(id, event));
+    }
+
+    private JsonValue responseContent(String id, JsonValue event) {
+        switch (responseMode) {
+        case ORIGINAL:
+            return event;
+        case ID_ONLY:
+            return json(object(field(ResourceResponse.FIELD_CONTENT_ID, id)));
+        default:
+            return event.clone();
+        }
+    }
+
+    private TopicPlan getTopicPlan(String topic) throws ResourceException {
+        final TopicPlan topicPlan = formatter.getTopicPlan(topic);
+        if (topicPlan == null) {
             throw new InternalServerErrorException("Unable to format " + topic + " audit event");
         }
+        return topicPlan;
+    }
+
+    private void formatAsSyslogMessage(String topic, JsonValue auditEvent, SyslogMessageBuffer syslogMessage)
+            throws ResourceException {
+        final TopicPlan topicPlan = getTopicPlan(topic);
         try {
-            return formatter.format(topic, auditEvent);
+            if (backlogMonitor != null && backlogMonitor.isDegraded()) {
+                formatter.formatDegraded(topicPlan, auditEvent, System.currentTimeMillis(), syslogMessage);
+            } else {
+                formatter.format(topicPlan, auditEvent, syslogMessage);
+            }
         } catch (Exception ex) {
             throw new BadRequestException(ex);
         }
@@ -175,6 +397,29 @@ public class SentinelAuditEventHandler extends AuditEventHandlerBase {
         return new NotSupportedException("query operations are not supported").asPromise();
     }
 
+    /**
+     * The promise returned for a published event when delivery is acknowledged, completed by the publisher.
+     */
+    private static final class DeliveryPromise implements DeliveryListener {
+
+        private final ResourceResponse response;
+        private final PromiseImpl<ResourceResponse, ResourceException> promise = PromiseImpl.create();
+
+        private DeliveryPromise(ResourceResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void onDelivered() {
+            promise.handleResult(response);
+        }
+
+        @Override
+        public void onAbandoned(Exception cause) {
+            promise.handleException(adapt(cause));
+        }
+    }
+
     /**
      * Default implementation of ProductNameProvider.
      */
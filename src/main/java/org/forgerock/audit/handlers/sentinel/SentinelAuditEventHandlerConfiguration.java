@@ -71,10 +71,62 @@ public class SentinelAuditEventHandlerConfiguration extends EventHandlerConfigur
     @JsonPropertyDescription("audit.handlers.syslog.severityFieldMappings")
     private List<SeverityFieldMapping> severityFieldMappings = new ArrayList<>();
 
+    /** The local host identity is re-resolved every five minutes by default. */
+    @JsonPropertyDescription("audit.handlers.syslog.hostIdentityRefreshInterval")
+    private int hostIdentityRefreshInterval = 300000;
+
+    /** Messages are not limited in size by default. */
+    @JsonPropertyDescription("audit.handlers.syslog.maxMessageSize")
+    private int maxMessageSize;
+
+    /** Object and array field values are cut short after 64 KiB by default. */
+    @JsonPropertyDescription("audit.handlers.syslog.maxNestedValueSize")
+    private int maxNestedValueSize = 65536;
+
+    @JsonProperty
+    @JsonPropertyDescription("audit.handlers.syslog.fieldProjections")
+    private List<FieldProjection> fieldProjections = new ArrayList<>();
+
+    @JsonProperty
+    @JsonPropertyDescription("audit.handlers.syslog.filters")
+    private List<EventFilter> filters = new ArrayList<>();
+
+    @JsonProperty
+    @JsonPropertyDescription("audit.handlers.syslog.rateLimits")
+    private List<RateLimit> rateLimits = new ArrayList<>();
+
+    @JsonProperty
+    @JsonPropertyDescription("audit.handlers.syslog.aggregations")
+    private List<Aggregation> aggregations = new ArrayList<>();
+
+    @JsonProperty
+    @JsonPropertyDescription("audit.handlers.syslog.rollups")
+    private List<Rollup> rollups = new ArrayList<>();
+
+    /** Every schema field is emitted under its dot-notation name by default. */
+    @JsonPropertyDescription("audit.handlers.syslog.compact")
+    private CompactConfiguration compact = new CompactConfiguration();
+
+    /** Escaped field values are not cached by default. */
+    @JsonPropertyDescription("audit.handlers.syslog.valueCache")
+    private ValueCacheConfiguration valueCache = new ValueCacheConfiguration();
+
     /** Event buffering is disabled by default. */
     @JsonPropertyDescription("audit.handlers.syslog.buffering")
     protected EventBufferingConfiguration buffering = new EventBufferingConfiguration();
 
+    /** Messages are not tapped by default. */
+    @JsonPropertyDescription("audit.handlers.syslog.debugTap")
+    private DebugTapConfiguration debugTap = new DebugTapConfiguration();
+
+    /** Wall clock timestamps with second precision are used by default. */
+    @JsonPropertyDescription("audit.handlers.syslog.timestamp")
+    private TimestampConfiguration timestamp = new TimestampConfiguration();
+
+    /** Published events are answered with a deep copy of the event by default. */
+    @JsonPropertyDescription("audit.handlers.syslog.responseMode")
+    private ResponseMode responseMode = ResponseMode.CLONE;
+
     /**
      * Returns the protocol over which messages transmitted to the Syslog daemon.
      *
@@ -199,6 +251,210 @@ public class SentinelAuditEventHandlerConfiguration extends EventHandlerConfigur
         this.severityFieldMappings = severityFieldMappings;
     }
 
+    /**
+     * Returns the configurations selecting and redacting the fields of each topic copied to structured data.
+     *
+     * @return the field projections.
+     */
+    public List<FieldProjection> getFieldProjections() {
+        return fieldProjections;
+    }
+
+    /**
+     * Sets the configurations selecting and redacting the fields of each topic copied to structured data.
+     *
+     * @param fieldProjections
+     *          the field projections.
+     */
+    public void setFieldProjections(List<FieldProjection> fieldProjections) {
+        this.fieldProjections = fieldProjections;
+    }
+
+    /**
+     * Returns the rules selecting the events of each topic that are dropped rather than published.
+     *
+     * @return the event filters.
+     */
+    public List<EventFilter> getFilters() {
+        return filters;
+    }
+
+    /**
+     * Sets the rules selecting the events of each topic that are dropped rather than published.
+     *
+     * @param filters
+     *          the event filters.
+     */
+    public void setFilters(List<EventFilter> filters) {
+        this.filters = filters;
+    }
+
+    /**
+     * Returns the configurations sampling and limiting the rate of the events of each topic.
+     *
+     * @return the rate limits.
+     */
+    public List<RateLimit> getRateLimits() {
+        return rateLimits;
+    }
+
+    /**
+     * Sets the configurations sampling and limiting the rate of the events of each topic.
+     *
+     * @param rateLimits
+     *          the rate limits.
+     */
+    public void setRateLimits(List<RateLimit> rateLimits) {
+        this.rateLimits = rateLimits;
+    }
+
+    /**
+     * Returns the configurations collapsing the repeated events of each topic into a single message.
+     *
+     * @return the aggregations.
+     */
+    public List<Aggregation> getAggregations() {
+        return aggregations;
+    }
+
+    /**
+     * Sets the configurations collapsing the repeated events of each topic into a single message.
+     *
+     * @param aggregations
+     *          the aggregations.
+     */
+    public void setAggregations(List<Aggregation> aggregations) {
+        this.aggregations = aggregations;
+    }
+
+    /**
+     * Returns the configurations summarizing the volume of the events of each topic at regular intervals.
+     *
+     * @return the rollups.
+     */
+    public List<Rollup> getRollups() {
+        return rollups;
+    }
+
+    /**
+     * Sets the configurations summarizing the volume of the events of each topic at regular intervals.
+     *
+     * @param rollups
+     *          the rollups.
+     */
+    public void setRollups(List<Rollup> rollups) {
+        this.rollups = rollups;
+    }
+
+    /**
+     * Returns the interval after which the address and name of the local host are re-resolved in the background.
+     * <p>
+     * Zero or less means the local host identity is only resolved once, when the handler is created.
+     * </p>
+     *
+     * @return the refresh interval in milliseconds.
+     */
+    public int getHostIdentityRefreshInterval() {
+        return hostIdentityRefreshInterval;
+    }
+
+    /**
+     * Sets the interval after which the address and name of the local host are re-resolved in the background.
+     * <p>
+     * Zero or less means the local host identity is only resolved once, when the handler is created.
+     * </p>
+     *
+     * @param hostIdentityRefreshInterval
+     *          the refresh interval in milliseconds.
+     */
+    public void setHostIdentityRefreshInterval(int hostIdentityRefreshInterval) {
+        this.hostIdentityRefreshInterval = hostIdentityRefreshInterval;
+    }
+
+    /**
+     * Returns the maximum size of a message, excluding any transport framing; zero or less for no limit.
+     * <p>
+     * The largest field values of messages that would exceed it are truncated, on UTF-8 character boundaries and
+     * followed by a <code>...</code> marker, until the message fits.
+     * </p>
+     *
+     * @return the maximum message size, in bytes.
+     */
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+
+    /**
+     * Sets the maximum size of a message, excluding any transport framing; zero or less for no limit.
+     * <p>
+     * The largest field values of messages that would exceed it are truncated, on UTF-8 character boundaries and
+     * followed by a <code>...</code> marker, until the message fits.
+     * </p>
+     *
+     * @param maxMessageSize
+     *          the maximum message size, in bytes.
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    /**
+     * Returns the number of bytes after which the rendering of an object or array field value is truncated.
+     *
+     * @return the maximum size of a nested field value, in bytes.
+     */
+    public int getMaxNestedValueSize() {
+        return maxNestedValueSize;
+    }
+
+    /**
+     * Sets the number of bytes after which the rendering of an object or array field value is truncated.
+     *
+     * @param maxNestedValueSize
+     *          the maximum size of a nested field value, in bytes.
+     */
+    public void setMaxNestedValueSize(int maxNestedValueSize) {
+        this.maxNestedValueSize = maxNestedValueSize;
+    }
+
+    /**
+     * Returns the configuration for reducing the size of the structured data.
+     *
+     * @return the configuration
+     */
+    public CompactConfiguration getCompact() {
+        return compact;
+    }
+
+    /**
+     * Sets the configuration for reducing the size of the structured data.
+     *
+     * @param compact
+     *            The configuration
+     */
+    public void setCompact(CompactConfiguration compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * Returns the configuration for caching the escaped values of frequently repeated fields.
+     *
+     * @return the configuration
+     */
+    public ValueCacheConfiguration getValueCache() {
+        return valueCache;
+    }
+
+    /**
+     * Sets the configuration for caching the escaped values of frequently repeated fields.
+     *
+     * @param valueCache
+     *            The configuration
+     */
+    public void setValueCache(ValueCacheConfiguration valueCache) {
+        this.valueCache = valueCache;
+    }
+
     /**
      * Returns the configuration for events buffering.
      *
@@ -218,30 +474,120 @@ public class SentinelAuditEventHandlerConfiguration extends EventHandlerConfigur
         this.buffering = bufferingConfiguration;
     }
 
+    /**
+     * Returns the configuration for rendering the timestamp of each message.
+     *
+     * @return the configuration
+     */
+    public TimestampConfiguration getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Sets the configuration for rendering the timestamp of each message.
+     *
+     * @param timestamp
+     *            The configuration
+     */
+    public void setTimestamp(TimestampConfiguration timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Returns the configuration for tapping the messages sent to the Syslog daemon.
+     *
+     * @return the configuration
+     */
+    public DebugTapConfiguration getDebugTap() {
+        return debugTap;
+    }
+
+    /**
+     * Sets the configuration for tapping the messages sent to the Syslog daemon.
+     *
+     * @param debugTap
+     *            The configuration
+     */
+    public void setDebugTap(DebugTapConfiguration debugTap) {
+        this.debugTap = debugTap;
+    }
+
+    /**
+     * Returns what the response to a published event holds.
+     *
+     * @return the response mode.
+     */
+    public ResponseMode getResponseMode() {
+        return responseMode;
+    }
+
+    /**
+     * Sets what the response to a published event holds.
+     *
+     * @param responseMode
+     *            the response mode.
+     */
+    public void setResponseMode(ResponseMode responseMode) {
+        this.responseMode = responseMode;
+    }
+
     @Override
     public boolean isUsableForQueries() {
         return false;
     }
 
     /**
-     * Encapsulates configuration for mapping audit event field values to Syslog severity values.
+     * What the response to a published event holds.
      */
-    public static final class SeverityFieldMapping {
+    public enum ResponseMode {
+        /** A deep copy of the event, which the caller may modify freely. */
+        CLONE,
+        /** The event itself, shared with the caller rather than copied. */
+        ORIGINAL,
+        /** Only the id of the event. */
+        ID_ONLY
+    }
+
+    /**
+     * Encapsulates configuration for selecting which fields of a topic are copied to structured data, and how the
+     * values of sensitive fields are redacted.
+     * <p>
+     * Fields are named in dot notation. When included fields are listed, only those fields are copied; excluded
+     * fields are never copied. Fields redacted by {@link Redaction#HASH} require a {@link #getHashKey() hash key}.
+     */
+    public static final class FieldProjection {
+
+        /**
+         * How the value of a field is redacted.
+         */
+        public enum Redaction {
+            /** The value is replaced by a fixed mask, whatever its length. */
+            MASK,
+            /**
+             * The value is replaced by the hex-encoded HMAC-SHA256 of its text, keyed by the hash key of the
+             * projection, so it can still be correlated but not recovered by hashing candidate values.
+             */
+            HASH
+        }
 
         @JsonProperty(required = true)
-        @JsonPropertyDescription("audit.handlers.syslog.severityFieldMapping.topic")
+        @JsonPropertyDescription("audit.handlers.syslog.fieldProjection.topic")
         private String topic;
 
-        @JsonProperty(required = true)
-        @JsonPropertyDescription("audit.handlers.syslog.severityFieldMapping.field")
-        private String field;
+        @JsonPropertyDescription("audit.handlers.syslog.fieldProjection.includedFields")
+        private List<String> includedFields = new ArrayList<>();
 
-        @JsonProperty(required = true)
-        @JsonPropertyDescription("audit.handlers.syslog.severityFieldMapping.valueMappings")
-        private Map<String, Severity> valueMappings = new HashMap<>();
+        @JsonPropertyDescription("audit.handlers.syslog.fieldProjection.excludedFields")
+        private List<String> excludedFields = new ArrayList<>();
+
+        @JsonPropertyDescription("audit.handlers.syslog.fieldProjection.redactions")
+        private Map<String, Redaction> redactions = new HashMap<>();
+
+        @JsonPropertyDescription("audit.handlers.syslog.fieldProjection.hashKey")
+        private String hashKey;
 
         /**
-         * Returns the name of the event topic to which this mapping applies.
+         * Returns the name of the event topic to which this projection applies.
          *
          * @return the event topic name.
          */
@@ -250,7 +596,7 @@ public class SentinelAuditEventHandlerConfiguration extends EventHandlerConfigur
         }
 
         /**
-         * Sets the name of the event topic to which this mapping applies.
+         * Sets the name of the event topic to which this projection applies.
          *
          * @param topic
          *          the event topic name.
@@ -260,94 +606,1456 @@ public class SentinelAuditEventHandlerConfiguration extends EventHandlerConfigur
         }
 
         /**
-         * Returns the name of the event topic field to which this mapping applies.
-         * <p>
-         * If the chosen field is nested, JsonPointer notation should be used.
-         * </p>
+         * Returns the fields copied to structured data; empty to copy every field that is not excluded.
          *
-         * @return the event topic field name.
+         * @return the included fields.
          */
-        public String getField() {
-            return field;
+        public List<String> getIncludedFields() {
+            return includedFields;
         }
 
         /**
-         * Sets the name of the event topic field to which this mapping applies.
+         * Sets the fields copied to structured data; empty to copy every field that is not excluded.
          *
-         * @param field
-         *          the event topic field name.
+         * @param includedFields
+         *          the included fields.
          */
-        public void setField(String field) {
-            this.field = field;
+        public void setIncludedFields(List<String> includedFields) {
+            this.includedFields = includedFields;
         }
 
         /**
-         * Returns the mapping of audit event values to Syslog severity values.
+         * Returns the fields never copied to structured data.
          *
-         * @return the value mappings.
+         * @return the excluded fields.
          */
-        public Map<String, Severity> getValueMappings() {
-            return unmodifiableMap(valueMappings);
+        public List<String> getExcludedFields() {
+            return excludedFields;
         }
 
         /**
-         * Sets the mapping of audit event values to Syslog severity values.
+         * Sets the fields never copied to structured data.
          *
-         * @param valueMappings
-         *          the value mappings.
+         * @param excludedFields
+         *          the excluded fields.
          */
-        public void setValueMappings(Map<String, Severity> valueMappings) {
-            this.valueMappings = new HashMap<>(valueMappings);
+        public void setExcludedFields(List<String> excludedFields) {
+            this.excludedFields = excludedFields;
         }
-    }
 
-    /**
-     * Configuration of event buffering.
-     */
-    public static class EventBufferingConfiguration {
-
-        @JsonPropertyDescription("audit.handlers.syslog.buffering.enabled")
-        private boolean enabled;
-
-        @JsonPropertyDescription("audit.handlers.syslog.buffering.maxSize")
-        private int maxSize;
+        /**
+         * Returns how the values of sensitive fields are redacted, keyed by field name.
+         *
+         * @return the redactions.
+         */
+        public Map<String, Redaction> getRedactions() {
+            return unmodifiableMap(redactions);
+        }
 
         /**
-         * Indicates if event buffering is enabled.
+         * Sets how the values of sensitive fields are redacted, keyed by field name.
          *
-         * @return {@code true} if buffering is enabled.
+         * @param redactions
+         *          the redactions.
          */
-        public boolean isEnabled() {
-            return enabled;
+        public void setRedactions(Map<String, Redaction> redactions) {
+            this.redactions = new HashMap<>(redactions);
         }
 
         /**
-         * Sets the buffering status.
+         * Returns the secret key of the HMAC-SHA256 replacing the values of the fields redacted by
+         * {@link Redaction#HASH}.
          *
-         * @param enabled
-         *            Indicates if buffering is enabled.
+         * @return the hash key.
          */
-        public void setEnabled(boolean enabled) {
-            this.enabled = enabled;
+        public String getHashKey() {
+            return hashKey;
         }
 
         /**
-         * Gets the buffer capacity, which are the maximum number of events that can be buffered.
+         * Sets the secret key of the HMAC-SHA256 replacing the values of the fields redacted by
+         * {@link Redaction#HASH}; the same key must be used wherever hashed values are to be correlated.
          *
-         * @return buffer capacity
+         * @param hashKey
+         *          the hash key.
          */
-        public int getMaxSize() {
-            return maxSize;
+        public void setHashKey(String hashKey) {
+            this.hashKey = hashKey;
+        }
+    }
+
+    /**
+     * Encapsulates a rule dropping the events of a topic that match its conditions, before they are formatted.
+     * <p>
+     * Fields are named in JsonPointer notation. An event matches when all of the conditions hold, or any of them
+     * when {@link Combination#ANY} is chosen; fields that are missing or null never satisfy a condition.
+     */
+    public static final class EventFilter {
+
+        /**
+         * How the conditions of a filter are combined.
+         */
+        public enum Combination {
+            /** The event is dropped when every condition holds. */
+            ALL,
+            /** The event is dropped when at least one condition holds. */
+            ANY
         }
 
+        @JsonPropertyDescription("audit.handlers.syslog.filter.name")
+        private String name;
+
+        @JsonProperty(required = true)
+        @JsonPropertyDescription("audit.handlers.syslog.filter.topic")
+        private String topic;
+
+        /** Every condition must hold by default. */
+        @JsonPropertyDescription("audit.handlers.syslog.filter.match")
+        private Combination match = Combination.ALL;
+
+        @JsonProperty(required = true)
+        @JsonPropertyDescription("audit.handlers.syslog.filter.conditions")
+        private List<FilterCondition> conditions = new ArrayList<>();
+
         /**
-         * Sets the buffer capacity, which are the maximum number of events that can be buffered.
+         * Returns the name under which the hits of this filter are counted.
          *
-         * @param maxSize buffer capacity
+         * @return the filter name, or {@code null} to name it after its topic and position.
          */
-        public void setMaxSize(int maxSize) {
-            this.maxSize = maxSize;
+        public String getName() {
+            return name;
         }
 
+        /**
+         * Sets the name under which the hits of this filter are counted.
+         *
+         * @param name
+         *          the filter name.
+         */
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Returns the name of the event topic to which this filter applies.
+         *
+         * @return the event topic name.
+         */
+        public String getTopic() {
+            return topic;
+        }
+
+        /**
+         * Sets the name of the event topic to which this filter applies.
+         *
+         * @param topic
+         *          the event topic name.
+         */
+        public void setTopic(String topic) {
+            this.topic = topic;
+        }
+
+        /**
+         * Returns how the conditions of this filter are combined.
+         *
+         * @return the combination.
+         */
+        public Combination getMatch() {
+            return match;
+        }
+
+        /**
+         * Sets how the conditions of this filter are combined.
+         *
+         * @param match
+         *          the combination.
+         */
+        public void setMatch(Combination match) {
+            this.match = match;
+        }
+
+        /**
+         * Returns the conditions on the fields of the events.
+         *
+         * @return the conditions.
+         */
+        public List<FilterCondition> getConditions() {
+            return conditions;
+        }
+
+        /**
+         * Sets the conditions on the fields of the events.
+         *
+         * @param conditions
+         *          the conditions.
+         */
+        public void setConditions(List<FilterCondition> conditions) {
+            this.conditions = conditions;
+        }
+    }
+
+    /**
+     * Encapsulates a condition on the text of an event field, for use by an {@link EventFilter}.
+     * <p>
+     * Values that are not strings are compared through their string form, so that the number 200 equals
+     * <code>"200"</code>.
+     */
+    public static final class FilterCondition {
+
+        /**
+         * How the text of the field is compared.
+         */
+        public enum Operator {
+            /** The text equals the value. */
+            EQUALS,
+            /** The text starts with the value. */
+            PREFIX,
+            /** The whole text matches the regular expression held by the value. */
+            REGEX,
+            /** The text equals one of the values. */
+            IN
+        }
+
+        @JsonProperty(required = true)
+        @JsonPropertyDescription("audit.handlers.syslog.filterCondition.field")
+        private String field;
+
+        @JsonProperty(required = true)
+        @JsonPropertyDescription("audit.handlers.syslog.filterCondition.operator")
+        private Operator operator;
+
+        @JsonPropertyDescription("audit.handlers.syslog.filterCondition.value")
+        private String value;
+
+        @JsonPropertyDescription("audit.handlers.syslog.filterCondition.values")
+        private List<String> values = new ArrayList<>();
+
+        /**
+         * Returns the name of the event field to which this condition applies.
+         * <p>
+         * If the chosen field is nested, JsonPointer notation should be used.
+         * </p>
+         *
+         * @return the event field name.
+         */
+        public String getField() {
+            return field;
+        }
+
+        /**
+         * Sets the name of the event field to which this condition applies.
+         *
+         * @param field
+         *          the event field name.
+         */
+        public void setField(String field) {
+            this.field = field;
+        }
+
+        /**
+         * Returns how the text of the field is compared.
+         *
+         * @return the operator.
+         */
+        public Operator getOperator() {
+            return operator;
+        }
+
+        /**
+         * Sets how the text of the field is compared.
+         *
+         * @param operator
+         *          the operator.
+         */
+        public void setOperator(Operator operator) {
+            this.operator = operator;
+        }
+
+        /**
+         * Returns the value compared by the {@code EQUALS}, {@code PREFIX} and {@code REGEX} operators.
+         *
+         * @return the value.
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Sets the value compared by the {@code EQUALS}, {@code PREFIX} and {@code REGEX} operators.
+         *
+         * @param value
+         *          the value.
+         */
+        public void setValue(String value) {
+            this.value = value;
+        }
+
+        /**
+         * Returns the set of values compared by the {@code IN} operator.
+         *
+         * @return the values.
+         */
+        public List<String> getValues() {
+            return values;
+        }
+
+        /**
+         * Sets the set of values compared by the {@code IN} operator.
+         *
+         * @param values
+         *          the values.
+         */
+        public void setValues(List<String> values) {
+            this.values = values;
+        }
+    }
+
+    /**
+     * Encapsulates configuration for sampling the events of a topic and limiting the rate at which they are
+     * published, before they are formatted.
+     * <p>
+     * Events are first sampled, then admitted by a token bucket refilled at the configured rate. When a field is
+     * named, in JsonPointer notation, each of its values gets a bucket of its own, so that a single client address
+     * cannot use up the budget of the others. The number of events suppressed since the previous message of the topic
+     * is reported in the next message as the <code>cn1</code> CEF extension, labelled
+     * <code>suppressedEvents</code>.
+     */
+    public static final class RateLimit {
+
+        @JsonProperty(required = true)
+        @JsonPropertyDescription("audit.handlers.syslog.rateLimit.topic")
+        private String topic;
+
+        @JsonPropertyDescription("audit.handlers.syslog.rateLimit.field")
+        private String field;
+
+        /** The rate is not limited by default. */
+        @JsonPropertyDescription("audit.handlers.syslog.rateLimit.eventsPerSecond")
+        private double eventsPerSecond;
+
+        /** Bursts of one second's worth of events are admitted by default. */
+        @JsonPropertyDescription("audit.handlers.syslog.rateLimit.burst")
+        private int burst;
+
+        /** Every event is kept by default. */
+        @JsonPropertyDescription("audit.handlers.syslog.rateLimit.sampleRate")
+        private double sampleRate = 1.0;
+
+        /** Buckets are kept for up to 10000 distinct field values by default. */
+        @JsonPropertyDescription("audit.handlers.syslog.rateLimit.maxTrackedValues")
+        private int maxTrackedValues = 10000;
+
+        /**
+         * Returns the name of the event topic to which this limit applies.
+         *
+         * @return the event topic name.
+         */
+        public String getTopic() {
+            return topic;
+        }
+
+        /**
+         * Sets the name of the event topic to which this limit applies.
+         *
+         * @param topic
+         *          the event topic name.
+         */
+        public void setTopic(String topic) {
+            this.topic = topic;
+        }
+
+        /**
+         * Returns the name of the event field whose values are limited separately.
+         * <p>
+         * If the chosen field is nested, JsonPointer notation should be used.
+         * </p>
+         *
+         * @return the event field name, or {@code null} to limit the topic as a whole.
+         */
+        public String getField() {
+            return field;
+        }
+
+        /**
+         * Sets the name of the event field whose values are limited separately.
+         *
+         * @param field
+         *          the event field name.
+         */
+        public void setField(String field) {
+            this.field = field;
+        }
+
+        /**
+         * Returns the sustained number of events admitted per second; zero or less means the rate is not limited.
+         *
+         * @return the rate.
+         */
+        public double getEventsPerSecond() {
+            return eventsPerSecond;
+        }
+
+        /**
+         * Sets the sustained number of events admitted per second; zero or less means the rate is not limited.
+         *
+         * @param eventsPerSecond
+         *          the rate.
+         */
+        public void setEventsPerSecond(double eventsPerSecond) {
+            this.eventsPerSecond = eventsPerSecond;
+        }
+
+        /**
+         * Returns the number of events admitted at once after a quiet period; zero or less means one second's worth
+         * of events.
+         *
+         * @return the burst size.
+         */
+        public int getBurst() {
+            return burst;
+        }
+
+        /**
+         * Sets the number of events admitted at once after a quiet period; zero or less means one second's worth of
+         * events.
+         *
+         * @param burst
+         *          the burst size.
+         */
+        public void setBurst(int burst) {
+            this.burst = burst;
+        }
+
+        /**
+         * Returns the fraction of the events kept, at random, before the rate is limited.
+         *
+         * @return the sample rate, between 0 and 1.
+         */
+        public double getSampleRate() {
+            return sampleRate;
+        }
+
+        /**
+         * Sets the fraction of the events kept, at random, before the rate is limited.
+         *
+         * @param sampleRate
+         *          the sample rate, between 0 and 1.
+         */
+        public void setSampleRate(double sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+
+        /**
+         * Returns the number of distinct field values given a bucket of their own; further values share a single
+         * bucket until idle ones are evicted.
+         *
+         * @return the maximum number of tracked values.
+         */
+        public int getMaxTrackedValues() {
+            return maxTrackedValues;
+        }
+
+        /**
+         * Sets the number of distinct field values given a bucket of their own.
+         *
+         * @param maxTrackedValues
+         *          the maximum number of tracked values.
+         */
+        public void setMaxTrackedValues(int maxTrackedValues) {
+            this.maxTrackedValues = maxTrackedValues;
+        }
+    }
+
+    /**
+     * Encapsulates configuration for collapsing the events of a topic that repeat the same values of a set of fields
+     * into a single message per time window.
+     * <p>
+     * Fields are named in JsonPointer notation. The first event of a window is held back until the window closes,
+     * then published with the standard <code>cnt</code>, <code>start</code> and <code>end</code> CEF extensions when
+     * it was repeated; events that were not repeated are published unchanged.
+     */
+    public static final class Aggregation {
+
+        @JsonProperty(required = true)
+        @JsonPropertyDescription("audit.handlers.syslog.aggregation.topic")
+        private String topic;
+
+        @JsonProperty(required = true)
+        @JsonPropertyDescription("audit.handlers.syslog.aggregation.fields")
+        private List<String> fields = new ArrayList<>();
+
+        /** Repeats are collapsed over windows of ten seconds by default. */
+        @JsonPropertyDescription("audit.handlers.syslog.aggregation.windowMillis")
+        private long windowMillis = 10000;
+
+        /** Up to 10000 windows are open at once by default. */
+        @JsonPropertyDescription("audit.handlers.syslog.aggregation.maxKeys")
+        private int maxKeys = 10000;
+
+        /**
+         * Returns the name of the event topic to which this aggregation applies.
+         *
+         * @return the event topic name.
+         */
+        public String getTopic() {
+            return topic;
+        }
+
+        /**
+         * Sets the name of the event topic to which this aggregation applies.
+         *
+         * @param topic
+         *          the event topic name.
+         */
+        public void setTopic(String topic) {
+            this.topic = topic;
+        }
+
+        /**
+         * Returns the event fields whose values identify repeated events.
+         *
+         * @return the key fields.
+         */
+        public List<String> getFields() {
+            return fields;
+        }
+
+        /**
+         * Sets the event fields whose values identify repeated events.
+         *
+         * @param fields
+         *          the key fields.
+         */
+        public void setFields(List<String> fields) {
+            this.fields = fields;
+        }
+
+        /**
+         * Returns the number of milliseconds, from the first event, over which repeats are collapsed.
+         *
+         * @return the window length.
+         */
+        public long getWindowMillis() {
+            return windowMillis;
+        }
+
+        /**
+         * Sets the number of milliseconds, from the first event, over which repeats are collapsed.
+         *
+         * @param windowMillis
+         *          the window length.
+         */
+        public void setWindowMillis(long windowMillis) {
+            this.windowMillis = windowMillis;
+        }
+
+        /**
+         * Returns the number of windows open at once, beyond which the oldest window is closed early.
+         *
+         * @return the maximum number of keys.
+         */
+        public int getMaxKeys() {
+            return maxKeys;
+        }
+
+        /**
+         * Sets the number of windows open at once, beyond which the oldest window is closed early.
+         *
+         * @param maxKeys
+         *          the maximum number of keys.
+         */
+        public void setMaxKeys(int maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+    }
+
+    /**
+     * Encapsulates configuration for summarizing the volume of the events of a topic in a single message per interval.
+     * <p>
+     * Every event received for the topic is counted, including those later dropped by filters, sampling, rate limits
+     * or load shedding: in total, by {@link Severity}, by the value of the outcome field and, for the most frequent
+     * values of the key field, by key. Fields are named in JsonPointer notation.
+     */
+    public static final class Rollup {
+
+        @JsonProperty(required = true)
+        @JsonPropertyDescription("audit.handlers.syslog.rollup.topic")
+        private String topic;
+
+        /** A summary is published every minute by default. */
+        @JsonPropertyDescription("audit.handlers.syslog.rollup.intervalMillis")
+        private long intervalMillis = 60000;
+
+        @JsonPropertyDescription("audit.handlers.syslog.rollup.outcomeField")
+        private String outcomeField;
+
+        @JsonPropertyDescription("audit.handlers.syslog.rollup.keyField")
+        private String keyField;
+
+        /** The ten most frequent keys are reported by default. */
+        @JsonPropertyDescription("audit.handlers.syslog.rollup.topKeys")
+        private int topKeys = 10;
+
+        /**
+         * Returns the name of the event topic to which this rollup applies.
+         *
+         * @return the event topic name.
+         */
+        public String getTopic() {
+            return topic;
+        }
+
+        /**
+         * Sets the name of the event topic to which this rollup applies.
+         *
+         * @param topic
+         *          the event topic name.
+         */
+        public void setTopic(String topic) {
+            this.topic = topic;
+        }
+
+        /**
+         * Returns the number of milliseconds between two summaries.
+         *
+         * @return the interval.
+         */
+        public long getIntervalMillis() {
+            return intervalMillis;
+        }
+
+        /**
+         * Sets the number of milliseconds between two summaries.
+         *
+         * @param intervalMillis
+         *          the interval.
+         */
+        public void setIntervalMillis(long intervalMillis) {
+            this.intervalMillis = intervalMillis;
+        }
+
+        /**
+         * Returns the name of the event field holding the outcome of the event, such as
+         * <code>response/status</code>.
+         *
+         * @return the outcome field name, or {@code null} not to count events by outcome.
+         */
+        public String getOutcomeField() {
+            return outcomeField;
+        }
+
+        /**
+         * Sets the name of the event field holding the outcome of the event.
+         *
+         * @param outcomeField
+         *          the outcome field name.
+         */
+        public void setOutcomeField(String outcomeField) {
+            this.outcomeField = outcomeField;
+        }
+
+        /**
+         * Returns the name of the event field whose most frequent values are reported, such as
+         * <code>client/ip</code>.
+         *
+         * @return the key field name, or {@code null} not to report any.
+         */
+        public String getKeyField() {
+            return keyField;
+        }
+
+        /**
+         * Sets the name of the event field whose most frequent values are reported.
+         *
+         * @param keyField
+         *          the key field name.
+         */
+        public void setKeyField(String keyField) {
+            this.keyField = keyField;
+        }
+
+        /**
+         * Returns the number of most frequent key values reported.
+         *
+         * @return the number of keys.
+         */
+        public int getTopKeys() {
+            return topKeys;
+        }
+
+        /**
+         * Sets the number of most frequent key values reported.
+         *
+         * @param topKeys
+         *          the number of keys.
+         */
+        public void setTopKeys(int topKeys) {
+            this.topKeys = topKeys;
+        }
+    }
+
+    /**
+     * Encapsulates configuration for mapping audit event field values to Syslog severity values.
+     */
+    public static final class SeverityFieldMapping {
+
+        @JsonProperty(required = true)
+        @JsonPropertyDescription("audit.handlers.syslog.severityFieldMapping.topic")
+        private String topic;
+
+        @JsonProperty(required = true)
+        @JsonPropertyDescription("audit.handlers.syslog.severityFieldMapping.field")
+        private String field;
+
+        @JsonProperty(required = true)
+        @JsonPropertyDescription("audit.handlers.syslog.severityFieldMapping.valueMappings")
+        private Map<String, Severity> valueMappings = new HashMap<>();
+
+        /**
+         * Returns the name of the event topic to which this mapping applies.
+         *
+         * @return the event topic name.
+         */
+        public String getTopic() {
+            return topic;
+        }
+
+        /**
+         * Sets the name of the event topic to which this mapping applies.
+         *
+         * @param topic
+         *          the event topic name.
+         */
+        public void setTopic(String topic) {
+            this.topic = topic;
+        }
+
+        /**
+         * Returns the name of the event topic field to which this mapping applies.
+         * <p>
+         * If the chosen field is nested, JsonPointer notation should be used.
+         * </p>
+         *
+         * @return the event topic field name.
+         */
+        public String getField() {
+            return field;
+        }
+
+        /**
+         * Sets the name of the event topic field to which this mapping applies.
+         *
+         * @param field
+         *          the event topic field name.
+         */
+        public void setField(String field) {
+            this.field = field;
+        }
+
+        /**
+         * Returns the mapping of audit event values to Syslog severity values.
+         *
+         * @return the value mappings.
+         */
+        public Map<String, Severity> getValueMappings() {
+            return unmodifiableMap(valueMappings);
+        }
+
+        /**
+         * Sets the mapping of audit event values to Syslog severity values.
+         *
+         * @param valueMappings
+         *          the value mappings.
+         */
+        public void setValueMappings(Map<String, Severity> valueMappings) {
+            this.valueMappings = new HashMap<>(valueMappings);
+        }
+    }
+
+    /**
+     * Configuration of event buffering.
+     */
+    public static class EventBufferingConfiguration {
+
+        @JsonPropertyDescription("audit.handlers.syslog.buffering.enabled")
+        private boolean enabled;
+
+        @JsonPropertyDescription("audit.handlers.syslog.buffering.maxSize")
+        private int maxSize;
+
+        @JsonPropertyDescription("audit.handlers.syslog.buffering.deferredFormatting")
+        private boolean deferredFormatting;
+
+        @JsonPropertyDescription("audit.handlers.syslog.buffering.formatterThreads")
+        private int formatterThreads = 2;
+
+        /** Published events are acknowledged once queued by default. */
+        @JsonPropertyDescription("audit.handlers.syslog.buffering.acknowledgeDelivery")
+        private boolean acknowledgeDelivery;
+
+        /** Events are always formatted in full by default. */
+        @JsonPropertyDescription("audit.handlers.syslog.buffering.degradedMode")
+        private DegradedModeConfiguration degradedMode = new DegradedModeConfiguration();
+
+        /** Events are never shed by default. */
+        @JsonPropertyDescription("audit.handlers.syslog.buffering.shedding")
+        private SheddingConfiguration shedding = new SheddingConfiguration();
+
+        /**
+         * Indicates if event buffering is enabled.
+         *
+         * @return {@code true} if buffering is enabled.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Sets the buffering status.
+         *
+         * @param enabled
+         *            Indicates if buffering is enabled.
+         */
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Gets the buffer capacity, which are the maximum number of events that can be buffered.
+         *
+         * @return buffer capacity
+         */
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * Sets the buffer capacity, which are the maximum number of events that can be buffered.
+         *
+         * @param maxSize buffer capacity
+         */
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Indicates if events are formatted by dedicated formatter threads rather than by the threads publishing them.
+         * Only applies when buffering is enabled.
+         *
+         * @return {@code true} if formatting is deferred.
+         */
+        public boolean isDeferredFormatting() {
+            return deferredFormatting;
+        }
+
+        /**
+         * Sets whether events are formatted by dedicated formatter threads rather than by the threads publishing them.
+         * Only applies when buffering is enabled.
+         *
+         * @param deferredFormatting
+         *            Indicates if formatting is deferred.
+         */
+        public void setDeferredFormatting(boolean deferredFormatting) {
+            this.deferredFormatting = deferredFormatting;
+        }
+
+        /**
+         * Gets the number of formatter threads used when formatting is deferred. The events of a topic are always
+         * formatted by the same thread, to keep them in order, so threads beyond the number of topics are idle.
+         *
+         * @return the number of formatter threads
+         */
+        public int getFormatterThreads() {
+            return formatterThreads;
+        }
+
+        /**
+         * Sets the number of formatter threads used when formatting is deferred.
+         *
+         * @param formatterThreads the number of formatter threads
+         */
+        public void setFormatterThreads(int formatterThreads) {
+            this.formatterThreads = formatterThreads;
+        }
+
+        /**
+         * Indicates if the promise returned for a published event only completes once the message has been flushed
+         * to the Syslog daemon, and fails if its delivery is abandoned, rather than as soon as the event is queued.
+         * Only applies when buffering is enabled.
+         *
+         * @return {@code true} if delivery is acknowledged.
+         */
+        public boolean isAcknowledgeDelivery() {
+            return acknowledgeDelivery;
+        }
+
+        /**
+         * Sets whether the promise returned for a published event only completes once the message has been flushed
+         * to the Syslog daemon. Only applies when buffering is enabled.
+         *
+         * @param acknowledgeDelivery
+         *            Indicates if delivery is acknowledged.
+         */
+        public void setAcknowledgeDelivery(boolean acknowledgeDelivery) {
+            this.acknowledgeDelivery = acknowledgeDelivery;
+        }
+
+        /**
+         * Returns the configuration for formatting events in a minimal form while the buffer is backed up.
+         *
+         * @return the configuration
+         */
+        public DegradedModeConfiguration getDegradedMode() {
+            return degradedMode;
+        }
+
+        /**
+         * Sets the configuration for formatting events in a minimal form while the buffer is backed up.
+         *
+         * @param degradedMode
+         *            The configuration
+         */
+        public void setDegradedMode(DegradedModeConfiguration degradedMode) {
+            this.degradedMode = degradedMode;
+        }
+
+        /**
+         * Returns the configuration for dropping the less severe events while the buffer is backed up.
+         *
+         * @return the configuration
+         */
+        public SheddingConfiguration getShedding() {
+            return shedding;
+        }
+
+        /**
+         * Sets the configuration for dropping the less severe events while the buffer is backed up.
+         *
+         * @param shedding
+         *            The configuration
+         */
+        public void setShedding(SheddingConfiguration shedding) {
+            this.shedding = shedding;
+        }
+
+    }
+
+    /**
+     * Configuration of the degraded mode, in which events are formatted in a minimal form while the event buffer is
+     * backed up: the CEF header, severity and event name, and only the <code>userId</code> and
+     * <code>transactionId</code> structured data fields. Such messages carry a <code>cs1=degraded</code> extension.
+     * <p>
+     * The mode is entered once the buffer occupancy reaches the high watermark, and left once it has drained to the
+     * low watermark. Only applies when buffering is enabled.
+     */
+    public static class DegradedModeConfiguration {
+
+        @JsonPropertyDescription("audit.handlers.syslog.buffering.degradedMode.enabled")
+        private boolean enabled;
+
+        @JsonPropertyDescription("audit.handlers.syslog.buffering.degradedMode.highWatermark")
+        private double highWatermark = 0.8;
+
+        @JsonPropertyDescription("audit.handlers.syslog.buffering.degradedMode.lowWatermark")
+        private double lowWatermark = 0.5;
+
+        /**
+         * Indicates if events are formatted in a minimal form while the buffer is backed up.
+         *
+         * @return {@code true} if the degraded mode is enabled.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Sets whether events are formatted in a minimal form while the buffer is backed up.
+         *
+         * @param enabled
+         *            Indicates if the degraded mode is enabled.
+         */
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Returns the buffer occupancy, as a fraction of its capacity, at which the degraded mode is entered.
+         *
+         * @return the high watermark, between 0 and 1.
+         */
+        public double getHighWatermark() {
+            return highWatermark;
+        }
+
+        /**
+         * Sets the buffer occupancy, as a fraction of its capacity, at which the degraded mode is entered.
+         *
+         * @param highWatermark
+         *            the high watermark, between 0 and 1.
+         */
+        public void setHighWatermark(double highWatermark) {
+            this.highWatermark = highWatermark;
+        }
+
+        /**
+         * Returns the buffer occupancy, as a fraction of its capacity, at which the degraded mode is left.
+         *
+         * @return the low watermark, between 0 and the high watermark.
+         */
+        public double getLowWatermark() {
+            return lowWatermark;
+        }
+
+        /**
+         * Sets the buffer occupancy, as a fraction of its capacity, at which the degraded mode is left.
+         *
+         * @param lowWatermark
+         *            the low watermark, between 0 and the high watermark.
+         */
+        public void setLowWatermark(double lowWatermark) {
+            this.lowWatermark = lowWatermark;
+        }
+    }
+
+    /**
+     * Configuration of the timestamp rendered at the start of each message.
+     */
+    public static class TimestampConfiguration {
+
+        @JsonPropertyDescription("audit.handlers.syslog.timestamp.useEventTimestamp")
+        private boolean useEventTimestamp;
+
+        @JsonPropertyDescription("audit.handlers.syslog.timestamp.millisecondPrecision")
+        private boolean millisecondPrecision;
+
+        /**
+         * Indicates if the audit event's own timestamp should be rendered instead of the wall clock.
+         *
+         * @return {@code true} if the event timestamp is used.
+         */
+        public boolean isUseEventTimestamp() {
+            return useEventTimestamp;
+        }
+
+        /**
+         * Sets whether the audit event's own timestamp should be rendered instead of the wall clock.
+         *
+         * @param useEventTimestamp
+         *            Indicates if the event timestamp is used.
+         */
+        public void setUseEventTimestamp(boolean useEventTimestamp) {
+            this.useEventTimestamp = useEventTimestamp;
+        }
+
+        /**
+         * Indicates if milliseconds should be appended to the rendered timestamp.
+         *
+         * @return {@code true} if timestamps have millisecond precision.
+         */
+        public boolean isMillisecondPrecision() {
+            return millisecondPrecision;
+        }
+
+        /**
+         * Sets whether milliseconds should be appended to the rendered timestamp.
+         *
+         * @param millisecondPrecision
+         *            Indicates if timestamps have millisecond precision.
+         */
+        public void setMillisecondPrecision(boolean millisecondPrecision) {
+            this.millisecondPrecision = millisecondPrecision;
+        }
+    }
+
+    /**
+     * Configuration of the tap through which operators can see the messages sent to the Syslog daemon.
+     */
+    public static class DebugTapConfiguration {
+
+        /**
+         * How messages are tapped.
+         */
+        public enum Mode {
+            /** Messages are not tapped. */
+            OFF,
+            /** A sample of messages is logged through SLF4J. */
+            SAMPLED,
+            /** The most recent messages are kept in memory. */
+            RING
+        }
+
+        @JsonPropertyDescription("audit.handlers.syslog.debugTap.mode")
+        private Mode mode = Mode.OFF;
+
+        @JsonPropertyDescription("audit.handlers.syslog.debugTap.sampleInterval")
+        private int sampleInterval = 1000;
+
+        @JsonPropertyDescription("audit.handlers.syslog.debugTap.maxPerSecond")
+        private int maxPerSecond;
+
+        @JsonPropertyDescription("audit.handlers.syslog.debugTap.ringSize")
+        private int ringSize = 100;
+
+        /**
+         * Returns how messages are tapped.
+         *
+         * @return the mode.
+         */
+        public Mode getMode() {
+            return mode;
+        }
+
+        /**
+         * Sets how messages are tapped.
+         *
+         * @param mode
+         *            the mode.
+         */
+        public void setMode(Mode mode) {
+            this.mode = mode;
+        }
+
+        /**
+         * Returns N, where one in every N messages is logged in {@link Mode#SAMPLED} mode.
+         *
+         * @return the sample interval.
+         */
+        public int getSampleInterval() {
+            return sampleInterval;
+        }
+
+        /**
+         * Sets N, where one in every N messages is logged in {@link Mode#SAMPLED} mode.
+         *
+         * @param sampleInterval
+         *            the sample interval.
+         */
+        public void setSampleInterval(int sampleInterval) {
+            this.sampleInterval = sampleInterval;
+        }
+
+        /**
+         * Returns the maximum number of messages logged per second in {@link Mode#SAMPLED} mode; zero or less for
+         * no limit.
+         *
+         * @return the rate cap.
+         */
+        public int getMaxPerSecond() {
+            return maxPerSecond;
+        }
+
+        /**
+         * Sets the maximum number of messages logged per second in {@link Mode#SAMPLED} mode; zero or less for
+         * no limit.
+         *
+         * @param maxPerSecond
+         *            the rate cap.
+         */
+        public void setMaxPerSecond(int maxPerSecond) {
+            this.maxPerSecond = maxPerSecond;
+        }
+
+        /**
+         * Returns the number of most recent messages kept in {@link Mode#RING} mode.
+         *
+         * @return the ring size.
+         */
+        public int getRingSize() {
+            return ringSize;
+        }
+
+        /**
+         * Sets the number of most recent messages kept in {@link Mode#RING} mode.
+         *
+         * @param ringSize
+         *            the ring size.
+         */
+        public void setRingSize(int ringSize) {
+            this.ringSize = ringSize;
+        }
+    }
+
+    /**
+     * Configuration of the per-field caches of escaped values.
+     * <p>
+     * Each topic field has its own cache. Fields listed in {@link #getFields()} are always cached; when automatic
+     * opt-in is enabled, the other fields are cached for as long as their values prove to repeat often enough.
+     */
+    public static class ValueCacheConfiguration {
+
+        @JsonPropertyDescription("audit.handlers.syslog.valueCache.enabled")
+        private boolean enabled;
+
+        @JsonPropertyDescription("audit.handlers.syslog.valueCache.maxEntriesPerField")
+        private int maxEntriesPerField = 256;
+
+        @JsonPropertyDescription("audit.handlers.syslog.valueCache.fields")
+        private List<String> fields = new ArrayList<>();
+
+        @JsonPropertyDescription("audit.handlers.syslog.valueCache.autoOptIn")
+        private boolean autoOptIn = true;
+
+        /**
+         * Indicates if escaped values are cached.
+         *
+         * @return {@code true} if escaped values are cached.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Sets whether escaped values are cached.
+         *
+         * @param enabled
+         *            Indicates if escaped values are cached.
+         */
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Returns the maximum number of values cached for each field.
+         *
+         * @return the maximum number of entries.
+         */
+        public int getMaxEntriesPerField() {
+            return maxEntriesPerField;
+        }
+
+        /**
+         * Sets the maximum number of values cached for each field.
+         *
+         * @param maxEntriesPerField
+         *            the maximum number of entries.
+         */
+        public void setMaxEntriesPerField(int maxEntriesPerField) {
+            this.maxEntriesPerField = maxEntriesPerField;
+        }
+
+        /**
+         * Returns the fields, in dot notation, whose values are always cached.
+         *
+         * @return the cached fields.
+         */
+        public List<String> getFields() {
+            return fields;
+        }
+
+        /**
+         * Sets the fields, in dot notation, whose values are always cached.
+         *
+         * @param fields
+         *            the cached fields.
+         */
+        public void setFields(List<String> fields) {
+            this.fields = fields;
+        }
+
+        /**
+         * Indicates if fields not listed in {@link #getFields()} are cached when their observed hit rate is high.
+         *
+         * @return {@code true} if other fields are cached depending on their hit rate.
+         */
+        public boolean isAutoOptIn() {
+            return autoOptIn;
+        }
+
+        /**
+         * Sets whether fields not listed in {@link #getFields()} are cached when their observed hit rate is high.
+         *
+         * @param autoOptIn
+         *            Indicates if other fields are cached depending on their hit rate.
+         */
+        public void setAutoOptIn(boolean autoOptIn) {
+            this.autoOptIn = autoOptIn;
+        }
+    }
+
+    /**
+     * Configuration of the compact payload mode, which trims the structured data down to what carries information.
+     */
+    public static class CompactConfiguration {
+
+        @JsonPropertyDescription("audit.handlers.syslog.compact.omitEmptyValues")
+        private boolean omitEmptyValues;
+
+        @JsonPropertyDescription("audit.handlers.syslog.compact.useCefKeys")
+        private boolean useCefKeys;
+
+        @JsonPropertyDescription("audit.handlers.syslog.compact.cefKeys")
+        private Map<String, String> cefKeys = new HashMap<>();
+
+        /**
+         * Construct a new CompactConfiguration mapping the well-known audit event fields onto the standard CEF keys.
+         */
+        public CompactConfiguration() {
+            cefKeys.put("userId", "suser");
+            cefKeys.put("client.ip", "src");
+            cefKeys.put("response.status", "outcome");
+            cefKeys.put("transactionId", "externalId");
+        }
+
+        /**
+         * Indicates if fields that are missing, null or empty are left out of the structured data.
+         *
+         * @return {@code true} if empty values are omitted.
+         */
+        public boolean isOmitEmptyValues() {
+            return omitEmptyValues;
+        }
+
+        /**
+         * Sets whether fields that are missing, null or empty are left out of the structured data.
+         *
+         * @param omitEmptyValues
+         *            Indicates if empty values are omitted.
+         */
+        public void setOmitEmptyValues(boolean omitEmptyValues) {
+            this.omitEmptyValues = omitEmptyValues;
+        }
+
+        /**
+         * Indicates if the fields listed in {@link #getCefKeys()} are emitted under their CEF key rather than their
+         * dot-notation name.
+         *
+         * @return {@code true} if CEF keys are used.
+         */
+        public boolean isUseCefKeys() {
+            return useCefKeys;
+        }
+
+        /**
+         * Sets whether the fields listed in {@link #getCefKeys()} are emitted under their CEF key rather than their
+         * dot-notation name.
+         *
+         * @param useCefKeys
+         *            Indicates if CEF keys are used.
+         */
+        public void setUseCefKeys(boolean useCefKeys) {
+            this.useCefKeys = useCefKeys;
+        }
+
+        /**
+         * Returns the CEF dictionary keys of audit event fields, keyed by field name in dot notation. When a field is
+         * mapped onto <code>src</code>, the message header leaves out the local host address it otherwise holds
+         * under that key, so that the key is not repeated.
+         *
+         * @return the CEF keys.
+         */
+        public Map<String, String> getCefKeys() {
+            return unmodifiableMap(cefKeys);
+        }
+
+        /**
+         * Sets the CEF dictionary keys of audit event fields, keyed by field name in dot notation.
+         *
+         * @param cefKeys
+         *            the CEF keys.
+         */
+        public void setCefKeys(Map<String, String> cefKeys) {
+            this.cefKeys = new HashMap<>(cefKeys);
+        }
+    }
+
+    /**
+     * Configuration of load shedding, in which the events less severe than a minimum {@link Severity} are dropped
+     * before they are formatted while the event buffer is backed up, so that the threads publishing the more severe
+     * ones are not blocked waiting for room in the buffer.
+     * <p>
+     * Shedding starts once the buffer occupancy reaches the high watermark, and stops once it has drained to the low
+     * watermark, at which point a summary of the events dropped is published. Only applies when buffering is
+     * enabled.
+     */
+    public static class SheddingConfiguration {
+
+        @JsonPropertyDescription("audit.handlers.syslog.buffering.shedding.enabled")
+        private boolean enabled;
+
+        @JsonPropertyDescription("audit.handlers.syslog.buffering.shedding.highWatermark")
+        private double highWatermark = 0.9;
+
+        @JsonPropertyDescription("audit.handlers.syslog.buffering.shedding.lowWatermark")
+        private double lowWatermark = 0.7;
+
+        /** Only warnings and more severe events are kept while shedding by default. */
+        @JsonPropertyDescription("audit.handlers.syslog.buffering.shedding.minimumSeverity")
+        private Severity minimumSeverity = Severity.WARNING;
+
+        /**
+         * Indicates if the less severe events are dropped while the buffer is backed up.
+         *
+         * @return {@code true} if load shedding is enabled.
+         */
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Sets whether the less severe events are dropped while the buffer is backed up.
+         *
+         * @param enabled
+         *            Indicates if load shedding is enabled.
+         */
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        /**
+         * Returns the buffer occupancy, as a fraction of its capacity, at which shedding starts.
+         *
+         * @return the high watermark, between 0 and 1.
+         */
+        public double getHighWatermark() {
+            return highWatermark;
+        }
+
+        /**
+         * Sets the buffer occupancy, as a fraction of its capacity, at which shedding starts.
+         *
+         * @param highWatermark
+         *            the high watermark, between 0 and 1.
+         */
+        public void setHighWatermark(double highWatermark) {
+            this.highWatermark = highWatermark;
+        }
+
+        /**
+         * Returns the buffer occupancy, as a fraction of its capacity, at which shedding stops.
+         *
+         * @return the low watermark, between 0 and the high watermark.
+         */
+        public double getLowWatermark() {
+            return lowWatermark;
+        }
+
+        /**
+         * Sets the buffer occupancy, as a fraction of its capacity, at which shedding stops.
+         *
+         * @param lowWatermark
+         *            the low watermark, between 0 and the high watermark.
+         */
+        public void setLowWatermark(double lowWatermark) {
+            this.lowWatermark = lowWatermark;
+        }
+
+        /**
+         * Returns the least severe {@link Severity} of the events kept while shedding.
+         *
+         * @return the minimum severity.
+         */
+        public Severity getMinimumSeverity() {
+            return minimumSeverity;
+        }
+
+        /**
+         * Sets the least severe {@link Severity} of the events kept while shedding.
+         *
+         * @param minimumSeverity
+         *            the minimum severity.
+         */
+        public void setMinimumSeverity(Severity minimumSeverity) {
+            this.minimumSeverity = minimumSeverity;
+        }
     }
 }
@@ -0,0 +1,135 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.SeverityFieldMapping;
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the {@link Severity} of the events of a topic from the field named by its {@link SeverityFieldMapping}.
+ * <p>
+ * The mapping is compiled once into a pre-parsed {@link JsonPointer} and a lookup table holding the configured
+ * {@link SeverityFieldMapping#getValueMappings() value mappings}, which take precedence, and the exact names of the
+ * {@link Severity} values. Other values are matched against the severity names ignoring case, and the outcome is
+ * cached so that each distinct value is only examined once. Events whose field is missing or does not match any
+ * severity are {@link Severity#INFORMATIONAL}.
+ * <p>
+ * Objects are thread-safe and can therefore be freely shared across threads without synchronization.
+ */
+final class SeverityResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(SeverityResolver.class);
+
+    /** Severity of events whose topic has no mapping, or whose mapped field has no recognised value. */
+    static final Severity DEFAULT_SEVERITY = Severity.INFORMATIONAL;
+
+    /** Resolver for topics without a severity field mapping. */
+    static final SeverityResolver UNMAPPED = new SeverityResolver(null, new HashMap<String, Severity>());
+
+    /** Bounds the memory used by the fallback cache should a field hold arbitrary values. */
+    private static final int MAX_FALLBACK_CACHE_SIZE = 1024;
+
+    private static final Map<String, Severity> SEVERITY_NAMES = new HashMap<>();
+
+    static {
+        for (Severity severity : Severity.values()) {
+            SEVERITY_NAMES.put(severity.name(), severity);
+        }
+    }
+
+    private final JsonPointer pointer;
+    private final Map<String, Severity> severities;
+    private final Map<String, Severity> fallbackCache = new ConcurrentHashMap<>();
+
+    private SeverityResolver(JsonPointer pointer, Map<String, Severity> severities) {
+        this.pointer = pointer;
+        this.severities = severities;
+    }
+
+    /**
+     * Compiles the provided severity field mapping.
+     *
+     * @param mapping The severity field mapping of a topic, the field of which is known to exist in the topic schema.
+     * @return the resolver.
+     */
+    static SeverityResolver compile(SeverityFieldMapping mapping) {
+        String field = mapping.getField();
+        if (!field.startsWith("/")) {
+            field = "/" + field;
+        }
+        final Map<String, Severity> severities = new HashMap<>(SEVERITY_NAMES);
+        severities.putAll(mapping.getValueMappings());
+        return new SeverityResolver(new JsonPointer(field), severities);
+    }
+
+    /**
+     * Returns the severity of the provided audit event.
+     *
+     * @param auditEvent The audit event being formatted.
+     * @return the severity of the event.
+     */
+    Severity resolve(JsonValue auditEvent) {
+        return pointer == null ? DEFAULT_SEVERITY : resolveValue(auditEvent.get(pointer));
+    }
+
+    /**
+     * Returns the pointer to the field from which the severity is resolved.
+     *
+     * @return the pointer, or <code>null</code> if the topic has no severity field mapping.
+     */
+    JsonPointer getPointer() {
+        return pointer;
+    }
+
+    /**
+     * Returns the severity of an event whose mapped field has already been read.
+     *
+     * @param value The value of the field named by {@link #getPointer()}, or <code>null</code> if the event does not
+     *              define it.
+     * @return the severity of the event.
+     */
+    Severity resolveValue(JsonValue value) {
+        if (pointer == null || value == null || value.isNull()) {
+            return DEFAULT_SEVERITY;
+        }
+        final String text = value.isString() ? value.asString() : value.getObject().toString();
+        final Severity severity = severities.get(text);
+        return severity != null ? severity : resolveFallback(text);
+    }
+
+    private Severity resolveFallback(String text) {
+        Severity severity = fallbackCache.get(text);
+        if (severity == null) {
+            severity = SEVERITY_NAMES.get(text.toUpperCase(Locale.ROOT));
+            if (severity == null) {
+                logger.debug("{} is not a valid Syslog SEVERITY level; defaulting to INFORMATIONAL", text);
+                severity = DEFAULT_SEVERITY;
+            }
+            if (fallbackCache.size() < MAX_FALLBACK_CACHE_SIZE) {
+                fallbackCache.put(text, severity);
+            }
+        }
+        return severity;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.util.Reject;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads the values of a fixed set of fields straight from the JSON text of an audit event, as a Jackson
+ * {@link JsonParser} token stream, without building a {@link JsonValue} tree of the whole event.
+ * <p>
+ * The field pointers are compiled into a tree of their tokens. Members of the event that no pointer goes through are
+ * skipped by the parser without being materialized. The values that pointers do select are materialized as Jackson's
+ * <code>ObjectMapper</code> would deserialize them into a <code>Map</code> (strings, <code>Integer</code>,
+ * <code>Long</code> or <code>BigInteger</code> integers, <code>Double</code> decimals, booleans, <code>null</code>,
+ * <code>LinkedHashMap</code> objects and <code>ArrayList</code> arrays), with the last of duplicate members winning,
+ * so that they are indistinguishable from those {@link JsonValue#get(JsonPointer)} would find in the full event.
+ * <p>
+ * Objects are immutable and can therefore be freely shared across threads without synchronization.
+ */
+final class StreamingFieldReader {
+
+    private final Node root = new Node(null);
+    private final int fieldCount;
+
+    /**
+     * Construct a new StreamingFieldReader.
+     *
+     * @param pointers The pointers of the fields to be read; none of them may be empty.
+     */
+    StreamingFieldReader(List<JsonPointer> pointers) {
+        for (int i = 0; i < pointers.size(); i++) {
+            final JsonPointer pointer = pointers.get(i);
+            Reject.ifTrue(pointer.size() == 0, "Field pointers must not be empty");
+            Node node = root;
+            for (String token : pointer) {
+                node.descendantSlots = append(node.descendantSlots, i);
+                node = node.child(token);
+            }
+            node.slots = append(node.slots, i);
+        }
+        this.fieldCount = pointers.size();
+    }
+
+    private static int[] append(int[] slots, int slot) {
+        final int[] result = Arrays.copyOf(slots, slots.length + 1);
+        result[slots.length] = slot;
+        return result;
+    }
+
+    /**
+     * Reads the values of the fields from the provided parser, which must either not have been advanced yet or be
+     * positioned on the start of the event object. The parser is left on the end of the event object.
+     *
+     * @param parser The parser of the event JSON.
+     * @return the values of the fields, in the order of their pointers; <code>null</code> for fields that the event
+     * does not define.
+     * @throws IOException if the JSON could not be read or is not an object.
+     */
+    JsonValue[] read(JsonParser parser) throws IOException {
+        final JsonToken token = parser.getCurrentToken() != null ? parser.getCurrentToken() : parser.nextToken();
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Audit event must be a JSON object, not " + token);
+        }
+        final JsonValue[] values = new JsonValue[fieldCount];
+        readObject(parser, root, values);
+        return values;
+    }
+
+    private static void readObject(JsonParser parser, Node node, JsonValue[] values) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final Node child = node.children.get(parser.getCurrentName());
+            final JsonToken token = parser.nextToken();
+            if (child == null) {
+                parser.skipChildren();
+                continue;
+            }
+            // a duplicate member replaces whatever an earlier one defined
+            for (int slot : child.descendantSlots) {
+                values[slot] = null;
+            }
+            if (child.slots.length > 0 || (token == JsonToken.START_ARRAY && !child.children.isEmpty())) {
+                final JsonValue value = new JsonValue(readValue(parser, token));
+                for (int slot : child.slots) {
+                    values[slot] = value;
+                }
+                readDescendants(value, child, values);
+            } else if (token == JsonToken.START_OBJECT) {
+                readObject(parser, child, values);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Resolves the fields below an already materialized value, such as array elements, as a pointer would.
+     */
+    private static void readDescendants(JsonValue value, Node node, JsonValue[] values) {
+        for (Node child : node.children.values()) {
+            final JsonValue member = value.get(child.step);
+            if (member != null) {
+                for (int slot : child.slots) {
+                    values[slot] = member;
+                }
+                readDescendants(member, child, values);
+            }
+        }
+    }
+
+    private static Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+        case START_OBJECT:
+            final Map<String, Object> object = new LinkedHashMap<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                object.put(name, readValue(parser, parser.nextToken()));
+            }
+            return object;
+        case START_ARRAY:
+            final List<Object> array = new ArrayList<>();
+            JsonToken element;
+            while ((element = parser.nextToken()) != JsonToken.END_ARRAY) {
+                array.add(readValue(parser, element));
+            }
+            return array;
+        case VALUE_STRING:
+            return parser.getText();
+        case VALUE_NUMBER_INT:
+            return parser.getNumberValue();
+        case VALUE_NUMBER_FLOAT:
+            return parser.getDoubleValue();
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        case VALUE_NULL:
+            return null;
+        default:
+            throw new JsonParseException(parser, "Unexpected " + token + " in audit event");
+        }
+    }
+
+    /**
+     * A token of one or more field pointers: the fields ending at it and the fields going through it.
+     */
+    private static final class Node {
+
+        private final JsonPointer step;
+        private final Map<String, Node> children = new HashMap<>();
+        private int[] slots = new int[0];
+        private int[] descendantSlots = new int[0];
+
+        private Node(String token) {
+            this.step = token == null ? null : new JsonPointer().child(token);
+        }
+
+        private Node child(String token) {
+            Node child = children.get(token);
+            if (child == null) {
+                child = new Node(token);
+                children.put(token, child);
+            }
+            return child;
+        }
+    }
+}
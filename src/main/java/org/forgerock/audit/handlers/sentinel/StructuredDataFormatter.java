@@ -0,0 +1,549 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2013 Cybernetica AS
+ * Portions copyright 2014-2016 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableSet;
+import static org.forgerock.audit.events.AuditEventBuilder.EVENT_NAME;
+import static org.forgerock.audit.events.AuditEventBuilder.TIMESTAMP;
+import static org.forgerock.audit.events.AuditEventBuilder.TRANSACTION_ID;
+import static org.forgerock.audit.events.AuditEventBuilder.USER_ID;
+import static org.forgerock.audit.events.AuditEventHelper.getAuditEventSchema;
+import static org.forgerock.audit.events.AuditEventHelper.jsonPointerToDotNotation;
+import static org.forgerock.audit.util.JsonSchemaUtils.generateJsonPointers;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.forgerock.audit.AuditService;
+import org.forgerock.audit.events.AuditEvent;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.CompactConfiguration;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.FieldProjection;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.FieldProjection.Redaction;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.ValueCacheConfiguration;
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.util.Reject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Responsible for formatting an {@link AuditEvent}'s JSON representation as an RFC-5424 compliant SD-ELEMENT.
+ * <p>
+ * The topic schema is compiled once into an array of pre-parsed {@link JsonPointer}s, ordered by pointer so that
+ * output is deterministic, each carrying the pre-encoded <code> name="</code> bytes of its SD-PARAM. Ignored fields
+ * are removed at that point, leaving value extraction and escaping as the only per-event work.
+ * <p>
+ * Object and array values are written by {@link NestedValueWriter} straight into the message buffer, escaped on
+ * the fly and bounded in size, rather than rendered to an intermediate JSON string first. String values of fields
+ * that repeat often can be served already escaped and encoded from a per-field {@link EscapedValueCache}.
+ * <p>
+ * The {@link FieldProjection} of the topic, if any, is applied at the same time: fields that are not selected are
+ * left out of the plan altogether, so that they are never extracted nor serialized, and redacted fields are written
+ * as a mask or as a hash of their value instead of the value itself.
+ * <p>
+ * When a maximum message size is configured, the span of each value is recorded in the message buffer for
+ * {@link MessageSizeLimiter}, and no value is written beyond what could possibly be kept of it.
+ * <p>
+ * In compact mode, fields without a value are left out and well-known fields are named by their CEF dictionary key
+ * rather than their dot-notation name; both decisions are made when the plan is compiled or, for empty values, as
+ * the value is resolved, before anything is written.
+ * <p>
+ * Objects are immutable and can therefore be freely shared across threads without synchronization.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc5424#section-6.3">RFC-5424 section 6.3</a>
+ */
+class StructuredDataFormatter {
+
+    private static final Logger logger = LoggerFactory.getLogger(StructuredDataFormatter.class);
+    /** Enterprise number under which the SD-IDs of the structured data are registered. */
+    static final String FORGEROCK_IANA_ENTERPRISE_ID = "36733";
+    /**
+     * The set of audit event fields that should not be copied to structured-data.
+     */
+    private static final Set<String> IGNORED_FIELDS = unmodifiableSet(
+            new HashSet<>(asList("_id", TIMESTAMP, EVENT_NAME)));
+    /**
+     * The pointers of the fields that are still copied to structured-data in degraded mode.
+     */
+    private static final Set<String> MINIMAL_FIELDS = unmodifiableSet(
+            new HashSet<>(asList("/" + USER_ID, "/" + TRANSACTION_ID)));
+    private static final String MASKED = "********";
+    private static final byte[] MASK = MASKED.getBytes(StandardCharsets.UTF_8);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final String HMAC_SHA_256 = "HmacSHA256";
+
+    private final String topic;
+    /** The field projection of the topic; <code>null</code> if every field is copied as is. */
+    private final FieldProjection projection;
+    /** The keyed hash of the values of fields redacted by {@link Redaction#HASH}; <code>null</code> if none is. */
+    private final ThreadLocal<Mac> hmac;
+    private final byte[] sdElementStart;
+    private final Field[] fields;
+    private final Field[] minimalFields;
+    private final int maxNestedValueSize;
+    private final boolean omitEmptyValues;
+    private final int maxMessageSize;
+
+    /**
+     * Construct a new StructuredDataFormatter.
+     *
+     * @param productName        Name of the ForgeRock product in which the {@link AuditService}
+     *                           is executing; the SD-ID of each STRUCTURED-DATA element is derived from the
+     *                           <code>productName</code> and <code>topic</code>.
+     * @param topic              Coarse-grained categorisation of the types of audit events that this formatter handles;
+     *                           the SD-ID of each STRUCTURED-DATA element is derived from the <code>productName</code>
+     *                           and <code>topic</code>.
+     * @param auditEventMetaData Schema and additional meta-data for the audit event topic.
+     * @param config             Configuration options.
+     */
+    StructuredDataFormatter(String productName, String topic, JsonValue auditEventMetaData,
+            SentinelAuditEventHandlerConfiguration config) {
+
+        Reject.ifNull(productName, "Product name required.");
+        Reject.ifNull(topic, "Audit event topic name required.");
+
+        JsonValue auditEventSchema;
+        try {
+            auditEventSchema = getAuditEventSchema(auditEventMetaData);
+        } catch (ResourceException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+
+        String id = topic + "." + productName + "@" + FORGEROCK_IANA_ENTERPRISE_ID;
+        sdElementStart = ("[" + id).getBytes(StandardCharsets.UTF_8);
+        this.topic = topic;
+        this.projection = findFieldProjection(topic, config.getFieldProjections());
+        this.hmac = projection != null && projection.getRedactions().containsValue(Redaction.HASH)
+                ? createHmac(topic, projection.getHashKey()) : null;
+        this.fields = compileFields(topic, generateJsonPointers(auditEventSchema), projection, hmac,
+                config.getCompact(), config.getValueCache());
+        this.minimalFields = selectMinimalFields(fields);
+        this.maxNestedValueSize = config.getMaxNestedValueSize();
+        this.omitEmptyValues = config.getCompact().isOmitEmptyValues();
+        this.maxMessageSize = config.getMaxMessageSize();
+    }
+
+    private static FieldProjection findFieldProjection(String topic, List<FieldProjection> fieldProjections) {
+        if (fieldProjections != null) {
+            for (FieldProjection fieldProjection : fieldProjections) {
+                if (topic.equals(fieldProjection.getTopic())) {
+                    return fieldProjection;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Field[] compileFields(String topic, Set<String> fieldPointers, FieldProjection projection,
+            ThreadLocal<Mac> hmac, CompactConfiguration compactConfig, ValueCacheConfiguration valueCacheConfig) {
+        final List<String> sortedPointers = new ArrayList<>(fieldPointers);
+        Collections.sort(sortedPointers);
+        final List<Field> compiled = new ArrayList<>(sortedPointers.size());
+        final Set<String> redactedFields = new HashSet<>();
+        for (String fieldPointer : sortedPointers) {
+            String formattedName = formatParamName(fieldPointer);
+            if (!IGNORED_FIELDS.contains(formattedName) && isProjected(formattedName, projection)) {
+                Redaction redaction = projection == null ? null : projection.getRedactions().get(formattedName);
+                if (redaction != null) {
+                    redactedFields.add(formattedName);
+                }
+                // redacted values are not cached: a cache of hashed values would keep the raw values as its keys
+                compiled.add(new Field(new JsonPointer(fieldPointer), paramName(formattedName, compactConfig),
+                        redaction, redaction == Redaction.HASH ? hmac : null,
+                        redaction == null ? createValueCache(formattedName, valueCacheConfig) : null));
+            }
+        }
+        if (projection != null) {
+            for (String redactedField : projection.getRedactions().keySet()) {
+                if (!redactedFields.contains(redactedField)) {
+                    logger.warn("Syslog field projection for topic {} redacts unknown or excluded field {}",
+                            topic, redactedField);
+                }
+            }
+        }
+        return compiled.toArray(new Field[compiled.size()]);
+    }
+
+    /**
+     * Returns a per-thread HMAC-SHA256 keyed by the provided secret, as {@link Mac} instances are not thread-safe.
+     */
+    private static ThreadLocal<Mac> createHmac(String topic, String hashKey) {
+        Reject.ifTrue(hashKey == null || hashKey.isEmpty(),
+                "Syslog field projection for topic " + topic + " hashes fields but has no hash key");
+        final SecretKeySpec key = new SecretKeySpec(hashKey.getBytes(StandardCharsets.UTF_8), HMAC_SHA_256);
+        return new ThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() {
+                try {
+                    final Mac mac = Mac.getInstance(HMAC_SHA_256);
+                    mac.init(key);
+                    return mac;
+                } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+    }
+
+    private static Field[] selectMinimalFields(Field[] fields) {
+        final List<Field> selected = new ArrayList<>();
+        for (Field field : fields) {
+            if (MINIMAL_FIELDS.contains(field.pointer.toString())) {
+                selected.add(field);
+            }
+        }
+        return selected.toArray(new Field[selected.size()]);
+    }
+
+    /**
+     * Returns <code>true</code> if the named field, or an object containing it, is selected by the projection.
+     */
+    private static boolean isProjected(String formattedName, FieldProjection projection) {
+        if (projection == null) {
+            return true;
+        }
+        if (!projection.getIncludedFields().isEmpty() && !matchesAny(formattedName, projection.getIncludedFields())) {
+            return false;
+        }
+        return !matchesAny(formattedName, projection.getExcludedFields());
+    }
+
+    private static boolean matchesAny(String formattedName, List<String> fieldNames) {
+        for (String fieldName : fieldNames) {
+            if (formattedName.equals(fieldName) || formattedName.startsWith(fieldName + ".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String paramName(String formattedName, CompactConfiguration compactConfig) {
+        if (compactConfig.isUseCefKeys() && compactConfig.getCefKeys().containsKey(formattedName)) {
+            return compactConfig.getCefKeys().get(formattedName);
+        }
+        return formattedName;
+    }
+
+    private static EscapedValueCache createValueCache(String paramName, ValueCacheConfiguration config) {
+        if (config == null || !config.isEnabled()) {
+            return null;
+        } else if (config.getFields().contains(paramName)) {
+            return new EscapedValueCache(config.getMaxEntriesPerField(), false);
+        } else if (config.isAutoOptIn()) {
+            return new EscapedValueCache(config.getMaxEntriesPerField(), true);
+        }
+        return null;
+    }
+
+    /**
+     * Translate the provided <code>auditEvent</code> to an RFC-5424 compliant SD-ELEMENT.
+     *
+     * @param auditEvent The audit event to be formatted.
+     * @param sd         The buffer to which the RFC-5424 compliant SD-ELEMENT is appended.
+     */
+    void format(JsonValue auditEvent, SyslogMessageBuffer sd) {
+        sd.append(sdElementStart);
+        int valueBytes = 0;
+        for (Field field : fields) {
+            valueBytes = formatParam(field, auditEvent.get(field.pointer), sd, valueBytes);
+        }
+        sd.append((byte) ']');
+    }
+
+    /**
+     * Translate the provided <code>auditEvent</code> to the minimal SD-ELEMENT of the degraded mode, which only
+     * holds the <code>userId</code> and <code>transactionId</code> fields, if the topic has them and the field
+     * projection selects them. Missing fields are left out whatever the compact configuration.
+     *
+     * @param auditEvent The audit event to be formatted.
+     * @param sd         The buffer to which the RFC-5424 compliant SD-ELEMENT is appended.
+     */
+    void formatMinimal(JsonValue auditEvent, SyslogMessageBuffer sd) {
+        sd.append(sdElementStart);
+        int valueBytes = 0;
+        for (Field field : minimalFields) {
+            final JsonValue value = auditEvent.get(field.pointer);
+            if (value != null) {
+                valueBytes = formatParam(field, value, sd, valueBytes);
+            }
+        }
+        sd.append((byte) ']');
+    }
+
+    /**
+     * Translate the already read field values of an audit event to an RFC-5424 compliant SD-ELEMENT.
+     *
+     * @param fieldValues The values of the fields named by {@link #getFieldPointers()}, in the same order, with
+     *                    <code>null</code> for those the event does not define; any further values are ignored.
+     * @param sd          The buffer to which the RFC-5424 compliant SD-ELEMENT is appended.
+     */
+    void format(JsonValue[] fieldValues, SyslogMessageBuffer sd) {
+        sd.append(sdElementStart);
+        int valueBytes = 0;
+        for (int i = 0; i < fields.length; i++) {
+            valueBytes = formatParam(fields[i], fieldValues[i], sd, valueBytes);
+        }
+        sd.append((byte) ']');
+    }
+
+    /**
+     * Returns the pointers of the fields copied to the SD-ELEMENT, in the order in which they are written.
+     *
+     * @return the field pointers.
+     */
+    List<JsonPointer> getFieldPointers() {
+        final List<JsonPointer> pointers = new ArrayList<>(fields.length);
+        for (Field field : fields) {
+            pointers.add(field.pointer);
+        }
+        return pointers;
+    }
+
+    /**
+     * Returns the position, among {@link #getFieldPointers()}, of the field written under the provided SD-PARAM name.
+     *
+     * @param paramName The SD-PARAM name, after any CEF key mapping.
+     * @return the position of the field, or <code>-1</code> if no field of the topic is written under that name.
+     */
+    int indexOfParam(String paramName) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].paramName.equals(paramName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if the SD-PARAM of the field at the provided position is written for the provided value, that is
+     * unless the value is empty and empty values are omitted.
+     *
+     * @param index   The position of the field, as returned by {@link #indexOfParam(String)}.
+     * @param value   The value of the field, or <code>null</code> if the event does not define it.
+     * @param minimal Whether the minimal SD-ELEMENT of the degraded mode is written.
+     * @return whether the SD-PARAM is written.
+     */
+    boolean writesParam(int index, JsonValue value, boolean minimal) {
+        if (index < 0 || (minimal && (value == null || !asList(minimalFields).contains(fields[index])))) {
+            return false;
+        }
+        return !(omitEmptyValues && isEmpty(value));
+    }
+
+    /**
+     * Appends an SD-PARAM, unless its value is empty and empty values are omitted, and returns the number of bytes
+     * taken by the values written so far.
+     */
+    private int formatParam(Field field, JsonValue value, SyslogMessageBuffer sd, int valueBytes) {
+        if (omitEmptyValues && isEmpty(value)) {
+            return valueBytes;
+        }
+        sd.append(field.paramNameStart);
+        int written = valueBytes;
+        if (maxMessageSize > 0) {
+            final int start = sd.length();
+            formatParamValue(field, value, sd, MessageSizeLimiter.maxValueSize(maxMessageSize, start - valueBytes));
+            sd.addSpan(start, sd.length());
+            written += sd.length() - start;
+        } else {
+            formatParamValue(field, value, sd, Integer.MAX_VALUE);
+        }
+        sd.append((byte) '"');
+        return written;
+    }
+
+    private static String formatParamName(String name) {
+        return jsonPointerToDotNotation(name);
+    }
+
+    /**
+     * Returns <code>true</code> if the value is missing, <code>null</code>, or an empty string, object or array.
+     */
+    private static boolean isEmpty(JsonValue value) {
+        if (value == null || value.isNull()) {
+            return true;
+        }
+        final Object object = value.getObject();
+        if (object instanceof String) {
+            return ((String) object).isEmpty();
+        } else if (object instanceof Map) {
+            return ((Map<?, ?>) object).isEmpty();
+        } else if (object instanceof List) {
+            return ((List<?>) object).isEmpty();
+        }
+        return false;
+    }
+
+    /**
+     * Renders a field value as {@link org.forgerock.audit.util.JsonValueUtils#extractValueAsString} would, strings
+     * as they are and anything else as JSON, but from an already resolved value and directly into the buffer.
+     * Writing stops shortly after <code>maxValueSize</code> bytes.
+     */
+    private void formatParamValue(Field field, JsonValue value, SyslogMessageBuffer sd, int maxValueSize) {
+        if (value == null) {
+            return;
+        } else if (field.redaction == Redaction.MASK) {
+            sd.append(MASK);
+        } else if (value.isString()) {
+            final String text = value.asString();
+            if (text.length() > maxValueSize && field.redaction == null) {
+                // each character takes at least one byte: escaping a prefix writes enough to be truncated
+                final int end = Character.isHighSurrogate(text.charAt(maxValueSize - 1))
+                        ? maxValueSize + 1 : maxValueSize;
+                ParamValueEscaper.escape(text, end, sd);
+            } else {
+                formatStringValue(field, text, sd);
+            }
+        } else if (field.redaction == Redaction.HASH) {
+            appendHash(field, value.toString(), sd);
+        } else {
+            NestedValueWriter.write(value.getObject(), sd, Math.min(maxNestedValueSize, maxValueSize));
+        }
+    }
+
+    private static void formatStringValue(Field field, String value, SyslogMessageBuffer sd) {
+        if (field.redaction == Redaction.HASH) {
+            appendHash(field, value, sd);
+            return;
+        }
+        final EscapedValueCache cache = field.valueCache;
+        if (cache == null || !cache.isEnabled() || value.length() > EscapedValueCache.MAX_VALUE_LENGTH) {
+            ParamValueEscaper.escape(value, sd);
+            return;
+        }
+        final byte[] escaped = cache.get(value);
+        if (escaped != null) {
+            sd.append(escaped);
+        } else {
+            final int start = sd.length();
+            ParamValueEscaper.escape(value, sd);
+            cache.put(value, sd.toByteArray(start, sd.length()));
+        }
+    }
+
+    /**
+     * Compiles a field of the topic whose values are reported outside of the structured data of its events, such as
+     * the keys of rollup summaries, so that they can be {@link #redact(Field, String) redacted} as the field projection
+     * of the topic redacts the field.
+     *
+     * @param pointer The pointer to the field.
+     * @return the compiled field, or <code>null</code> if the field projection of the topic excludes the field.
+     */
+    Field compileReportedField(JsonPointer pointer) {
+        final String formattedName = formatParamName(pointer.toString());
+        if (!isProjected(formattedName, projection)) {
+            return null;
+        }
+        final Redaction redaction = projection == null ? null : projection.getRedactions().get(formattedName);
+        return new Field(pointer, formattedName, redaction, redaction == Redaction.HASH ? hmac : null, null);
+    }
+
+    /**
+     * Returns the provided value of a field as it may be reported: masked, or replaced by its hex-encoded
+     * HMAC-SHA256, when the field is redacted.
+     *
+     * @param field The field, as compiled by {@link #compileReportedField(JsonPointer)}.
+     * @param value The value of the field.
+     * @return the reported value.
+     */
+    static String redact(Field field, String value) {
+        if (field.redaction == Redaction.MASK) {
+            return MASKED;
+        } else if (field.redaction == Redaction.HASH) {
+            final byte[] hash = field.hmac.get().doFinal(value.getBytes(StandardCharsets.UTF_8));
+            final char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+                hex[2 * i + 1] = HEX[hash[i] & 0xf];
+            }
+            return new String(hex);
+        }
+        return value;
+    }
+
+    /**
+     * Appends the hex-encoded HMAC-SHA256 of the UTF-8 encoding of the provided text, which needs no escaping.
+     */
+    private static void appendHash(Field field, String text, SyslogMessageBuffer sd) {
+        final byte[] hash = field.hmac.get().doFinal(text.getBytes(StandardCharsets.UTF_8));
+        for (byte b : hash) {
+            sd.append((byte) HEX[(b >> 4) & 0xf]).append((byte) HEX[b & 0xf]);
+        }
+    }
+
+    /**
+     * Returns the escaped value caches of this topic's fields, keyed by field name.
+     *
+     * @return the value caches; empty unless value caching is enabled.
+     */
+    Map<String, EscapedValueCache> getValueCaches() {
+        final Map<String, EscapedValueCache> valueCaches = new LinkedHashMap<>();
+        for (Field field : fields) {
+            if (field.valueCache != null) {
+                valueCaches.put(field.paramName, field.valueCache);
+            }
+        }
+        return valueCaches;
+    }
+
+    /**
+     * Logs the state, and the hit and miss counts while probing, of this topic's escaped value caches.
+     */
+    void logValueCacheStatistics() {
+        for (Map.Entry<String, EscapedValueCache> valueCache : getValueCaches().entrySet()) {
+            logger.info("Value cache for {} field {}: {}", topic, valueCache.getKey(), valueCache.getValue());
+        }
+    }
+
+    /**
+     * A compiled SD-PARAM: where to find its value, how its name is rendered and, optionally, how its value is
+     * redacted and where its escaped values are cached.
+     */
+    static final class Field {
+
+        final JsonPointer pointer;
+        final String paramName;
+        final byte[] paramNameStart;
+        final Redaction redaction;
+        /** The keyed hash of the values redacted by {@link Redaction#HASH}; <code>null</code> otherwise. */
+        final ThreadLocal<Mac> hmac;
+        final EscapedValueCache valueCache;
+
+        private Field(JsonPointer pointer, String paramName, Redaction redaction, ThreadLocal<Mac> hmac,
+                EscapedValueCache valueCache) {
+            this.pointer = pointer;
+            this.paramName = paramName;
+            this.redaction = redaction;
+            this.hmac = hmac;
+            this.valueCache = valueCache;
+            this.paramNameStart = (" " + paramName + "=\"").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
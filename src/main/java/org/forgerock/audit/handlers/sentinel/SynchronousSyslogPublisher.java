@@ -19,15 +19,20 @@ package org.forgerock.audit.handlers.sentinel;
 import org.forgerock.util.Reject;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * SyslogPublisher that transmits messages using the current thread.
+ * <p>
+ * The connection carries one message at a time, so publishing threads take turns through a lock private to the
+ * publisher, held only while the message is sent.
  */
 class SynchronousSyslogPublisher implements SyslogPublisher {
 
     /** SyslogConnection through which buffered messages are sent. */
     private final SyslogConnection connection;
+    /** Serializes the use of the connection. */
+    private final ReentrantLock connectionLock = new ReentrantLock();
 
     /**
      * Construct a new SynchronousSyslogPublisher.
@@ -41,15 +46,30 @@ class SynchronousSyslogPublisher implements SyslogPublisher {
     }
 
     @Override
-    public void publishMessage(String syslogMessage) throws IOException {
-        connection.reconnect();
-        connection.send(syslogMessage.getBytes(StandardCharsets.UTF_8));
-        connection.flush();
+    public void publishMessage(SyslogMessageBuffer syslogMessage) throws IOException {
+        connectionLock.lock();
+        try {
+            connection.reconnect();
+            connection.send(syslogMessage);
+            connection.flush();
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    @Override
+    public double getOccupancy() {
+        return 0;
     }
 
     @Override
     public void close() {
-        connection.close();
+        connectionLock.lock();
+        try {
+            connection.close();
+        } finally {
+            connectionLock.unlock();
+        }
     }
 
 }
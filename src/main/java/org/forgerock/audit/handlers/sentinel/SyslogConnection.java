@@ -27,6 +27,14 @@ interface SyslogConnection extends AutoCloseable {
 
     void send(byte[] syslogMessage) throws IOException;
 
+    /**
+     * Sends the message held by the provided buffer, framing it in place if the transport requires it.
+     *
+     * @param syslogMessage The encoded message.
+     * @throws IOException If the message could not be sent.
+     */
+    void send(SyslogMessageBuffer syslogMessage) throws IOException;
+
     void flush() throws IOException;
 
     void close();
@@ -16,9 +16,9 @@
  */
 package org.forgerock.audit.handlers.sentinel;
 
-import org.forgerock.audit.AuditService;
 import org.forgerock.audit.events.AuditEvent;
 import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.FieldProjection;
 import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.SeverityFieldMapping;
 import org.forgerock.audit.providers.LocalHostNameProvider;
 import org.forgerock.audit.providers.ProductInfoProvider;
@@ -29,24 +29,23 @@ import org.forgerock.util.Reject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.text.SimpleDateFormat;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
-import static java.util.Arrays.asList;
-import static java.util.Collections.unmodifiableSet;
 import static org.forgerock.audit.events.AuditEventBuilder.EVENT_NAME;
 import static org.forgerock.audit.events.AuditEventBuilder.TIMESTAMP;
 import static org.forgerock.audit.events.AuditEventHelper.getAuditEventSchema;
-import static org.forgerock.audit.events.AuditEventHelper.jsonPointerToDotNotation;
 import static org.forgerock.audit.util.JsonSchemaUtils.generateJsonPointers;
-import static org.forgerock.audit.util.JsonValueUtils.extractValueAsString;
 
 /**
  * Responsible for formatting an {@link AuditEvent}'s JSON representation as an RFC-5424 compliant Syslog message.
  * <p>
- * Objects are immutable and can therefore be freely shared across threads without synchronization.
+ * Objects are thread-safe and can therefore be freely shared across threads without synchronization.
  *
  * @see <a href="https://tools.ietf.org/html/rfc5424">RFC-5424</a>
  */
@@ -55,57 +54,264 @@ class SyslogFormatter {
     private static final Logger logger = LoggerFactory.getLogger(SyslogFormatter.class);
     private static final String SYSLOG_SPEC_VERSION = "1";
     private static final String NIL_VALUE = "-";
-    private final Map<String, StructuredDataFormatter> structuredDataFormatters;
-    private final Map<String, SeverityFieldMapping> severityFieldMappings;
+    private static final String CEF_VERSION = "CEF:0";
+    private static final String FR_VENDOR = "ForgeRock Inc";
+    private static final String FR_VERSION = "1.0";
+    private static final String FR_TYPE = "forgerock cef";
+    private static final String SRC_KEY = "src";
+    private static final byte[] SRC = (" " + SRC_KEY + "=").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ACT = " act=".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TARGET_TYPE = " targetType=".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CNT = " cnt=".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] START = " start=".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END = " end=".getBytes(StandardCharsets.UTF_8);
+    /** CEF extension reporting the number of events suppressed since the previous message of the topic. */
+    static final String SUPPRESSED_LABEL = "cn1Label=suppressedEvents cn1=";
+    private static final byte[] SUPPRESSED = (" " + SUPPRESSED_LABEL).getBytes(StandardCharsets.UTF_8);
+    /** CEF extension flagging the messages formatted in degraded mode. */
+    static final String DEGRADED_FLAG = "cs1Label=formatMode cs1=degraded";
+    /** Creates the parsers of serialized audit events; thread-safe once configured. */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private final Map<String, TopicPlan> topicPlans;
     private final Facility facility;
+    private final TimestampRenderer timestampRenderer;
+    private final HostIdentity hostIdentity;
+    private final DebugTap debugTap;
+    private final int maxMessageSize;
+    private final AtomicLong truncatedEvents = new AtomicLong();
+    private final AtomicLong degradedEvents = new AtomicLong();
 
-    private final String HOST_NAME;
     private final String APP_NAME;
     private final String PROC_ID;
+    private final byte[] procIdAndMsg;
+    private final byte[] procIdDegradedAndMsg;
 
     /**
      * Format the provided <code>auditEvent</code> to a CEF message...
-        */
+     */
     public String format(String topic, JsonValue auditEvent) {
+        final TopicPlan topicPlan = getTopicPlan(topic);
+        Reject.ifNull(topicPlan, "Unknown event topic");
+        final SyslogMessageBuffer message = new SyslogMessageBuffer();
+        format(topicPlan, auditEvent, message);
+        return message.toString();
+    }
+
+    /**
+     * Encode the provided <code>auditEvent</code> as a CEF message, using a previously resolved {@link TopicPlan},
+     * directly into the provided buffer.
+     *
+     * @param topicPlan  The plan of the topic to which the <code>auditEvent</code> belongs.
+     * @param auditEvent The audit event to be formatted.
+     * @param message    The buffer to which the CEF message is appended.
+     */
+    void format(TopicPlan topicPlan, JsonValue auditEvent, SyslogMessageBuffer message) {
+        format(topicPlan, auditEvent, System.currentTimeMillis(), message);
+    }
+
+    /**
+     * Encode the provided <code>auditEvent</code> as a CEF message, as if it were formatted at the provided time.
+     *
+     * @param topicPlan       The plan of the topic to which the <code>auditEvent</code> belongs.
+     * @param auditEvent      The audit event to be formatted.
+     * @param wallClockMillis The time at which the event was published, in milliseconds since the epoch.
+     * @param message         The buffer to which the CEF message is appended.
+     */
+    void format(TopicPlan topicPlan, JsonValue auditEvent, long wallClockMillis, SyslogMessageBuffer message) {
+
+        final Severity FR_SEVERITY = topicPlan.severityResolver.resolve(auditEvent);
+        final String MSG_ID = auditEvent.get(EVENT_NAME).asString();
+
+        timestampRenderer.render(auditEvent, wallClockMillis, message);
+        appendHeader(topicPlan, FR_SEVERITY, MSG_ID, topicPlan.writesSource(auditEvent, false), message);
+        message.append(procIdAndMsg);
+        topicPlan.structuredDataFormatter.format(auditEvent, message);
+        complete(message);
+    }
 
-        Reject.ifFalse(canFormat(topic), "Unknown event topic");
+    /**
+     * Encode the provided <code>auditEvent</code> as the minimal CEF message of the degraded mode, as if it were
+     * formatted at the provided time: the usual header, severity and event name, flagged with the
+     * {@link #DEGRADED_FLAG} extension and followed by structured data holding only the user and transaction ids.
+     *
+     * @param topicPlan       The plan of the topic to which the <code>auditEvent</code> belongs.
+     * @param auditEvent      The audit event to be formatted.
+     * @param wallClockMillis The time at which the event was published, in milliseconds since the epoch.
+     * @param message         The buffer to which the CEF message is appended.
+     */
+    void formatDegraded(TopicPlan topicPlan, JsonValue auditEvent, long wallClockMillis,
+            SyslogMessageBuffer message) {
 
-        final Severity FR_SEVERITY = getSeverityLevel(topic, auditEvent); //rj? kCase
-        final String FR_PRIORITY = String.valueOf(calculatePriorityValue(facility, FR_SEVERITY));
-        final String TIME_STAMP = auditEvent.get(TIMESTAMP).asString();
+        final Severity FR_SEVERITY = topicPlan.severityResolver.resolve(auditEvent);
         final String MSG_ID = auditEvent.get(EVENT_NAME).asString();
-        final String STRUCTURED_DATA = structuredDataFormatters.get(topic).format(auditEvent);
-
-        final String CEF_VERSION = "CEF:0";
-        final String FR_VENDOR = "ForgeRock Inc";
-        final String FR_PRODUCT = "Trust Partner Network";
-        final String FR_VERSION = "1.0";
-        final String FR_CODE = "100";
-        final String FR_TYPE = "forgerock cef";
-        final String FR_MSG_CODE = "1";
-
-        String pattern = "dd MMMMM HH:mm:ss";
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(pattern, new Locale("us", "EN"));
-        String date = simpleDateFormat.format(new Date());
-
-        InetAddress inetAddress = null;
-        try {
-            inetAddress = InetAddress.getLocalHost();
-        } catch (UnknownHostException e) {
-            e.printStackTrace();
+
+        timestampRenderer.render(auditEvent, wallClockMillis, message);
+        appendHeader(topicPlan, FR_SEVERITY, MSG_ID, topicPlan.writesSource(auditEvent, true), message);
+        message.append(procIdDegradedAndMsg);
+        topicPlan.structuredDataFormatter.formatMinimal(auditEvent, message);
+        degradedEvents.incrementAndGet();
+        complete(message);
+    }
+
+    /**
+     * Encode the first of a series of repeated audit events as a CEF message standing for the whole series, as if it
+     * were formatted when the first event was published: the usual message, extended with the standard
+     * <code>cnt</code>, <code>start</code> and <code>end</code> CEF extensions holding the number of events and the
+     * times, in milliseconds since the epoch, at which the first and last of them were published.
+     *
+     * @param topicPlan   The plan of the topic to which the <code>auditEvent</code> belongs.
+     * @param auditEvent  The first of the repeated audit events.
+     * @param count       The number of repeated events.
+     * @param firstMillis The time at which the first event was published, in milliseconds since the epoch.
+     * @param lastMillis  The time at which the last event was published, in milliseconds since the epoch.
+     * @param message     The buffer to which the CEF message is appended.
+     */
+    void formatAggregated(TopicPlan topicPlan, JsonValue auditEvent, int count, long firstMillis, long lastMillis,
+            SyslogMessageBuffer message) {
+
+        final Severity FR_SEVERITY = topicPlan.severityResolver.resolve(auditEvent);
+        final String MSG_ID = auditEvent.get(EVENT_NAME).asString();
+
+        timestampRenderer.render(auditEvent, firstMillis, message);
+        appendHeader(topicPlan, FR_SEVERITY, MSG_ID, topicPlan.writesSource(auditEvent, false), message);
+        message.append(CNT).append(String.valueOf(count));
+        message.append(START).append(String.valueOf(firstMillis));
+        message.append(END).append(String.valueOf(lastMillis));
+        message.append(procIdAndMsg);
+        topicPlan.structuredDataFormatter.format(auditEvent, message);
+        complete(message);
+    }
+
+    /**
+     * Format the JSON serialization of an audit event to a CEF message, exactly as if it had been parsed into a
+     * {@link JsonValue} and passed to {@link #format(String, JsonValue)}.
+     *
+     * @param topic      The topic of the <code>auditEvent</code>.
+     * @param auditEvent The UTF-8 encoded JSON of the audit event to be formatted.
+     * @return the CEF message.
+     * @throws IOException if the audit event is not a well-formed JSON object.
+     */
+    public String format(String topic, byte[] auditEvent) throws IOException {
+        final TopicPlan topicPlan = getTopicPlan(topic);
+        Reject.ifNull(topicPlan, "Unknown event topic");
+        final SyslogMessageBuffer message = new SyslogMessageBuffer();
+        format(topicPlan, auditEvent, message);
+        return message.toString();
+    }
+
+    /**
+     * Encode the JSON serialization of an audit event as a CEF message, using a previously resolved
+     * {@link TopicPlan}, directly into the provided buffer.
+     *
+     * @param topicPlan  The plan of the topic to which the <code>auditEvent</code> belongs.
+     * @param auditEvent The UTF-8 encoded JSON of the audit event to be formatted.
+     * @param message    The buffer to which the CEF message is appended.
+     * @throws IOException if the audit event is not a well-formed JSON object.
+     */
+    void format(TopicPlan topicPlan, byte[] auditEvent, SyslogMessageBuffer message) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(auditEvent)) {
+            format(topicPlan, parser, System.currentTimeMillis(), message);
+        }
+    }
+
+    /**
+     * Encode the audit event read from the provided parser as a CEF message, as if it were formatted at the provided
+     * time.
+     * <p>
+     * Only the fields of the event that the message is made of are materialized, straight from the token stream, by
+     * the {@link StreamingFieldReader} of the topic; the rest of the event is skipped.
+     *
+     * @param topicPlan       The plan of the topic to which the audit event belongs.
+     * @param parser          The parser of the audit event JSON, not yet advanced or positioned on its start.
+     * @param wallClockMillis The time at which the event was published, in milliseconds since the epoch.
+     * @param message         The buffer to which the CEF message is appended.
+     * @throws IOException if the audit event is not a well-formed JSON object.
+     */
+    void format(TopicPlan topicPlan, JsonParser parser, long wallClockMillis, SyslogMessageBuffer message)
+            throws IOException {
+
+        final JsonValue[] values = topicPlan.fieldReader.read(parser);
+        final Severity FR_SEVERITY = topicPlan.severityResolver.resolveValue(
+                topicPlan.severitySlot < 0 ? null : values[topicPlan.severitySlot]);
+        final JsonValue eventName = values[topicPlan.eventNameSlot];
+        final String MSG_ID = eventName == null ? null : eventName.asString();
+
+        timestampRenderer.renderField(values[topicPlan.timestampSlot], wallClockMillis, message);
+        appendHeader(topicPlan, FR_SEVERITY, MSG_ID, topicPlan.writesSourceValue(values), message);
+        message.append(procIdAndMsg);
+        topicPlan.structuredDataFormatter.format(values, message);
+        complete(message);
+    }
+
+    /**
+     * Encode a summary of many audit events, such as those dropped by load shedding, as a CEF message: the usual
+     * header for the provided event name, the <code>cnt</code>, <code>start</code> and <code>end</code> CEF
+     * extensions holding the number of events summarized and the times, in milliseconds since the epoch, at which the
+     * summarized period started and ended, and structured data holding the provided parameters under the
+     * <code>name.APP-NAME@36733</code> SD-ID.
+     *
+     * @param eventName   The event name of the summary.
+     * @param severity    The severity of the summary.
+     * @param name        The name of the SD-ID of the structured data.
+     * @param count       The number of events summarized.
+     * @param startMillis The time at which the summarized period started, in milliseconds since the epoch.
+     * @param endMillis   The time at which the summarized period ended, in milliseconds since the epoch.
+     * @param params      The SD-PARAMs of the structured data, in order; the names must be valid SD-NAMEs.
+     * @param message     The buffer to which the CEF message is appended.
+     */
+    void formatSummary(String eventName, Severity severity, String name, long count, long startMillis,
+            long endMillis, Map<String, String> params, SyslogMessageBuffer message) {
+
+        timestampRenderer.renderField(null, endMillis, message);
+        message.append(headerPrefix(facility, APP_NAME, severity));
+        message.append(SRC).append(hostIdentity.getHostAddress());
+        message.append(ACT).append(eventName);
+        message.append(TARGET_TYPE).append(hostIdentity.getHostName());
+        message.append(CNT).append(String.valueOf(count));
+        message.append(START).append(String.valueOf(startMillis));
+        message.append(END).append(String.valueOf(endMillis));
+        message.append(procIdAndMsg);
+        message.append((byte) '[').append(name).append((byte) '.').append(APP_NAME).append((byte) '@')
+                .append(StructuredDataFormatter.FORGEROCK_IANA_ENTERPRISE_ID);
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            message.append((byte) ' ').append(param.getKey()).append("=\"");
+            ParamValueEscaper.escape(param.getValue(), message);
+            message.append((byte) '"');
         }
+        message.append((byte) ']');
+        complete(message);
+    }
 
+    /**
+     * Appends the CEF header and standard extensions, with the host address as <code>src</code> unless the
+     * structured data of the message already holds an event field mapped onto that CEF key.
+     */
+    private void appendHeader(TopicPlan topicPlan, Severity severity, String msgId, boolean sourceInStructuredData,
+            SyslogMessageBuffer message) {
         //CEF:Version|Device Vendor|Device Product|Version|Signature ID|Name|Severity|Extensions
-        String parsedCEF = date + " " + CEF_VERSION + "|" + FR_VENDOR + "|" + APP_NAME + "|" + FR_VERSION + "|"  + FR_PRIORITY + "|" + FR_TYPE + "|" + FR_SEVERITY + "|"
-                + " src=" + inetAddress.getHostAddress()    // a CEF standard field
-                + " act=" + MSG_ID                           // a CEF standard field
-                + " targetType=" + inetAddress.getHostName()       // HOSTNAME
-                //+ " cn1=" + APP_NAME                         // APP-NAME
-                + " procId=" + PROC_ID                       // PROCID
-                //+ " fr_priority=" + PRIORITY
-                + " msg=" + STRUCTURED_DATA;     // rj? STRUCTURED-DATA (worried :: will mess things up
-        System.out.println(parsedCEF);
-        return parsedCEF;
+        message.append(topicPlan.getHeaderPrefix(severity));
+        if (!sourceInStructuredData) {
+            message.append(SRC).append(hostIdentity.getHostAddress());  // a CEF standard field
+        }
+        message.append(ACT).append(String.valueOf(msgId));              // a CEF standard field
+        message.append(TARGET_TYPE).append(hostIdentity.getHostName()); // HOSTNAME
+        final long suppressedEvents = topicPlan.takeSuppressedEvents();
+        if (suppressedEvents > 0) {
+            message.append(SUPPRESSED).append(String.valueOf(suppressedEvents));
+        }
+    }
+
+    /**
+     * Brings the finished message within the maximum message size and lets the debug tap see it.
+     */
+    private void complete(SyslogMessageBuffer message) {
+        if (maxMessageSize > 0 && MessageSizeLimiter.limit(message, maxMessageSize)) {
+            truncatedEvents.incrementAndGet();
+        }
+
+        if (debugTap.shouldRecord()) {
+            debugTap.record(message);
+        }
     }
 
     /**
@@ -121,17 +327,62 @@ class SyslogFormatter {
 
         Reject.ifNull(localHostNameProvider, "LocalHostNameProvider must not be null");
 
-        this.HOST_NAME = getLocalHostName(localHostNameProvider);
+        this.hostIdentity = new HostIdentity(localHostNameProvider, config.getHostIdentityRefreshInterval());
+        this.debugTap = DebugTap.create(config.getDebugTap());
+        this.maxMessageSize = config.getMaxMessageSize();
         this.PROC_ID = String.valueOf(SyslogFormatter.class.hashCode());
+        this.procIdAndMsg = (" procId=" + PROC_ID + " msg=").getBytes(StandardCharsets.UTF_8);
+        this.procIdDegradedAndMsg = (" procId=" + PROC_ID + " " + DEGRADED_FLAG + " msg=")
+                .getBytes(StandardCharsets.UTF_8);
         this.APP_NAME = getProductName(productInfoProvider);
         this.facility = config.getFacility();
-        this.severityFieldMappings =
+        this.timestampRenderer = new TimestampRenderer(TimeZone.getDefault(),
+                config.getTimestamp().isUseEventTimestamp(), config.getTimestamp().isMillisecondPrecision());
+        final Map<String, SeverityFieldMapping> severityFieldMappings =
                 createSeverityFieldMappings(config.getSeverityFieldMappings(), eventTopicsMetaData);
-        this.structuredDataFormatters = Collections.unmodifiableMap(
-                createStructuredDataFormatters(APP_NAME, eventTopicsMetaData));
+        warnOfUnknownTopics(config.getFieldProjections(), eventTopicsMetaData);
+        this.topicPlans = Collections.unmodifiableMap(
+                createTopicPlans(APP_NAME, eventTopicsMetaData, severityFieldMappings, config));
     }
 
 
+    /**
+     * Returns the most recently formatted messages kept by the debug tap, oldest first.
+     *
+     * @return the recent messages; empty unless the debug tap is configured to keep them.
+     */
+    List<String> getRecentMessages() {
+        return debugTap.dump();
+    }
+
+    /**
+     * Returns the number of events whose message had values truncated to fit the maximum message size.
+     *
+     * @return the truncated event count.
+     */
+    long getTruncatedEventCount() {
+        return truncatedEvents.get();
+    }
+
+    /**
+     * Returns the number of events formatted in the minimal form of the degraded mode.
+     *
+     * @return the degraded event count.
+     */
+    long getDegradedEventCount() {
+        return degradedEvents.get();
+    }
+
+    /**
+     * Releases the resources held by this formatter, such as the thread refreshing the local host identity, and
+     * logs how well the escaped value caches performed.
+     */
+    void close() {
+        hostIdentity.close();
+        for (TopicPlan topicPlan : topicPlans.values()) {
+            topicPlan.structuredDataFormatter.logValueCacheStatistics();
+        }
+    }
 
     /**
      * Returns <code>true</code> if this formatter has been configured to handle events of the specified topic.
@@ -141,7 +392,19 @@ class SyslogFormatter {
      * <code>false</code> otherwise.
      */
     public boolean canFormat(String topic) {
-        return structuredDataFormatters.containsKey(topic);
+        return topicPlans.containsKey(topic);
+    }
+
+    /**
+     * Returns the {@link TopicPlan} compiled for the specified topic so that callers need only resolve the topic once
+     * per event.
+     *
+     * @param topic The topic of the <code>auditEvent</code> to be formatted.
+     * @return the plan for the topic, or <code>null</code> if this formatter has not been configured to handle events
+     * of the specified topic.
+     */
+    TopicPlan getTopicPlan(String topic) {
+        return topicPlans.get(topic);
     }
 
     private Map<String, SeverityFieldMapping> createSeverityFieldMappings(
@@ -184,39 +447,38 @@ class SyslogFormatter {
         return results;
     }
 
-    private Map<String, StructuredDataFormatter> createStructuredDataFormatters(
-            String productName,
+    private static void warnOfUnknownTopics(List<FieldProjection> fieldProjections,
             EventTopicsMetaData eventTopicsMetaData) {
+        for (FieldProjection fieldProjection : fieldProjections) {
+            if (!eventTopicsMetaData.containsTopic(fieldProjection.getTopic())) {
+                logger.warn("Syslog field projection defined for unknown topic {}", fieldProjection.getTopic());
+            }
+        }
+    }
+
+    private Map<String, TopicPlan> createTopicPlans(String productName, EventTopicsMetaData eventTopicsMetaData,
+            Map<String, SeverityFieldMapping> severityFieldMappings, SentinelAuditEventHandlerConfiguration config) {
 
-        final Map<String, StructuredDataFormatter> results = new HashMap<>();
+        final Map<String, TopicPlan> results = new HashMap<>();
         for (String topic : eventTopicsMetaData.getTopics()) {
             JsonValue schema = eventTopicsMetaData.getSchema(topic);
-            results.put(topic, new StructuredDataFormatter(productName, topic, schema));
+            SeverityFieldMapping severityFieldMapping = severityFieldMappings.get(topic);
+            results.put(topic, new TopicPlan(topic, facility, productName,
+                    severityFieldMapping == null
+                            ? SeverityResolver.UNMAPPED
+                            : SeverityResolver.compile(severityFieldMapping),
+                    new StructuredDataFormatter(productName, topic, schema, config)));
         }
         return results;
     }
 
-    private Severity getSeverityLevel(String topic, JsonValue auditEvent) {
-        if (severityFieldMappings.containsKey(topic)) {
-            SeverityFieldMapping severityFieldMapping = severityFieldMappings.get(topic);
-            String severityField = severityFieldMapping.getField();
-            if (severityField != null && !severityField.startsWith("/")) {
-                severityField = "/" + severityField;
-            }
-            JsonValue jsonValue = auditEvent.get(new JsonPointer(severityField));
-            String severityValue = jsonValue == null ? null : jsonValue.asString();
-            if (severityValue == null) {
-                logger.debug("{} value not set; defaulting to INFORMATIONAL Syslog SEVERITY level", severityField);
-            } else {
-                try {
-                    return Severity.valueOf(severityValue);
-                } catch (IllegalArgumentException ex) {
-                    logger.debug("{} is not a valid Syslog SEVERITY level; defaulting to INFORMATIONAL", severityValue);
-                }
-            }
-        }
-        // if no mapping was defined or the value wasn't a valid severity, default to INFORMATIONAL
-        return Severity.INFORMATIONAL;
+    /**
+     * Renders the CEF header, from the version up to and including the severity field separator.
+     */
+    private static byte[] headerPrefix(Facility facility, String productName, Severity severity) {
+        return (" " + CEF_VERSION + "|" + FR_VENDOR + "|" + productName + "|" + FR_VERSION + "|"
+                + calculatePriorityValue(facility, severity) + "|" + FR_TYPE + "|" + severity + "|")
+                .getBytes(StandardCharsets.UTF_8);
     }
 
     /**
@@ -224,20 +486,10 @@ class SyslogFormatter {
      *
      * @see <a href="https://tools.ietf.org/html/rfc5424#section-6.2.1">RFC-5424 section 6.2.1</a>
      */
-    private int calculatePriorityValue(Facility facility, Severity severityLevel) {
+    private static int calculatePriorityValue(Facility facility, Severity severityLevel) {
         return (facility.getCode() * 8) + severityLevel.getCode();
     }
 
-    /**
-     * Calculates the Syslog message HOSTNAME value.
-     *
-     * @see <a href="https://tools.ietf.org/html/rfc5424#section-6.2.4">RFC-5424 section 6.2.4</a>
-     */
-    private String getLocalHostName(LocalHostNameProvider localHostNameProvider) {
-        String localHostName = localHostNameProvider.getLocalHostName();
-        return localHostName != null ? localHostName : NIL_VALUE;
-    }
-
     /**
      * Calculates the Syslog message APP-NAME value.
      *
@@ -249,89 +501,173 @@ class SyslogFormatter {
     }
 
     /**
-     * Responsible for formatting an {@link AuditEvent}'s JSON representation as an RFC-5424 compliant SD-ELEMENT.
+     * Everything about the CEF message of a topic that does not vary from one event to the next, compiled once when
+     * the formatter is constructed.
      * <p>
-     * Objects are immutable and can therefore be freely shared across threads without synchronization.
-     *
-     * @see <a href="https://tools.ietf.org/html/rfc5424#section-6.3">RFC-5424 section 6.3</a>
+     * As the {@link Facility} is fixed per handler, the CEF header up to and including the severity is pre-rendered
+     * for each of the {@link Severity} values so that formatting only has to append the per-event parts.
+     * <p>
+     * The plan also compiles the {@link StreamingFieldReader} used to format serialized events, which reads the
+     * structured data fields first, in order, followed by the timestamp, the event name and the severity field, and
+     * {@link #snapshot(JsonValue) snapshots} events down to those fields for deferred formatting.
+     * <p>
+     * The plan also counts the events of the topic suppressed by the {@link RateLimiter}, until the next message
+     * reports them.
+     * <p>
+     * Objects are thread-safe and can therefore be freely shared across threads without synchronization.
      */
-    private static class StructuredDataFormatter {
-
-        private static final String FORGEROCK_IANA_ENTERPRISE_ID = "36733";
-        /**
-         * The set of audit event fields that should not be copied to structured-data.
-         */
-        private static final Set<String> IGNORED_FIELDS = unmodifiableSet(
-                new HashSet<>(asList("_id", TIMESTAMP, EVENT_NAME)));
+    static final class TopicPlan {
+
+        private final String topic;
+        private final byte[][] headerPrefixes;
+        private final SeverityResolver severityResolver;
+        private final StructuredDataFormatter structuredDataFormatter;
+        private final StreamingFieldReader fieldReader;
+        private final int timestampSlot;
+        private final int eventNameSlot;
+        /** Index of the severity field among the fields read, or <code>-1</code> if the topic has no mapping. */
+        private final int severitySlot;
+        /** Index of the field mapped onto the <code>src</code> CEF key, or <code>-1</code> if the topic has none. */
+        private final int sourceSlot;
+        private final JsonPointer sourcePointer;
+        /** The top-level fields of the event that the message is made of, or <code>null</code> for all of them. */
+        private final String[] snapshotFields;
+        private final AtomicLong suppressedEvents = new AtomicLong();
+
+        private TopicPlan(String topic, Facility facility, String productName, SeverityResolver severityResolver,
+                StructuredDataFormatter structuredDataFormatter) {
+            this.topic = topic;
+            this.severityResolver = severityResolver;
+            this.structuredDataFormatter = structuredDataFormatter;
+            this.headerPrefixes = new byte[Severity.values().length][];
+            for (Severity severity : Severity.values()) {
+                headerPrefixes[severity.ordinal()] = headerPrefix(facility, productName, severity);
+            }
+            final List<JsonPointer> pointers = new ArrayList<>(structuredDataFormatter.getFieldPointers());
+            this.sourceSlot = structuredDataFormatter.indexOfParam(SRC_KEY);
+            this.sourcePointer = sourceSlot < 0 ? null : pointers.get(sourceSlot);
+            this.timestampSlot = pointers.size();
+            pointers.add(new JsonPointer("/" + TIMESTAMP));
+            this.eventNameSlot = pointers.size();
+            pointers.add(new JsonPointer("/" + EVENT_NAME));
+            if (severityResolver.getPointer() != null) {
+                this.severitySlot = pointers.size();
+                pointers.add(severityResolver.getPointer());
+            } else {
+                this.severitySlot = -1;
+            }
+            this.fieldReader = new StreamingFieldReader(pointers);
+            this.snapshotFields = topLevelFields(pointers);
+        }
 
-        private final String id;
-        private final Set<String> fieldNames;
+        private static String[] topLevelFields(List<JsonPointer> pointers) {
+            final Set<String> fields = new LinkedHashSet<>();
+            for (JsonPointer pointer : pointers) {
+                if (pointer.isEmpty()) {
+                    return null;
+                }
+                fields.add(pointer.get(0));
+            }
+            return fields.toArray(new String[fields.size()]);
+        }
 
         /**
-         * Construct a new StructuredDataFormatter.
+         * Returns a copy of the parts of the provided event that its message is made of, which is formatted exactly
+         * as the event itself would be, whatever later happens to the event: the top-level fields holding the fields
+         * read by the plan are copied deep, the others are left out.
          *
-         * @param productName        Name of the ForgeRock product in which the {@link AuditService}
-         *                           is executing; the SD-ID of each STRUCTURED-DATA element is derived from the
-         *                           <code>productName</code> and <code>topic</code>.
-         * @param topic              Coarse-grained categorisation of the types of audit events that this formatter handles;
-         *                           the SD-ID of each STRUCTURED-DATA element is derived from the <code>productName</code>
-         *                           and <code>topic</code>.
-         * @param auditEventMetaData Schema and additional meta-data for the audit event topic.
+         * @param auditEvent The audit event.
+         * @return the snapshot of the event.
          */
-        StructuredDataFormatter(String productName, String topic, JsonValue auditEventMetaData) {
+        JsonValue snapshot(JsonValue auditEvent) {
+            if (snapshotFields == null) {
+                return auditEvent.copy();
+            }
+            final Map<String, Object> snapshot = new LinkedHashMap<>();
+            for (String field : snapshotFields) {
+                if (auditEvent.isDefined(field)) {
+                    snapshot.put(field, auditEvent.get(field).copy().getObject());
+                }
+            }
+            return new JsonValue(snapshot);
+        }
 
-            Reject.ifNull(productName, "Product name required.");
-            Reject.ifNull(topic, "Audit event topic name required.");
+        /**
+         * Returns true if the structured data written for the provided event holds the field mapped onto the
+         * <code>src</code> CEF key, in which case the header leaves out the host address.
+         */
+        private boolean writesSource(JsonValue auditEvent, boolean minimal) {
+            return sourcePointer != null
+                    && structuredDataFormatter.writesParam(sourceSlot, auditEvent.get(sourcePointer), minimal);
+        }
 
-            JsonValue auditEventSchema;
-            try {
-                auditEventSchema = getAuditEventSchema(auditEventMetaData);
-            } catch (ResourceException e) {
-                throw new IllegalArgumentException(e.getMessage(), e);
-            }
+        /** As {@link #writesSource(JsonValue, boolean)}, for the field values read by the {@link #fieldReader}. */
+        private boolean writesSourceValue(JsonValue[] values) {
+            return sourceSlot >= 0 && structuredDataFormatter.writesParam(sourceSlot, values[sourceSlot], false);
+        }
 
-            id = topic + "." + productName + "@" + FORGEROCK_IANA_ENTERPRISE_ID;
-            fieldNames = unmodifiableSet(generateJsonPointers(auditEventSchema));
+        /**
+         * Returns the name of the topic.
+         *
+         * @return the topic.
+         */
+        String getTopic() {
+            return topic;
         }
 
         /**
-         * Translate the provided <code>auditEvent</code> to an RFC-5424 compliant SD-ELEMENT.
+         * Returns the pre-rendered CEF header, from the version up to and including the severity field separator.
          *
-         * @param auditEvent The audit event to be formatted.
-         * @return an RFC-5424 compliant SD-ELEMENT.
+         * @param severity The severity of the event being formatted.
+         * @return the UTF-8 encoded CEF header prefix.
          */
-        public String format(JsonValue auditEvent) {
+        byte[] getHeaderPrefix(Severity severity) {
+            return headerPrefixes[severity.ordinal()];
+        }
 
-            StringBuilder sd = new StringBuilder();
+        /**
+         * Returns the severity of the provided audit event of the topic.
+         *
+         * @param auditEvent The audit event.
+         * @return the severity of the event.
+         */
+        Severity resolveSeverity(JsonValue auditEvent) {
+            return severityResolver.resolve(auditEvent);
+        }
 
-            sd.append("[");
-            sd.append(id);
-            for (String fieldName : fieldNames) {
-                String formattedName = formatParamName(fieldName);
-                if (IGNORED_FIELDS.contains(formattedName)) {
-                    continue;
-                }
-                sd.append(" ");
-                sd.append(formattedName);
-                sd.append("=\"");
-                sd.append(formatParamValue(extractValueAsString(auditEvent, fieldName)));
-                sd.append("\"");
-            }
-            sd.append("]");
+        /**
+         * Returns the formatter of the structured data of the events of the topic.
+         *
+         * @return the structured data formatter.
+         */
+        StructuredDataFormatter getStructuredDataFormatter() {
+            return structuredDataFormatter;
+        }
 
-            return sd.toString();
+        /**
+         * Returns the resolver of the severity of the events of the topic.
+         *
+         * @return the severity resolver.
+         */
+        SeverityResolver getSeverityResolver() {
+            return severityResolver;
         }
 
-        private String formatParamName(String name) {
-            return jsonPointerToDotNotation(name);
+        /**
+         * Counts an event of the topic that was suppressed rather than published, so that the next message reports
+         * it.
+         */
+        void recordSuppressedEvent() {
+            suppressedEvents.incrementAndGet();
         }
 
-        private String formatParamValue(String value) {
-            if (value == null) {
-                return "";
-            } else {
-                return value.replaceAll("[\\\\\"\\]]", "\\\\$0");
-            }
+        /**
+         * Returns the number of events suppressed since this method was last called, and resets it.
+         *
+         * @return the suppressed event count.
+         */
+        long takeSuppressedEvents() {
+            return suppressedEvents.get() == 0 ? 0 : suppressedEvents.getAndSet(0);
         }
     }
 }
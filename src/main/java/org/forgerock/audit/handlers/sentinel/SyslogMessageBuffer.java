@@ -0,0 +1,300 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reusable byte buffer into which a Syslog message is encoded as UTF-8, ready to be sent as is by a
+ * {@link SyslogConnection}.
+ * <p>
+ * Room is reserved ahead of the message so that the RFC 6587 octet count can be written in place once the length
+ * of the message is known, sparing TCP connections a copy of the message or an allocation for the prefix.
+ * <p>
+ * The buffer can also record the spans occupied by the values of the message, so that a message that turns out to
+ * be too large can have its largest values truncated in place by {@link MessageSizeLimiter}.
+ * <p>
+ * Objects are not thread-safe; each thread formatting messages should use its own buffer.
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc6587#section-3.4.1">RFC 6587 section 3.4.1</a>
+ */
+final class SyslogMessageBuffer {
+
+    /** Room reserved for the largest possible octet count (ten digits) followed by a space. */
+    private static final int FRAME_HEADROOM = 11;
+    private static final int DEFAULT_CAPACITY = 1024;
+    /** Buffers that have grown beyond this size are not worth keeping around for reuse. */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private byte[] bytes;
+    private int position;
+    private int[] spans = new int[32];
+    private int spanCount;
+
+    /**
+     * Construct a new, empty SyslogMessageBuffer.
+     */
+    SyslogMessageBuffer() {
+        this.bytes = new byte[FRAME_HEADROOM + DEFAULT_CAPACITY];
+        this.position = FRAME_HEADROOM;
+    }
+
+    /**
+     * Discards the content of this buffer so that it can be reused for another message.
+     */
+    void reset() {
+        position = FRAME_HEADROOM;
+        spanCount = 0;
+    }
+
+    /**
+     * Returns <code>true</code> if this buffer is small enough to be kept for reuse once its message has been sent.
+     *
+     * @return <code>true</code> if the buffer should be reused.
+     */
+    boolean isRetainable() {
+        return bytes.length <= MAX_RETAINED_CAPACITY;
+    }
+
+    /**
+     * Returns the array backing this buffer; the message occupies {@link #length()} bytes from {@link #offset()}.
+     *
+     * @return the backing array.
+     */
+    byte[] array() {
+        return bytes;
+    }
+
+    /**
+     * Returns the offset of the message in the {@link #array() backing array}.
+     *
+     * @return the message offset.
+     */
+    int offset() {
+        return FRAME_HEADROOM;
+    }
+
+    /**
+     * Returns the number of bytes in the message.
+     *
+     * @return the message length.
+     */
+    int length() {
+        return position - FRAME_HEADROOM;
+    }
+
+    /**
+     * Discards the end of the message.
+     *
+     * @param length The number of bytes of the message to keep.
+     */
+    void truncate(int length) {
+        position = FRAME_HEADROOM + length;
+    }
+
+    /**
+     * Records that a value of the message occupies the provided range; spans must be recorded in message order.
+     *
+     * @param from The index in the message of the first byte of the value.
+     * @param to   The index in the message after the last byte of the value.
+     */
+    void addSpan(int from, int to) {
+        if (spanCount * 2 == spans.length) {
+            spans = Arrays.copyOf(spans, spans.length * 2);
+        }
+        spans[spanCount * 2] = from;
+        spans[spanCount * 2 + 1] = to;
+        spanCount++;
+    }
+
+    /**
+     * Returns the number of value spans recorded since the buffer was last reset.
+     *
+     * @return the number of spans.
+     */
+    int getSpanCount() {
+        return spanCount;
+    }
+
+    /**
+     * Returns the index in the message of the first byte of a recorded value.
+     *
+     * @param span The index of the span.
+     * @return the start of the span.
+     */
+    int getSpanStart(int span) {
+        return spans[span * 2];
+    }
+
+    /**
+     * Returns the index in the message after the last byte of a recorded value.
+     *
+     * @param span The index of the span.
+     * @return the end of the span.
+     */
+    int getSpanEnd(int span) {
+        return spans[span * 2 + 1];
+    }
+
+    /**
+     * Writes the RFC 6587 octet count and the following space immediately before the message.
+     *
+     * @return the offset in the {@link #array() backing array} at which the framed message starts; it ends at
+     * {@link #offset()} + {@link #length()}.
+     */
+    int frameOctetCounted() {
+        int remaining = length();
+        int start = FRAME_HEADROOM - 1;
+        bytes[start] = ' ';
+        do {
+            bytes[--start] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining > 0);
+        return start;
+    }
+
+    /**
+     * Appends a single byte.
+     *
+     * @param b The byte to append.
+     * @return this buffer.
+     */
+    SyslogMessageBuffer append(byte b) {
+        ensureCapacity(1);
+        bytes[position++] = b;
+        return this;
+    }
+
+    /**
+     * Appends pre-encoded bytes.
+     *
+     * @param source The bytes to append.
+     * @return this buffer.
+     */
+    SyslogMessageBuffer append(byte[] source) {
+        ensureCapacity(source.length);
+        System.arraycopy(source, 0, bytes, position, source.length);
+        position += source.length;
+        return this;
+    }
+
+    /**
+     * Appends the UTF-8 encoding of the provided text, taking a fast path for as long as it is ASCII.
+     * <p>
+     * Unpaired surrogates are encoded as <code>?</code>, as {@link String#getBytes(java.nio.charset.Charset)} does.
+     *
+     * @param text The text to append.
+     * @return this buffer.
+     */
+    SyslogMessageBuffer append(String text) {
+        return append(text, 0, text.length());
+    }
+
+    /**
+     * Appends the UTF-8 encoding of a range of the provided text.
+     *
+     * @param text The text to append.
+     * @param from The index of the first character to append.
+     * @param to   The index after the last character to append.
+     * @return this buffer.
+     * @see #append(String)
+     */
+    SyslogMessageBuffer append(String text, int from, int to) {
+        ensureCapacity(to - from);
+        final byte[] b = bytes;
+        int pos = position;
+        int i = from;
+        for (; i < to; i++) {
+            final char c = text.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            b[pos++] = (byte) c;
+        }
+        position = pos;
+        if (i < to) {
+            appendUtf8(text, i, to);
+        }
+        return this;
+    }
+
+    private void appendUtf8(String text, int from, int to) {
+        ensureCapacity((to - from) * 3);
+        final byte[] b = bytes;
+        int pos = position;
+        for (int i = from; i < to; i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                b[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                b[pos++] = (byte) (0xc0 | (c >> 6));
+                b[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    b[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                    b[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    b[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    b[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else {
+                    b[pos++] = '?';
+                }
+            } else {
+                b[pos++] = (byte) (0xe0 | (c >> 12));
+                b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        position = pos;
+    }
+
+    /**
+     * Returns a copy of the message bytes, without framing.
+     *
+     * @return the message bytes.
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOfRange(bytes, FRAME_HEADROOM, position);
+    }
+
+    /**
+     * Returns a copy of part of the message bytes.
+     *
+     * @param from The index in the message of the first byte to copy.
+     * @param to   The index in the message after the last byte to copy.
+     * @return the message bytes in the range.
+     */
+    byte[] toByteArray(int from, int to) {
+        return Arrays.copyOfRange(bytes, FRAME_HEADROOM + from, FRAME_HEADROOM + to);
+    }
+
+    /**
+     * Decodes the message.
+     *
+     * @return the message text.
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, FRAME_HEADROOM, length(), StandardCharsets.UTF_8);
+    }
+
+    private void ensureCapacity(int additional) {
+        if (position + additional > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + additional));
+        }
+    }
+}
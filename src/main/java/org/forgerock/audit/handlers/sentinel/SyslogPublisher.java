@@ -20,17 +20,48 @@ import java.io.IOException;
 
 /**
  * Responsible for transmitting Syslog messages to a Syslog server.
+ * <p>
+ * Implementations must be thread-safe: any number of threads may publish messages concurrently without
+ * synchronizing on the publisher, and implementations serialize internally whatever needs to be.
  */
 interface SyslogPublisher extends AutoCloseable {
 
     /**
      * Send the provided message to the Syslog server.
+     * <p>
+     * The buffer remains owned by the caller, who may reuse it as soon as this method returns.
      *
-     * @param syslogMessage The message to transmit to the Syslog server.
+     * @param syslogMessage The encoded message to transmit to the Syslog server.
      *
      * @throws IOException If connecting or publishing events to the Syslog daemon failed.
      */
-    void publishMessage(String syslogMessage) throws IOException;
+    void publishMessage(SyslogMessageBuffer syslogMessage) throws IOException;
+
+    /**
+     * Send the provided message to the Syslog server, and notify the provided listener once it has been flushed or
+     * its delivery has been abandoned.
+     * <p>
+     * This default implementation suits publishers that transmit messages as they are published: the listener is
+     * notified on the calling thread before this method returns, unless it throws.
+     *
+     * @param syslogMessage The encoded message to transmit to the Syslog server.
+     * @param listener      The listener notified of the delivery of the message.
+     *
+     * @throws IOException If connecting or publishing events to the Syslog daemon failed, in which case the listener
+     * is not notified.
+     */
+    default void publishMessage(SyslogMessageBuffer syslogMessage, DeliveryListener listener) throws IOException {
+        publishMessage(syslogMessage);
+        listener.onDelivered();
+    }
+
+    /**
+     * Returns how full the queue of messages waiting to be transmitted is.
+     *
+     * @return the fraction of the queue capacity in use, between 0 and 1; always 0 for publishers that transmit
+     * messages as they are published.
+     */
+    double getOccupancy();
 
     /**
      * Closes the underlying connection.
@@ -22,7 +22,6 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
-import java.nio.charset.StandardCharsets;
 
 import org.forgerock.util.Reject;
 import org.slf4j.Logger;
@@ -39,6 +38,8 @@ class TcpSyslogConnection implements SyslogConnection {
     private final int connectTimeout; // ms
     private Socket socket = null;
     private OutputStream outputStream;
+    /** Scratch space for the octet count of messages that were not encoded into a {@link SyslogMessageBuffer}. */
+    private final byte[] octetCount = new byte[11];
 
     TcpSyslogConnection(InetSocketAddress socketAddress, int connectTimeout) {
         this.socketAddress = socketAddress;
@@ -87,19 +88,42 @@ class TcpSyslogConnection implements SyslogConnection {
     @Override
     public void send(byte[] syslogMessage) throws IOException {
         Reject.ifNull(outputStream, "TCP connection must be established before calling send");
-        outputStream.write(String.valueOf(syslogMessage.length).getBytes(StandardCharsets.UTF_8));
-        outputStream.write(' ');
+        int remaining = syslogMessage.length;
+        int start = octetCount.length - 1;
+        octetCount[start] = ' ';
+        do {
+            octetCount[--start] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining > 0);
+        outputStream.write(octetCount, start, octetCount.length - start);
         outputStream.write(syslogMessage);
     }
 
+    /**
+     * Sends the buffered Syslog message over TCP, writing the octet count into the headroom the buffer reserves
+     * ahead of the message so that the whole frame goes out in a single write.
+     *
+     * @param syslogMessage The encoded message.
+     * @throws IOException {@inheritDoc}
+     * @see #send(byte[])
+     */
+    @Override
+    public void send(SyslogMessageBuffer syslogMessage) throws IOException {
+        Reject.ifNull(outputStream, "TCP connection must be established before calling send");
+        final int start = syslogMessage.frameOctetCounted();
+        final int end = syslogMessage.offset() + syslogMessage.length();
+        outputStream.write(syslogMessage.array(), start, end - start);
+    }
+
     @Override
     public void flush() throws IOException {
         if (outputStream != null) {
             try {
                 outputStream.flush();
             } catch (IOException e) {
-                logger.error("Error when flushing the connection", e);
+                // reported by the caller: logging it here as well would log every failure twice
                 close();
+                throw e;
             }
         }
     }
@@ -0,0 +1,309 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2018 ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.forgerock.audit.events.AuditEventBuilder.TIMESTAMP;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.util.Reject;
+
+/**
+ * Renders the date prefix of CEF messages, <code>dd MMMMM HH:mm:ss</code> (optionally followed by <code>.SSS</code>),
+ * exactly as {@link SimpleDateFormat} would but without creating a formatter per event.
+ * <p>
+ * The last rendered text is cached per second, or per millisecond when millisecond precision is configured, so
+ * that consecutive events falling in the same second are served without any allocation. The cache is a single
+ * immutable entry published through a volatile field; racing threads may both render the same value, but never
+ * observe a torn one.
+ * <p>
+ * Objects are thread-safe and can therefore be freely shared across threads without synchronization.
+ */
+final class TimestampRenderer {
+
+    /** Locale with which the original {@link SimpleDateFormat} based implementation rendered month names. */
+    static final Locale LOCALE = new Locale("us", "EN");
+
+    /** Value returned by {@link #parseTimestamp(String)} when the text is not an ISO-8601 date-time. */
+    static final long INVALID_TIMESTAMP = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private final TimeZone timeZone;
+    private final boolean useEventTimestamp;
+    private final boolean millisecondPrecision;
+    private final String[] monthNames;
+    private volatile RenderedTimestamp cached;
+
+    /**
+     * Construct a new TimestampRenderer.
+     *
+     * @param timeZone             The time zone in which timestamps are rendered.
+     * @param useEventTimestamp    Whether the audit event's own <code>timestamp</code> field should be rendered in
+     *                             preference to the wall clock.
+     * @param millisecondPrecision Whether milliseconds should be appended to the rendered text.
+     */
+    TimestampRenderer(TimeZone timeZone, boolean useEventTimestamp, boolean millisecondPrecision) {
+        Reject.ifNull(timeZone, "TimeZone must not be null");
+        this.timeZone = (TimeZone) timeZone.clone();
+        this.useEventTimestamp = useEventTimestamp;
+        this.millisecondPrecision = millisecondPrecision;
+        this.monthNames = renderMonthNames();
+    }
+
+    /**
+     * Renders the timestamp of the provided <code>auditEvent</code>.
+     * <p>
+     * The wall clock is used unless this renderer has been configured to use the event's own timestamp and that
+     * timestamp can be parsed.
+     *
+     * @param auditEvent The audit event being formatted.
+     * @return the rendered timestamp.
+     */
+    String render(JsonValue auditEvent) {
+        return lookup(epochMillisOf(auditEvent)).text;
+    }
+
+    /**
+     * Appends the UTF-8 encoded timestamp of the provided <code>auditEvent</code> to the message being built.
+     *
+     * @param auditEvent The audit event being formatted.
+     * @param message    The buffer to which the timestamp is appended.
+     * @see #render(JsonValue)
+     */
+    void render(JsonValue auditEvent, SyslogMessageBuffer message) {
+        render(auditEvent, System.currentTimeMillis(), message);
+    }
+
+    /**
+     * Appends the UTF-8 encoded timestamp of the provided <code>auditEvent</code> to the message being built, using
+     * the provided instant as the wall clock, for events formatted some time after they were published.
+     *
+     * @param auditEvent      The audit event being formatted.
+     * @param wallClockMillis The time at which the event was published, in milliseconds since the epoch.
+     * @param message         The buffer to which the timestamp is appended.
+     * @see #render(JsonValue)
+     */
+    void render(JsonValue auditEvent, long wallClockMillis, SyslogMessageBuffer message) {
+        renderField(useEventTimestamp ? auditEvent.get(TIMESTAMP) : null, wallClockMillis, message);
+    }
+
+    /**
+     * Appends the UTF-8 encoded timestamp of an audit event whose <code>timestamp</code> field has already been read
+     * to the message being built.
+     *
+     * @param timestamp       The value of the event's <code>timestamp</code> field, or <code>null</code> if the
+     *                        event does not define it.
+     * @param wallClockMillis The time at which the event was published, in milliseconds since the epoch.
+     * @param message         The buffer to which the timestamp is appended.
+     * @see #render(JsonValue)
+     */
+    void renderField(JsonValue timestamp, long wallClockMillis, SyslogMessageBuffer message) {
+        message.append(lookup(epochMillisOf(timestamp, wallClockMillis)).bytes);
+    }
+
+    private long epochMillisOf(JsonValue auditEvent) {
+        return epochMillisOf(useEventTimestamp ? auditEvent.get(TIMESTAMP) : null, System.currentTimeMillis());
+    }
+
+    private long epochMillisOf(JsonValue timestamp, long wallClockMillis) {
+        if (useEventTimestamp) {
+            if (timestamp != null && timestamp.isString()) {
+                long epochMillis = parseTimestamp(timestamp.asString());
+                if (epochMillis != INVALID_TIMESTAMP) {
+                    return epochMillis;
+                }
+            }
+        }
+        return wallClockMillis;
+    }
+
+    /**
+     * Renders the provided instant.
+     *
+     * @param epochMillis Milliseconds since the epoch.
+     * @return the rendered timestamp.
+     */
+    String render(long epochMillis) {
+        return lookup(epochMillis).text;
+    }
+
+    private RenderedTimestamp lookup(long epochMillis) {
+        final long key = millisecondPrecision ? epochMillis : Math.floorDiv(epochMillis, MILLIS_PER_SECOND);
+        final RenderedTimestamp current = cached;
+        if (current != null && current.key == key) {
+            return current;
+        }
+        final RenderedTimestamp rendered = new RenderedTimestamp(key, doRender(epochMillis));
+        cached = rendered;
+        return rendered;
+    }
+
+    private String doRender(long epochMillis) {
+        final long localMillis = epochMillis + timeZone.getOffset(epochMillis);
+        final LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(localMillis, MILLIS_PER_DAY));
+        final int millisOfDay = (int) Math.floorMod(localMillis, MILLIS_PER_DAY);
+        final int secondsOfDay = millisOfDay / 1000;
+
+        final StringBuilder sb = new StringBuilder(32);
+        appendTwoDigits(sb, date.getDayOfMonth());
+        sb.append(' ').append(monthNames[date.getMonthValue() - 1]).append(' ');
+        appendTwoDigits(sb, secondsOfDay / 3600);
+        sb.append(':');
+        appendTwoDigits(sb, (secondsOfDay / 60) % 60);
+        sb.append(':');
+        appendTwoDigits(sb, secondsOfDay % 60);
+        if (millisecondPrecision) {
+            final int millis = millisOfDay % 1000;
+            sb.append('.').append((char) ('0' + millis / 100));
+            appendTwoDigits(sb, millis % 100);
+        }
+        return sb.toString();
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, int value) {
+        sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * Month names are taken from {@link SimpleDateFormat} itself so that the rendered text matches whatever the
+     * locale data of the running JVM would have produced.
+     */
+    private static String[] renderMonthNames() {
+        final SimpleDateFormat monthFormat = new SimpleDateFormat("MMMMM", LOCALE);
+        monthFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final String[] names = new String[12];
+        for (int month = 1; month <= 12; month++) {
+            long epochDay = LocalDate.of(2000, month, 15).toEpochDay();
+            names[month - 1] = monthFormat.format(new Date(epochDay * MILLIS_PER_DAY));
+        }
+        return names;
+    }
+
+    /**
+     * Parses an ISO-8601 date-time of the form <code>yyyy-MM-ddTHH:mm:ss[.fraction](Z|&plusmn;HH:mm)</code>, as
+     * written to the <code>timestamp</code> field of audit events, without allocating.
+     *
+     * @param text The text to parse.
+     * @return milliseconds since the epoch, or {@link #INVALID_TIMESTAMP} if the text could not be parsed.
+     */
+    static long parseTimestamp(String text) {
+        if (text == null || text.length() < 20
+                || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return INVALID_TIMESTAMP;
+        }
+        final int year = parseDigits(text, 0, 4);
+        final int month = parseDigits(text, 5, 2);
+        final int day = parseDigits(text, 8, 2);
+        final int hour = parseDigits(text, 11, 2);
+        final int minute = parseDigits(text, 14, 2);
+        final int second = parseDigits(text, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return INVALID_TIMESTAMP;
+        }
+
+        int pos = 19;
+        int millis = 0;
+        if (text.charAt(pos) == '.') {
+            pos++;
+            int digits = 0;
+            while (pos < text.length() && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+                if (digits < 3) {
+                    millis = millis * 10 + (text.charAt(pos) - '0');
+                }
+                digits++;
+                pos++;
+            }
+            if (digits == 0) {
+                return INVALID_TIMESTAMP;
+            }
+            for (; digits < 3; digits++) {
+                millis *= 10;
+            }
+        }
+
+        final int offsetSeconds;
+        if (pos == text.length() - 1 && text.charAt(pos) == 'Z') {
+            offsetSeconds = 0;
+        } else if (pos == text.length() - 6 && text.charAt(pos + 3) == ':'
+                && (text.charAt(pos) == '+' || text.charAt(pos) == '-')) {
+            final int offsetHours = parseDigits(text, pos + 1, 2);
+            final int offsetMinutes = parseDigits(text, pos + 4, 2);
+            if (offsetHours < 0 || offsetMinutes < 0) {
+                return INVALID_TIMESTAMP;
+            }
+            final int sign = text.charAt(pos) == '-' ? -1 : 1;
+            offsetSeconds = sign * (offsetHours * 3600 + offsetMinutes * 60);
+        } else {
+            return INVALID_TIMESTAMP;
+        }
+
+        final long epochDay = epochDay(year, month, day);
+        final long epochSeconds = epochDay * 86400L + hour * 3600L + minute * 60L + second - offsetSeconds;
+        return epochSeconds * MILLIS_PER_SECOND + millis;
+    }
+
+    private static int parseDigits(String text, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Days since 1970-01-01 of the proleptic Gregorian date.
+     *
+     * @see <a href="http://howardhinnant.github.io/date_algorithms.html#days_from_civil">days_from_civil</a>
+     */
+    private static long epochDay(int year, int month, int day) {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = (y >= 0 ? y : y - 399) / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468L;
+    }
+
+    /**
+     * Immutable cache entry pairing the cache key (epoch seconds or milliseconds) with its rendered text.
+     */
+    private static final class RenderedTimestamp {
+
+        private final long key;
+        private final String text;
+        private final byte[] bytes;
+
+        private RenderedTimestamp(long key, String text) {
+            this.key = key;
+            this.text = text;
+            this.bytes = text.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
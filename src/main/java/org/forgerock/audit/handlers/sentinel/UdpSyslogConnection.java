@@ -29,6 +29,8 @@ class UdpSyslogConnection implements SyslogConnection {
 
     private final SocketAddress socketAddress;
     private DatagramSocket datagramSocket;
+    /** Packet reused for buffered messages; UDP sends are always made from a single thread at a time. */
+    private DatagramPacket bufferPacket;
 
     UdpSyslogConnection(InetSocketAddress socketAddress) {
         this.socketAddress = socketAddress;
@@ -47,6 +49,17 @@ class UdpSyslogConnection implements SyslogConnection {
         datagramSocket.send(packet);
     }
 
+    @Override
+    public void send(SyslogMessageBuffer syslogMessage) throws IOException {
+        if (bufferPacket == null) {
+            bufferPacket = new DatagramPacket(syslogMessage.array(), syslogMessage.offset(), syslogMessage.length(),
+                    socketAddress);
+        } else {
+            bufferPacket.setData(syslogMessage.array(), syslogMessage.offset(), syslogMessage.length());
+        }
+        datagramSocket.send(bufferPacket);
+    }
+
     @Override
     public void flush() {
         // do nothing
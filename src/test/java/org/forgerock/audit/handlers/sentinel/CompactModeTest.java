@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SuppressWarnings("javadoc")
+public class CompactModeTest {
+
+    @Test
+    public void omitsEmptyValuesAndUsesCefKeys() throws Exception {
+        // given
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.getCompact().setOmitEmptyValues(true);
+        config.getCompact().setUseCefKeys(true);
+        StructuredDataFormatter formatter =
+                new StructuredDataFormatter("OpenAM", "firstTestTopic", loadEventMetaData("firstTestTopic"), config);
+        SyslogMessageBuffer sd = new SyslogMessageBuffer();
+
+        // when
+        formatter.format(json(object(
+                field("transactionId", "transactionId-1"),
+                field("eventName", "AM-ACCESS-ATTEMPT"),
+                field("field1", object(field("field2", ""), field("field3", null))),
+                field("field4", "123456789"))), sd);
+
+        // then
+        assertThat(sd.toString())
+                .isEqualTo("[firstTestTopic.OpenAM@36733 field4=\"123456789\" externalId=\"transactionId-1\"]");
+    }
+
+    @Test
+    public void reportsByteReductionOnFixtures() throws Exception {
+        // given
+        SentinelAuditEventHandlerConfiguration compactConfig = new SentinelAuditEventHandlerConfiguration();
+        compactConfig.getCompact().setOmitEmptyValues(true);
+        compactConfig.getCompact().setUseCefKeys(true);
+
+        for (String topic : new String[] { "firstTestTopic", "secondTestTopic" }) {
+            JsonValue metaData = loadEventMetaData(topic);
+            StructuredDataFormatter full =
+                    new StructuredDataFormatter("OpenAM", topic, metaData, new SentinelAuditEventHandlerConfiguration());
+            StructuredDataFormatter compact = new StructuredDataFormatter("OpenAM", topic, metaData, compactConfig);
+
+            // when
+            long fullBytes = 0;
+            long compactBytes = 0;
+            for (JsonValue event : events()) {
+                fullBytes += formattedLength(full, event);
+                compactBytes += formattedLength(compact, event);
+            }
+
+            // then
+            System.out.printf("%s: %d bytes of structured data, %d in compact mode (%.1f%% smaller)%n",
+                    topic, fullBytes, compactBytes, 100.0 * (fullBytes - compactBytes) / fullBytes);
+            assertThat(compactBytes).isLessThan(fullBytes);
+        }
+    }
+
+    private static int formattedLength(StructuredDataFormatter formatter, JsonValue event) {
+        SyslogMessageBuffer sd = new SyslogMessageBuffer();
+        formatter.format(event, sd);
+        return sd.length();
+    }
+
+    private static List<JsonValue> events() {
+        List<JsonValue> events = new ArrayList<>();
+        events.add(json(object(
+                field("_id", "0f1a2b3c-1"),
+                field("timestamp", "2015-03-25T14:21:26.239Z"),
+                field("transactionId", "transactionId-1"),
+                field("eventName", "AM-ACCESS-ATTEMPT"),
+                field("field1", object(field("field2", "foo"), field("field3", "bar"))),
+                field("field4", "123456789"))));
+        events.add(json(object(
+                field("_id", "0f1a2b3c-2"),
+                field("timestamp", "2015-03-25T14:21:27.239Z"),
+                field("transactionId", "transactionId-2"),
+                field("eventName", "AM-ACCESS-OUTCOME"),
+                field("field4", "123456789"))));
+        events.add(json(object(
+                field("_id", "0f1a2b3c-3"),
+                field("timestamp", "2015-03-25T14:21:28.239Z"),
+                field("eventName", "AM-ACCESS-ATTEMPT"))));
+        return events;
+    }
+
+    private JsonValue loadEventMetaData(String topic) throws Exception {
+        try (InputStream configStream = getClass().getResourceAsStream("/events.json")) {
+            return new JsonValue(new ObjectMapper().readValue(configStream, Map.class)).get(topic);
+        }
+    }
+}
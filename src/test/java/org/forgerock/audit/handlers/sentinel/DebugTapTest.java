@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.DebugTapConfiguration;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class DebugTapTest {
+
+    @Test
+    public void ringKeepsTheMostRecentMessagesOldestFirst() {
+        // given
+        DebugTapConfiguration config = new DebugTapConfiguration();
+        config.setMode(DebugTapConfiguration.Mode.RING);
+        config.setRingSize(3);
+        DebugTap tap = DebugTap.create(config);
+        SyslogMessageBuffer buffer = new SyslogMessageBuffer();
+
+        // when
+        for (String message : new String[] { "first", "second \u00e9", "a much longer third message", "4th" }) {
+            buffer.reset();
+            buffer.append(message);
+            if (tap.shouldRecord()) {
+                tap.record(buffer);
+            }
+        }
+        List<String> messages = tap.dump();
+
+        // then
+        assertThat(messages).containsExactly("second \u00e9", "a much longer third message", "4th");
+    }
+
+    @Test
+    public void offRecordsNothing() {
+        // given
+        DebugTap tap = DebugTap.create(new DebugTapConfiguration());
+
+        // when
+        boolean shouldRecord = tap.shouldRecord();
+
+        // then
+        assertThat(shouldRecord).isFalse();
+        assertThat(tap.dump()).isEmpty();
+    }
+}
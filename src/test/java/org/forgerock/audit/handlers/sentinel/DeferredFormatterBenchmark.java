@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SyslogFormatter.TopicPlan;
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares the latency seen by publishing threads when they format events themselves with the latency seen when
+ * formatting is deferred to a {@link DeferredFormatter}.
+ * <p>
+ * Not part of the regular test run; execute with <code>mvn test -Dtest=DeferredFormatterBenchmark</code>.
+ */
+@SuppressWarnings("javadoc")
+public class DeferredFormatterBenchmark {
+
+    private static final int THREADS = 8;
+    private static final int EVENTS_PER_THREAD = 100000;
+
+    @Test
+    public void publishLatency() throws Exception {
+        // given
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.setFacility(Facility.LOCAL5);
+        SyslogFormatter formatter = new SyslogFormatter(loadEventTopicsMetaData(), config, () -> "server.name",
+                () -> "OpenAM");
+        TopicPlan topicPlan = formatter.getTopicPlan("firstTestTopic");
+        CountingPublisher publisher = new CountingPublisher();
+        JsonValue event = json(object(
+                field("_id", "0f1a2b3c-1"),
+                field("timestamp", "2015-03-25T14:21:26.239Z"),
+                field("transactionId", "transactionId-1"),
+                field("eventName", "AM-ACCESS-ATTEMPT"),
+                field("field1", object(field("field2", "A list with escaped characters"), field("field3", "\"]\\"))),
+                field("field4", "123456789")));
+
+        // when
+        long[] inline = measure(() -> {
+            SyslogMessageBuffer buffer = new SyslogMessageBuffer();
+            formatter.format(topicPlan, event, buffer);
+            publisher.publishMessage(buffer);
+        });
+        DeferredFormatter deferredFormatter =
+                new DeferredFormatter("SyslogFormatter", formatter, publisher, null, 2, THREADS * EVENTS_PER_THREAD);
+        long[] deferred = measure(() -> deferredFormatter.submit(topicPlan, topicPlan.snapshot(event)));
+        deferredFormatter.close();
+        formatter.close();
+
+        // then
+        System.out.printf("publishEvent latency, %d threads: inline p50 %d ns, p99 %d ns; deferred p50 %d ns, "
+                + "p99 %d ns%n", THREADS, percentile(inline, 50), percentile(inline, 99),
+                percentile(deferred, 50), percentile(deferred, 99));
+        assertThat(publisher.published.get()).isEqualTo(2L * THREADS * EVENTS_PER_THREAD);
+    }
+
+    private static long[] measure(Publication publication) throws Exception {
+        long[] latencies = new long[THREADS * EVENTS_PER_THREAD];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int offset = t * EVENTS_PER_THREAD;
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < EVENTS_PER_THREAD; i++) {
+                        long begin = System.nanoTime();
+                        publication.publish();
+                        latencies[offset + i] = System.nanoTime() - begin;
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return latencies;
+    }
+
+    private static long percentile(long[] latencies, int percentile) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) ((long) (sorted.length - 1) * percentile / 100)];
+    }
+
+    private interface Publication {
+        void publish() throws Exception;
+    }
+
+    private static final class CountingPublisher implements SyslogPublisher {
+
+        private final AtomicLong published = new AtomicLong();
+
+        @Override
+        public void publishMessage(SyslogMessageBuffer syslogMessage) {
+            published.incrementAndGet();
+        }
+
+        @Override
+        public double getOccupancy() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    }
+
+    private EventTopicsMetaData loadEventTopicsMetaData() throws Exception {
+        Map<String, JsonValue> events = new LinkedHashMap<>();
+        try (InputStream configStream = getClass().getResourceAsStream("/events.json")) {
+            final JsonValue predefinedEventTypes = new JsonValue(new ObjectMapper().readValue(configStream, Map.class));
+            for (String eventTypeName : predefinedEventTypes.keys()) {
+                events.put(eventTypeName, predefinedEventTypes.get(eventTypeName));
+            }
+        }
+        return new EventTopicsMetaData(events);
+    }
+}
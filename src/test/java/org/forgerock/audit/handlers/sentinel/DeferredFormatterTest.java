@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.EventBufferingConfiguration;
+import org.forgerock.audit.handlers.sentinel.SyslogFormatter.TopicPlan;
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SuppressWarnings("javadoc")
+public class DeferredFormatterTest {
+
+    @Test
+    public void queuesEventsWithoutBlockingWhenBuiltFromTheDefaultConfiguration() throws Exception {
+        // given
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.setFacility(Facility.LOCAL5);
+        EventBufferingConfiguration buffering = config.getBuffering();
+        SyslogFormatter formatter = new SyslogFormatter(loadEventTopicsMetaData(), config, () -> "server.name",
+                () -> "OpenAM");
+        TopicPlan topicPlan = formatter.getTopicPlan("firstTestTopic");
+        BlockedPublisher publisher = new BlockedPublisher();
+        DeferredFormatter deferredFormatter = new DeferredFormatter("SyslogFormatter", formatter, publisher, null,
+                buffering.getFormatterThreads(), buffering.getMaxSize());
+        JsonValue event = json(object(
+                field("_id", "0f1a2b3c-1"),
+                field("timestamp", "2015-03-25T14:21:26.239Z"),
+                field("transactionId", "transactionId-1"),
+                field("eventName", "AM-ACCESS-ATTEMPT"),
+                field("field4", "123456789")));
+
+        // when
+        Thread submitter = new Thread(() -> {
+            for (int i = 0; i < 1000; i++) {
+                deferredFormatter.submit(topicPlan, event.copy());
+            }
+        });
+        submitter.start();
+        submitter.join(10000);
+        boolean blocked = submitter.isAlive();
+        publisher.release.countDown();
+        submitter.join();
+        deferredFormatter.close();
+        formatter.close();
+
+        // then
+        assertThat(blocked).isFalse();
+        assertThat(publisher.published.get()).isEqualTo(1000);
+    }
+
+    private EventTopicsMetaData loadEventTopicsMetaData() throws Exception {
+        Map<String, JsonValue> events = new LinkedHashMap<>();
+        try (InputStream configStream = getClass().getResourceAsStream("/events.json")) {
+            final JsonValue predefinedEventTypes = new JsonValue(new ObjectMapper().readValue(configStream, Map.class));
+            for (String eventTypeName : predefinedEventTypes.keys()) {
+                events.put(eventTypeName, predefinedEventTypes.get(eventTypeName));
+            }
+        }
+        return new EventTopicsMetaData(events);
+    }
+
+    /**
+     * Publisher whose publication blocks until released, so that submitted events pile up in the formatter queues.
+     */
+    private static final class BlockedPublisher implements SyslogPublisher {
+
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger published = new AtomicInteger();
+
+        @Override
+        public void publishMessage(SyslogMessageBuffer syslogMessage) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            published.incrementAndGet();
+        }
+
+        @Override
+        public double getOccupancy() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    }
+}
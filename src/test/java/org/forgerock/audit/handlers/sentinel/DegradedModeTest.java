@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.DegradedModeConfiguration;
+import org.forgerock.audit.providers.LocalHostNameProvider;
+import org.forgerock.audit.providers.ProductInfoProvider;
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SuppressWarnings("javadoc")
+public class DegradedModeTest {
+
+    private static final JsonValue EVENT = json(object(
+            field("_id", "0f1a2b3c-1"),
+            field("timestamp", "2015-03-25T14:21:26.239Z"),
+            field("transactionId", "transactionId-1"),
+            field("eventName", "AM-ACCESS-ATTEMPT"),
+            field("field1", object(field("field2", "foo"), field("field3", "bar"))),
+            field("field4", "123456789")));
+
+    @Test
+    public void entersDegradedModeAtTheHighWatermarkAndLeavesItAtTheLowWatermark() {
+        // given
+        SyslogPublisher publisher = mock(SyslogPublisher.class);
+        DegradedModeConfiguration config = new DegradedModeConfiguration();
+        config.setHighWatermark(0.8);
+        config.setLowWatermark(0.5);
+        BacklogMonitor backlogMonitor = new BacklogMonitor(publisher, config);
+
+        // when
+        given(publisher.getOccupancy()).willReturn(0.7);
+        boolean belowHighWatermark = backlogMonitor.isDegraded();
+        given(publisher.getOccupancy()).willReturn(0.8);
+        boolean atHighWatermark = backlogMonitor.isDegraded();
+        given(publisher.getOccupancy()).willReturn(0.6);
+        boolean draining = backlogMonitor.isDegraded();
+        given(publisher.getOccupancy()).willReturn(0.5);
+        boolean drained = backlogMonitor.isDegraded();
+
+        // then
+        assertThat(belowHighWatermark).isFalse();
+        assertThat(atHighWatermark).isTrue();
+        assertThat(draining).isTrue();
+        assertThat(drained).isFalse();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsLowWatermarkAboveHighWatermark() {
+        DegradedModeConfiguration config = new DegradedModeConfiguration();
+        config.setHighWatermark(0.5);
+        config.setLowWatermark(0.8);
+        new BacklogMonitor(mock(SyslogPublisher.class), config);
+    }
+
+    @Test
+    public void formatsOnlyTheHeaderAndIdsOfDegradedEvents() throws Exception {
+        // given
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.setFacility(Facility.LOCAL5);
+        SyslogFormatter formatter = newSyslogFormatter(config);
+
+        // when
+        SyslogMessageBuffer message = new SyslogMessageBuffer();
+        formatter.formatDegraded(formatter.getTopicPlan("firstTestTopic"), EVENT, System.currentTimeMillis(),
+                message);
+
+        // then
+        assertThat(message.toString())
+                .contains("|forgerock cef|INFORMATIONAL| ")
+                .contains(" act=AM-ACCESS-ATTEMPT ")
+                .contains(" " + SyslogFormatter.DEGRADED_FLAG + " ")
+                .endsWith(" msg=[firstTestTopic.OpenAM@36733 transactionId=\"transactionId-1\"]");
+        assertThat(formatter.getDegradedEventCount()).isEqualTo(1);
+    }
+
+    private SyslogFormatter newSyslogFormatter(SentinelAuditEventHandlerConfiguration config) throws Exception {
+        LocalHostNameProvider localHostNameProvider = mock(LocalHostNameProvider.class);
+        given(localHostNameProvider.getLocalHostName()).willReturn("server.name");
+        ProductInfoProvider productInfoProvider = mock(ProductInfoProvider.class);
+        given(productInfoProvider.getProductName()).willReturn("OpenAM");
+        return new SyslogFormatter(loadEventTopicsMetaData(), config, localHostNameProvider, productInfoProvider);
+    }
+
+    private EventTopicsMetaData loadEventTopicsMetaData() throws Exception {
+        Map<String, JsonValue> events = new LinkedHashMap<>();
+        try (InputStream configStream = getClass().getResourceAsStream("/events.json")) {
+            final JsonValue predefinedEventTypes = new JsonValue(new ObjectMapper().readValue(configStream, Map.class));
+            for (String eventTypeName : predefinedEventTypes.keys()) {
+                events.put(eventTypeName, predefinedEventTypes.get(eventTypeName));
+            }
+        }
+        return new EventTopicsMetaData(events);
+    }
+}
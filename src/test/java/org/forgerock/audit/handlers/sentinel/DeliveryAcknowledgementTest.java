@@ -0,0 +1,233 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class DeliveryAcknowledgementTest {
+
+    @Test
+    public void acknowledgesMessagesOnceFlushedOffThePublishingThread() throws Exception {
+        // given
+        ControllableConnection connection = new ControllableConnection();
+        AsynchronousSyslogPublisher publisher = new AsynchronousSyslogPublisher("SyslogPublisher", connection, 0);
+        RecordingListener listener = new RecordingListener(1000);
+
+        // when
+        for (int i = 0; i < 1000; i++) {
+            publisher.publishMessage(message("message " + i), listener);
+        }
+        boolean acknowledged = listener.await();
+        publisher.close();
+
+        // then
+        assertThat(acknowledged).isTrue();
+        assertThat(listener.delivered.get()).isEqualTo(1000);
+        assertThat(listener.abandoned).isEmpty();
+        assertThat(listener.threads).containsOnly("SyslogPublisher-acknowledger");
+        assertThat(connection.flushes.get()).isLessThanOrEqualTo(1000);
+    }
+
+    @Test
+    public void abandonsMessagesThatCouldNotBeSent() throws Exception {
+        // given
+        ControllableConnection connection = new ControllableConnection();
+        connection.failSends = true;
+        AsynchronousSyslogPublisher publisher = new AsynchronousSyslogPublisher("SyslogPublisher", connection, 0);
+        RecordingListener listener = new RecordingListener(1);
+
+        // when
+        publisher.publishMessage(message("message"), listener);
+        boolean acknowledged = listener.await();
+        publisher.close();
+
+        // then
+        assertThat(acknowledged).isTrue();
+        assertThat(listener.delivered.get()).isZero();
+        assertThat(listener.abandoned).hasSize(1);
+        assertThat(listener.abandoned.get(0)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void abandonsTheUnflushedMessagesOfTheBatchWhenASendFails() throws Exception {
+        // given
+        ControllableConnection connection = new ControllableConnection();
+        connection.firstSendReleased = new CountDownLatch(1);
+        connection.failingSend = 6;
+        AsynchronousSyslogPublisher publisher = new AsynchronousSyslogPublisher("SyslogPublisher", connection, 0);
+        RecordingListener listener = new RecordingListener(10);
+
+        // when
+        publisher.publishMessage(message("message 0"), listener);
+        connection.firstSendStarted.await();
+        for (int i = 1; i < 10; i++) {
+            publisher.publishMessage(message("message " + i), listener);
+        }
+        connection.firstSendReleased.countDown();
+        boolean acknowledged = listener.await();
+        publisher.close();
+
+        // then
+        // message 0 is flushed on its own; messages 1 to 9 form the next batch, in which sending message 5 fails
+        assertThat(acknowledged).isTrue();
+        assertThat(listener.delivered.get()).isEqualTo(5);
+        assertThat(listener.abandoned).hasSize(5);
+    }
+
+    @Test
+    public void abandonsTheBatchWhenTheFlushFails() throws Exception {
+        // given
+        ControllableConnection connection = new ControllableConnection();
+        connection.failFlushes = true;
+        AsynchronousSyslogPublisher publisher = new AsynchronousSyslogPublisher("SyslogPublisher", connection, 0);
+        RecordingListener listener = new RecordingListener(10);
+
+        // when
+        for (int i = 0; i < 10; i++) {
+            publisher.publishMessage(message("message " + i), listener);
+        }
+        boolean acknowledged = listener.await();
+        publisher.close();
+
+        // then
+        assertThat(acknowledged).isTrue();
+        assertThat(listener.delivered.get()).isZero();
+        assertThat(listener.abandoned).hasSize(10);
+    }
+
+    @Test
+    public void abandonsMessagesPublishedOnceClosed() throws Exception {
+        // given
+        AsynchronousSyslogPublisher publisher =
+                new AsynchronousSyslogPublisher("SyslogPublisher", new ControllableConnection(), 0);
+        publisher.close();
+        RecordingListener listener = new RecordingListener(1);
+
+        // when
+        publisher.publishMessage(message("message"), listener);
+
+        // then
+        assertThat(listener.abandoned).hasSize(1);
+        assertThat(listener.threads).containsOnly(Thread.currentThread().getName());
+    }
+
+    @Test
+    public void acknowledgesMessagesOfSynchronousPublishersAsTheyArePublished() throws Exception {
+        // given
+        ControllableConnection connection = new ControllableConnection();
+        SynchronousSyslogPublisher publisher = new SynchronousSyslogPublisher(connection);
+        RecordingListener listener = new RecordingListener(1);
+
+        // when
+        publisher.publishMessage(message("message"), listener);
+
+        // then
+        assertThat(listener.delivered.get()).isEqualTo(1);
+        assertThat(connection.flushes.get()).isEqualTo(1);
+    }
+
+    private static SyslogMessageBuffer message(String text) {
+        SyslogMessageBuffer buffer = new SyslogMessageBuffer();
+        buffer.append(text.getBytes(StandardCharsets.UTF_8));
+        return buffer;
+    }
+
+    private static final class RecordingListener implements DeliveryListener {
+
+        private final CountDownLatch notifications;
+        private final AtomicInteger delivered = new AtomicInteger();
+        private final List<Exception> abandoned = new CopyOnWriteArrayList<>();
+        private final List<String> threads = new CopyOnWriteArrayList<>();
+
+        private RecordingListener(int expectedNotifications) {
+            this.notifications = new CountDownLatch(expectedNotifications);
+        }
+
+        @Override
+        public void onDelivered() {
+            delivered.incrementAndGet();
+            threads.add(Thread.currentThread().getName());
+            notifications.countDown();
+        }
+
+        @Override
+        public void onAbandoned(Exception cause) {
+            abandoned.add(cause);
+            threads.add(Thread.currentThread().getName());
+            notifications.countDown();
+        }
+
+        private boolean await() throws InterruptedException {
+            return notifications.await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static final class ControllableConnection implements SyslogConnection {
+
+        private final AtomicInteger sends = new AtomicInteger();
+        private final AtomicInteger flushes = new AtomicInteger();
+        private final CountDownLatch firstSendStarted = new CountDownLatch(1);
+        /** Holds the first send until released; <code>null</code> to never hold it. */
+        private volatile CountDownLatch firstSendReleased;
+        /** The number of the send that fails, counting from 1; 0 for none. */
+        private volatile int failingSend;
+        private volatile boolean failSends;
+        private volatile boolean failFlushes;
+
+        @Override
+        public void reconnect() {
+            // nothing to do
+        }
+
+        @Override
+        public void send(byte[] syslogMessage) throws IOException {
+            final int send = sends.incrementAndGet();
+            if (send == 1 && firstSendReleased != null) {
+                firstSendStarted.countDown();
+                try {
+                    firstSendReleased.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            if (failSends || send == failingSend) {
+                throw new IOException("Connection refused");
+            }
+        }
+
+        @Override
+        public void send(SyslogMessageBuffer syslogMessage) throws IOException {
+            send(syslogMessage.toByteArray());
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushes.incrementAndGet();
+            if (failFlushes) {
+                throw new IOException("Connection reset");
+            }
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class EscapedValueCacheTest {
+
+    @Test
+    public void countsHitsAndMissesWhileProbing() {
+        // given
+        EscapedValueCache cache = new EscapedValueCache(16, true);
+
+        // when
+        byte[] first = cache.get("a\"b");
+        cache.put("a\"b", bytes("a\\\"b"));
+        byte[] second = cache.get("a\"b");
+
+        // then
+        assertThat(first).isNull();
+        assertThat(second).isEqualTo(bytes("a\\\"b"));
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void stopsCountingOnceProbeHasDecided() {
+        // given
+        EscapedValueCache cache = new EscapedValueCache(16, true);
+        lookUp(cache, 4);
+
+        // when
+        cache.get("value-0");
+        cache.get("unknown");
+
+        // then
+        assertThat(cache.isEnabled()).isTrue();
+        assertThat(cache.getHits() + cache.getMisses()).isEqualTo(EscapedValueCache.PROBE_LOOKUPS);
+    }
+
+    @Test
+    public void evictsUnreferencedValuesFirst() {
+        // given
+        EscapedValueCache cache = new EscapedValueCache(2, false);
+        cache.put("hot", bytes("hot"));
+        cache.put("cold", bytes("cold"));
+        cache.get("hot");
+
+        // when
+        cache.put("new", bytes("new"));
+
+        // then
+        assertThat(cache.get("hot")).isNotNull();
+        assertThat(cache.get("cold")).isNull();
+        assertThat(cache.get("new")).isNotNull();
+    }
+
+    @Test
+    public void probingCacheStaysActiveForRepeatedValues() {
+        // given
+        EscapedValueCache cache = new EscapedValueCache(16, true);
+
+        // when
+        lookUp(cache, 4);
+
+        // then
+        assertThat(cache.isEnabled()).isTrue();
+    }
+
+    @Test
+    public void probingCacheDisablesItselfForDistinctValues() {
+        // given
+        EscapedValueCache cache = new EscapedValueCache(16, true);
+
+        // when
+        lookUp(cache, EscapedValueCache.PROBE_LOOKUPS);
+
+        // then
+        assertThat(cache.isEnabled()).isFalse();
+    }
+
+    private static void lookUp(EscapedValueCache cache, int distinctValues) {
+        for (int i = 0; i < EscapedValueCache.PROBE_LOOKUPS; i++) {
+            String value = "value-" + (i % distinctValues);
+            if (cache.get(value) == null) {
+                cache.put(value, bytes(value));
+            }
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.Aggregation;
+import org.forgerock.audit.providers.LocalHostNameProvider;
+import org.forgerock.audit.providers.ProductInfoProvider;
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SuppressWarnings("javadoc")
+public class EventAggregatorTest {
+
+    private static final long WINDOW = 60000;
+
+    @Test
+    public void collapsesRepeatsWithinTheWindow() throws Exception {
+        // given
+        RecordingPublisher publisher = new RecordingPublisher();
+        EventAggregator aggregator = newEventAggregator(aggregation(2), publisher);
+        long now = System.currentTimeMillis();
+
+        // when
+        boolean aggregated = aggregator.aggregate("firstTestTopic", loginFailure("alice"), now);
+        aggregator.aggregate("firstTestTopic", loginFailure("alice"), now + 10);
+        aggregator.aggregate("firstTestTopic", loginFailure("alice"), now + 20);
+        List<String> beforeExpiry = new ArrayList<>(publisher.messages);
+        aggregator.flushExpired(now + WINDOW);
+        aggregator.close();
+
+        // then
+        assertThat(aggregated).isTrue();
+        assertThat(beforeExpiry).isEmpty();
+        assertThat(publisher.messages).hasSize(1);
+        assertThat(publisher.messages.get(0))
+                .contains(" cnt=3 start=" + now + " end=" + (now + 20) + " procId=")
+                .contains(" field4=\"alice\"");
+    }
+
+    @Test
+    public void publishesEventsThatWereNotRepeatedUnchanged() throws Exception {
+        // given
+        RecordingPublisher publisher = new RecordingPublisher();
+        EventAggregator aggregator = newEventAggregator(aggregation(2), publisher);
+        long now = System.currentTimeMillis();
+
+        // when
+        aggregator.aggregate("firstTestTopic", loginFailure("alice"), now);
+        aggregator.aggregate("firstTestTopic", loginFailure("bob"), now);
+        boolean otherTopicAggregated = aggregator.aggregate("secondTestTopic", loginFailure("alice"), now);
+        aggregator.close();
+
+        // then
+        assertThat(otherTopicAggregated).isFalse();
+        assertThat(publisher.messages).hasSize(2);
+        assertThat(publisher.messages.get(0)).doesNotContain(" cnt=").contains(" field4=\"alice\"");
+        assertThat(publisher.messages.get(1)).doesNotContain(" cnt=").contains(" field4=\"bob\"");
+    }
+
+    @Test
+    public void closesTheOldestWindowWhenTooManyKeysAreOpen() throws Exception {
+        // given
+        RecordingPublisher publisher = new RecordingPublisher();
+        EventAggregator aggregator = newEventAggregator(aggregation(1), publisher);
+        long now = System.currentTimeMillis();
+        aggregator.aggregate("firstTestTopic", loginFailure("alice"), now);
+        aggregator.aggregate("firstTestTopic", loginFailure("alice"), now + 1);
+
+        // when
+        aggregator.aggregate("firstTestTopic", loginFailure("bob"), now + 2);
+
+        // then
+        assertThat(publisher.messages).hasSize(1);
+        assertThat(publisher.messages.get(0)).contains(" cnt=2 ").contains(" field4=\"alice\"");
+        aggregator.close();
+        assertThat(publisher.messages).hasSize(2);
+    }
+
+    @Test
+    public void opensANewWindowForRepeatsAfterExpiry() throws Exception {
+        // given
+        RecordingPublisher publisher = new RecordingPublisher();
+        EventAggregator aggregator = newEventAggregator(aggregation(2), publisher);
+        long now = System.currentTimeMillis();
+        aggregator.aggregate("firstTestTopic", loginFailure("alice"), now);
+        aggregator.aggregate("firstTestTopic", loginFailure("alice"), now + 1);
+
+        // when
+        aggregator.aggregate("firstTestTopic", loginFailure("alice"), now + WINDOW);
+
+        // then
+        assertThat(publisher.messages).hasSize(1);
+        assertThat(publisher.messages.get(0)).contains(" cnt=2 ");
+        aggregator.close();
+        assertThat(publisher.messages.get(1)).doesNotContain(" cnt=");
+    }
+
+    private static JsonValue loginFailure(String user) {
+        return json(object(
+                field("_id", "0f1a2b3c-1"),
+                field("timestamp", "2015-03-25T14:21:26.239Z"),
+                field("transactionId", "transactionId-1"),
+                field("eventName", "AM-LOGIN-FAILED"),
+                field("field1", object(field("field2", "10.0.0.1"))),
+                field("field4", user)));
+    }
+
+    private static Aggregation aggregation(int maxKeys) {
+        Aggregation aggregation = new Aggregation();
+        aggregation.setTopic("firstTestTopic");
+        aggregation.setFields(asList("eventName", "field1/field2", "field4"));
+        aggregation.setWindowMillis(WINDOW);
+        aggregation.setMaxKeys(maxKeys);
+        return aggregation;
+    }
+
+    private EventAggregator newEventAggregator(Aggregation aggregation, SyslogPublisher publisher) throws Exception {
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.setFacility(Facility.LOCAL5);
+        LocalHostNameProvider localHostNameProvider = mock(LocalHostNameProvider.class);
+        given(localHostNameProvider.getLocalHostName()).willReturn("server.name");
+        ProductInfoProvider productInfoProvider = mock(ProductInfoProvider.class);
+        given(productInfoProvider.getProductName()).willReturn("OpenAM");
+        EventTopicsMetaData eventTopicsMetaData = loadEventTopicsMetaData();
+        SyslogFormatter formatter =
+                new SyslogFormatter(eventTopicsMetaData, config, localHostNameProvider, productInfoProvider);
+        return new EventAggregator(singletonList(aggregation), eventTopicsMetaData, formatter, publisher);
+    }
+
+    private static final class RecordingPublisher implements SyslogPublisher {
+
+        private final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void publishMessage(SyslogMessageBuffer syslogMessage) {
+            messages.add(syslogMessage.toString());
+        }
+
+        @Override
+        public double getOccupancy() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    }
+
+    private EventTopicsMetaData loadEventTopicsMetaData() throws Exception {
+        Map<String, JsonValue> events = new LinkedHashMap<>();
+        try (InputStream configStream = getClass().getResourceAsStream("/events.json")) {
+            final JsonValue predefinedEventTypes = new JsonValue(new ObjectMapper().readValue(configStream, Map.class));
+            for (String eventTypeName : predefinedEventTypes.keys()) {
+                events.put(eventTypeName, predefinedEventTypes.get(eventTypeName));
+            }
+        }
+        return new EventTopicsMetaData(events);
+    }
+}
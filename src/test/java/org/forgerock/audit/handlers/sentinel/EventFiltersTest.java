@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.EventFilter;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.EventFilter.Combination;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.FilterCondition;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.FilterCondition.Operator;
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SuppressWarnings("javadoc")
+public class EventFiltersTest {
+
+    private static final JsonValue HEALTH_CHECK = json(object(
+            field("_id", "0f1a2b3c-1"),
+            field("transactionId", "transactionId-1"),
+            field("eventName", "AM-ACCESS-ATTEMPT"),
+            field("field1", object(field("field2", "/health/live"), field("field3", "GET"))),
+            field("field4", "200")));
+
+    private static final JsonValue LOGIN = json(object(
+            field("_id", "0f1a2b3c-2"),
+            field("transactionId", "transactionId-2"),
+            field("eventName", "AM-LOGIN-COMPLETED"),
+            field("field1", object(field("field2", "/json/authenticate"), field("field3", "POST"))),
+            field("field4", "401")));
+
+    @Test
+    public void dropsEventsMatchingAllConditions() throws Exception {
+        // given
+        EventFilters filters = new EventFilters(singletonList(filter("health-checks", Combination.ALL,
+                condition("/field1/field2", Operator.PREFIX, "/health"),
+                condition("field1/field3", Operator.EQUALS, "GET"))), loadEventTopicsMetaData());
+
+        // when
+        boolean healthCheckDropped = filters.isDropped("firstTestTopic", HEALTH_CHECK);
+        boolean loginDropped = filters.isDropped("firstTestTopic", LOGIN);
+        boolean otherTopicDropped = filters.isDropped("secondTestTopic", HEALTH_CHECK);
+
+        // then
+        assertThat(healthCheckDropped).isTrue();
+        assertThat(loginDropped).isFalse();
+        assertThat(otherTopicDropped).isFalse();
+    }
+
+    @Test
+    public void dropsEventsMatchingAnyCondition() throws Exception {
+        // given
+        FilterCondition failures = new FilterCondition();
+        failures.setField("field4");
+        failures.setOperator(Operator.IN);
+        failures.setValues(asList("401", "403"));
+        EventFilters filters = new EventFilters(singletonList(filter(null, Combination.ANY,
+                condition("eventName", Operator.REGEX, "AM-ACCESS-.*"), failures)), loadEventTopicsMetaData());
+
+        // when
+        boolean healthCheckDropped = filters.isDropped("firstTestTopic", HEALTH_CHECK);
+        boolean loginDropped = filters.isDropped("firstTestTopic", LOGIN);
+        boolean otherEventDropped = filters.isDropped("firstTestTopic", json(object(field("eventName", "AM-X"))));
+
+        // then
+        assertThat(healthCheckDropped).isTrue();
+        assertThat(loginDropped).isTrue();
+        assertThat(otherEventDropped).isFalse();
+    }
+
+    @Test
+    public void neverMatchesMissingFields() throws Exception {
+        // given
+        EventFilters filters = new EventFilters(singletonList(filter("no-transaction", Combination.ALL,
+                condition("transactionId", Operator.REGEX, ".*"))), loadEventTopicsMetaData());
+
+        // when
+        boolean dropped = filters.isDropped("firstTestTopic", json(object(field("transactionId", null))));
+
+        // then
+        assertThat(dropped).isFalse();
+    }
+
+    @Test
+    public void countsHitsOfTheFirstMatchingFilter() throws Exception {
+        // given
+        EventFilters filters = new EventFilters(asList(
+                filter("health-checks", Combination.ALL, condition("field1/field2", Operator.PREFIX, "/health")),
+                filter(null, Combination.ALL, condition("transactionId", Operator.PREFIX, "transactionId-"))),
+                loadEventTopicsMetaData());
+
+        // when
+        filters.isDropped("firstTestTopic", HEALTH_CHECK);
+        filters.isDropped("firstTestTopic", HEALTH_CHECK);
+        filters.isDropped("firstTestTopic", LOGIN);
+
+        // then
+        Map<String, Long> hitCounts = filters.getHitCounts();
+        assertThat(hitCounts).containsEntry("health-checks", 2L).containsEntry("firstTestTopic[1]", 1L);
+    }
+
+    @Test
+    public void filtersSerializedEventsAsParsedOnes() throws Exception {
+        // given
+        EventFilters filters = new EventFilters(singletonList(filter("health-checks", Combination.ALL,
+                condition("field1/field2", Operator.PREFIX, "/health"))), loadEventTopicsMetaData());
+        ObjectMapper mapper = new ObjectMapper();
+
+        // when
+        boolean healthCheckDropped = filters.isDropped("firstTestTopic",
+                mapper.writeValueAsString(HEALTH_CHECK.getObject()).getBytes(StandardCharsets.UTF_8));
+        boolean loginDropped = filters.isDropped("firstTestTopic",
+                mapper.writeValueAsString(LOGIN.getObject()).getBytes(StandardCharsets.UTF_8));
+
+        // then
+        assertThat(healthCheckDropped).isTrue();
+        assertThat(loginDropped).isFalse();
+    }
+
+    @Test
+    public void ignoresFiltersReferencingUnknownFields() throws Exception {
+        // given
+        EventFilters filters = new EventFilters(singletonList(filter("unknown", Combination.ALL,
+                condition("field5", Operator.EQUALS, "x"))), loadEventTopicsMetaData());
+
+        // when
+        boolean dropped = filters.isDropped("firstTestTopic", json(object(field("field5", "x"))));
+
+        // then
+        assertThat(dropped).isFalse();
+        assertThat(filters.getHitCounts()).isEmpty();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsConditionsWithoutValue() throws Exception {
+        new EventFilters(singletonList(filter("invalid", Combination.ALL,
+                condition("field4", Operator.EQUALS, null))), loadEventTopicsMetaData());
+    }
+
+    private static EventFilter filter(String name, Combination match, FilterCondition... conditions) {
+        EventFilter filter = new EventFilter();
+        filter.setName(name);
+        filter.setTopic("firstTestTopic");
+        filter.setMatch(match);
+        filter.setConditions(asList(conditions));
+        return filter;
+    }
+
+    private static FilterCondition condition(String field, Operator operator, String value) {
+        FilterCondition condition = new FilterCondition();
+        condition.setField(field);
+        condition.setOperator(operator);
+        condition.setValue(value);
+        return condition;
+    }
+
+    private EventTopicsMetaData loadEventTopicsMetaData() throws Exception {
+        Map<String, JsonValue> events = new LinkedHashMap<>();
+        try (InputStream configStream = getClass().getResourceAsStream("/events.json")) {
+            final JsonValue predefinedEventTypes = new JsonValue(new ObjectMapper().readValue(configStream, Map.class));
+            for (String eventTypeName : predefinedEventTypes.keys()) {
+                events.put(eventTypeName, predefinedEventTypes.get(eventTypeName));
+            }
+        }
+        return new EventTopicsMetaData(events);
+    }
+}
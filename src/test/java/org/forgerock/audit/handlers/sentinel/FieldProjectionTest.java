@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.io.InputStream;
+import java.util.Map;
+
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.FieldProjection;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.FieldProjection.Redaction;
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SuppressWarnings("javadoc")
+public class FieldProjectionTest {
+
+    private static final JsonValue EVENT = json(object(
+            field("_id", "0f1a2b3c-1"),
+            field("timestamp", "2015-03-25T14:21:26.239Z"),
+            field("transactionId", "transactionId-1"),
+            field("eventName", "AM-ACCESS-ATTEMPT"),
+            field("field1", object(field("field2", "foo"), field("field3", "bar"))),
+            field("field4", "123456789")));
+
+    @Test
+    public void copiesOnlyIncludedFields() throws Exception {
+        // given
+        FieldProjection projection = projection();
+        projection.setIncludedFields(asList("field1", "field4"));
+
+        // when
+        String sd = format(projection);
+
+        // then
+        assertThat(sd).isEqualTo("[firstTestTopic.OpenAM@36733 field1.field2=\"foo\" field1.field3=\"bar\" "
+                + "field4=\"123456789\"]");
+    }
+
+    @Test
+    public void neverCopiesExcludedFields() throws Exception {
+        // given
+        FieldProjection projection = projection();
+        projection.setExcludedFields(asList("field1.field3", "transactionId"));
+
+        // when
+        String sd = format(projection);
+
+        // then
+        assertThat(sd).isEqualTo("[firstTestTopic.OpenAM@36733 field1.field2=\"foo\" field4=\"123456789\"]");
+    }
+
+    @Test
+    public void masksRedactedFields() throws Exception {
+        // given
+        FieldProjection projection = projection();
+        projection.setIncludedFields(singletonList("field4"));
+        projection.setRedactions(singletonMap("field4", Redaction.MASK));
+
+        // when
+        String sd = format(projection);
+
+        // then
+        assertThat(sd).isEqualTo("[firstTestTopic.OpenAM@36733 field4=\"********\"]");
+    }
+
+    @Test
+    public void hashesRedactedFields() throws Exception {
+        // given
+        FieldProjection projection = projection();
+        projection.setIncludedFields(singletonList("field4"));
+        projection.setRedactions(singletonMap("field4", Redaction.HASH));
+        projection.setHashKey("secret");
+
+        // when
+        String sd = format(projection);
+
+        // then
+        assertThat(sd).isEqualTo("[firstTestTopic.OpenAM@36733 "
+                + "field4=\"e9f1f91535398c73105b095ee2be45fa6a26fd4ee56f17b1410ce2145850df42\"]");
+    }
+
+    @Test
+    public void doesNotCacheValuesOfRedactedFields() throws Exception {
+        // given
+        FieldProjection projection = projection();
+        projection.setRedactions(singletonMap("field4", Redaction.HASH));
+        projection.setHashKey("secret");
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.setFieldProjections(singletonList(projection));
+        config.getValueCache().setEnabled(true);
+        config.getValueCache().setFields(asList("field1.field2", "field4"));
+
+        // when
+        StructuredDataFormatter formatter =
+                new StructuredDataFormatter("OpenAM", "firstTestTopic", loadEventMetaData("firstTestTopic"), config);
+
+        // then
+        assertThat(formatter.getValueCaches()).containsKey("field1.field2").doesNotContainKey("field4");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsHashedFieldsWithoutHashKey() throws Exception {
+        // given
+        FieldProjection projection = projection();
+        projection.setRedactions(singletonMap("field4", Redaction.HASH));
+
+        // when
+        format(projection);
+    }
+
+    private static FieldProjection projection() {
+        FieldProjection projection = new FieldProjection();
+        projection.setTopic("firstTestTopic");
+        return projection;
+    }
+
+    private String format(FieldProjection projection) throws Exception {
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.setFieldProjections(singletonList(projection));
+        StructuredDataFormatter formatter =
+                new StructuredDataFormatter("OpenAM", "firstTestTopic", loadEventMetaData("firstTestTopic"), config);
+        SyslogMessageBuffer sd = new SyslogMessageBuffer();
+        formatter.format(EVENT, sd);
+        return sd.toString();
+    }
+
+    private JsonValue loadEventMetaData(String topic) throws Exception {
+        try (InputStream configStream = getClass().getResourceAsStream("/events.json")) {
+            return new JsonValue(new ObjectMapper().readValue(configStream, Map.class)).get(topic);
+        }
+    }
+}
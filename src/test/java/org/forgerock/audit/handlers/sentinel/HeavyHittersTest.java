@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class HeavyHittersTest {
+
+    @Test
+    public void findsTheMostFrequentKeysAmongManyRareOnes() {
+        // given
+        HeavyHitters heavyHitters = new HeavyHitters(3);
+
+        // when
+        for (int i = 0; i < 10000; i++) {
+            heavyHitters.add("10.0.0." + (i % 1000));
+            if (i % 10 == 0) {
+                heavyHitters.add("192.168.0.1");
+            }
+            if (i % 20 == 0) {
+                heavyHitters.add("192.168.0.2");
+            }
+            if (i % 40 == 0) {
+                heavyHitters.add("192.168.0.3");
+            }
+        }
+        List<Map.Entry<String, Long>> top = heavyHitters.top(3);
+
+        // then
+        assertThat(top).hasSize(3);
+        assertThat(top.get(0).getKey()).isEqualTo("192.168.0.1");
+        assertThat(top.get(0).getValue()).isGreaterThanOrEqualTo(1000L);
+        assertThat(top.get(1).getKey()).isEqualTo("192.168.0.2");
+        assertThat(top.get(2).getKey()).isEqualTo("192.168.0.3");
+    }
+
+    @Test
+    public void reportsFewerKeysThanRequestedWhenFewerWereSeen() {
+        // given
+        HeavyHitters heavyHitters = new HeavyHitters(10);
+
+        // when
+        heavyHitters.add("alice");
+        heavyHitters.add("alice");
+        heavyHitters.add("bob");
+        List<Map.Entry<String, Long>> top = heavyHitters.top(10);
+
+        // then
+        assertThat(top).hasSize(2);
+        assertThat(top.get(0).getKey()).isEqualTo("alice");
+        assertThat(top.get(0).getValue()).isEqualTo(2L);
+        assertThat(top.get(1).getKey()).isEqualTo("bob");
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.audit.providers.LocalHostNameProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class HostIdentityTest {
+
+    @Test
+    public void servesProvidedHostName() {
+        // when
+        HostIdentity hostIdentity = new HostIdentity(() -> "server.name", 0);
+
+        // then
+        assertThat(hostIdentity.getHostName()).isEqualTo("server.name");
+        assertThat(hostIdentity.getHostAddress()).isNotNull();
+    }
+
+    @Test
+    public void keepsServingLastGoodIdentityAfterFailedRefresh() {
+        // given
+        AtomicBoolean failing = new AtomicBoolean();
+        LocalHostNameProvider localHostNameProvider = () -> {
+            if (failing.get()) {
+                throw new IllegalStateException("name service unavailable");
+            }
+            return "server.name";
+        };
+        HostIdentity hostIdentity = new HostIdentity(localHostNameProvider, 0);
+        String hostAddress = hostIdentity.getHostAddress();
+
+        // when
+        failing.set(true);
+        hostIdentity.refresh();
+
+        // then
+        assertThat(hostIdentity.getHostName()).isEqualTo("server.name");
+        assertThat(hostIdentity.getHostAddress()).isEqualTo(hostAddress);
+    }
+}
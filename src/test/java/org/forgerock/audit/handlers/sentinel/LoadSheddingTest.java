@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.SeverityFieldMapping;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.SheddingConfiguration;
+import org.forgerock.audit.handlers.sentinel.SyslogFormatter.TopicPlan;
+import org.forgerock.audit.providers.LocalHostNameProvider;
+import org.forgerock.audit.providers.ProductInfoProvider;
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SuppressWarnings("javadoc")
+public class LoadSheddingTest {
+
+    @Test
+    public void shedsLessSevereEventsWhileBackedUpAndSummarizesThemOnceDrained() throws Exception {
+        // given
+        RecordingPublisher publisher = new RecordingPublisher();
+        SyslogFormatter formatter = newSyslogFormatter();
+        TopicPlan topicPlan = formatter.getTopicPlan("firstTestTopic");
+        LoadShedder loadShedder = new LoadShedder(publisher, formatter, new SheddingConfiguration(), 0);
+
+        // when
+        publisher.occupancy = 0.5;
+        boolean shedBelowHighWatermark = loadShedder.shouldShed(topicPlan, event("DEBUG"));
+        publisher.occupancy = 0.95;
+        boolean debugShed = loadShedder.shouldShed(topicPlan, event("DEBUG"));
+        boolean informationalShed = loadShedder.shouldShed(topicPlan, event("INFORMATIONAL"));
+        boolean warningShed = loadShedder.shouldShed(topicPlan, event("WARNING"));
+        publisher.occupancy = 0.8;
+        boolean debugShedWhileDraining = loadShedder.shouldShed(topicPlan, event("DEBUG"));
+        List<String> publishedWhileDraining = new ArrayList<>(publisher.messages);
+        publisher.occupancy = 0.6;
+        boolean debugShedOnceDrained = loadShedder.shouldShed(topicPlan, event("DEBUG"));
+
+        // then
+        assertThat(shedBelowHighWatermark).isFalse();
+        assertThat(debugShed).isTrue();
+        assertThat(informationalShed).isTrue();
+        assertThat(warningShed).isFalse();
+        assertThat(debugShedWhileDraining).isTrue();
+        assertThat(debugShedOnceDrained).isFalse();
+        assertThat(loadShedder.getShedEventCounts().get("firstTestTopic"))
+                .containsEntry(Severity.DEBUG, 2L)
+                .containsEntry(Severity.INFORMATIONAL, 1L)
+                .doesNotContainKey(Severity.WARNING);
+        assertThat(publishedWhileDraining).isEmpty();
+        assertThat(publisher.messages).hasSize(1);
+        assertThat(publisher.messages.get(0))
+                .contains("|forgerock cef|WARNING| ")
+                .contains(" act=" + LoadShedder.SHEDDING_SUMMARY + " ")
+                .contains(" cnt=3 start=")
+                .endsWith(" msg=[shedding.OpenAM@36733 firstTestTopic.INFORMATIONAL=\"1\" firstTestTopic.DEBUG=\"2\"]");
+    }
+
+    @Test
+    public void summarizesShedEventsOnceDrainedWithoutFurtherEvents() throws Exception {
+        // given
+        RecordingPublisher publisher = new RecordingPublisher();
+        SyslogFormatter formatter = newSyslogFormatter();
+        TopicPlan topicPlan = formatter.getTopicPlan("firstTestTopic");
+        LoadShedder loadShedder = new LoadShedder(publisher, formatter, new SheddingConfiguration(), 10);
+        publisher.occupancy = 0.95;
+        loadShedder.shouldShed(topicPlan, event("DEBUG"));
+
+        // when
+        publisher.occupancy = 0.6;
+        long deadline = System.currentTimeMillis() + 5000;
+        while (publisher.messages.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        loadShedder.close();
+
+        // then
+        assertThat(publisher.messages).hasSize(1);
+        assertThat(publisher.messages.get(0))
+                .contains(" act=" + LoadShedder.SHEDDING_SUMMARY + " ")
+                .endsWith(" msg=[shedding.OpenAM@36733 firstTestTopic.DEBUG=\"1\"]");
+    }
+
+    @Test
+    public void summarizesShedEventsWhenClosedWhileShedding() throws Exception {
+        // given
+        RecordingPublisher publisher = new RecordingPublisher();
+        SyslogFormatter formatter = newSyslogFormatter();
+        TopicPlan topicPlan = formatter.getTopicPlan("firstTestTopic");
+        LoadShedder loadShedder = new LoadShedder(publisher, formatter, new SheddingConfiguration(), 0);
+        publisher.occupancy = 0.95;
+        loadShedder.shouldShed(topicPlan, event("DEBUG"));
+        loadShedder.shouldShed(topicPlan, event("INFORMATIONAL"));
+
+        // when
+        loadShedder.close();
+
+        // then
+        assertThat(publisher.messages).hasSize(1);
+        assertThat(publisher.messages.get(0))
+                .contains(" cnt=2 start=")
+                .endsWith(" msg=[shedding.OpenAM@36733 firstTestTopic.INFORMATIONAL=\"1\" firstTestTopic.DEBUG=\"1\"]");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsLowWatermarkAboveHighWatermark() throws Exception {
+        SheddingConfiguration config = new SheddingConfiguration();
+        config.setHighWatermark(0.5);
+        config.setLowWatermark(0.8);
+        new LoadShedder(mock(SyslogPublisher.class), newSyslogFormatter(), config);
+    }
+
+    private static final class RecordingPublisher implements SyslogPublisher {
+
+        private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        private volatile double occupancy;
+
+        @Override
+        public void publishMessage(SyslogMessageBuffer syslogMessage) {
+            messages.add(syslogMessage.toString());
+        }
+
+        @Override
+        public double getOccupancy() {
+            return occupancy;
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    }
+
+    private static JsonValue event(String severity) {
+        return json(object(
+                field("_id", "0f1a2b3c-1"),
+                field("timestamp", "2015-03-25T14:21:26.239Z"),
+                field("transactionId", "transactionId-1"),
+                field("eventName", "AM-ACCESS-ATTEMPT"),
+                field("field4", severity)));
+    }
+
+    private SyslogFormatter newSyslogFormatter() throws Exception {
+        SeverityFieldMapping severityFieldMapping = new SeverityFieldMapping();
+        severityFieldMapping.setTopic("firstTestTopic");
+        severityFieldMapping.setField("field4");
+        severityFieldMapping.setValueMappings(Collections.<String, Severity>emptyMap());
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.setFacility(Facility.LOCAL5);
+        config.setSeverityFieldMappings(singletonList(severityFieldMapping));
+        LocalHostNameProvider localHostNameProvider = mock(LocalHostNameProvider.class);
+        given(localHostNameProvider.getLocalHostName()).willReturn("server.name");
+        ProductInfoProvider productInfoProvider = mock(ProductInfoProvider.class);
+        given(productInfoProvider.getProductName()).willReturn("OpenAM");
+        return new SyslogFormatter(loadEventTopicsMetaData(), config, localHostNameProvider, productInfoProvider);
+    }
+
+    private EventTopicsMetaData loadEventTopicsMetaData() throws Exception {
+        Map<String, JsonValue> events = new LinkedHashMap<>();
+        try (InputStream configStream = getClass().getResourceAsStream("/events.json")) {
+            final JsonValue predefinedEventTypes = new JsonValue(new ObjectMapper().readValue(configStream, Map.class));
+            for (String eventTypeName : predefinedEventTypes.keys()) {
+                events.put(eventTypeName, predefinedEventTypes.get(eventTypeName));
+            }
+        }
+        return new EventTopicsMetaData(events);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class MessageSizeLimiterTest {
+
+    @Test
+    public void leavesMessagesWithinTheLimitAlone() {
+        // given
+        SyslogMessageBuffer message = message("short", "values");
+
+        // when
+        boolean truncated = MessageSizeLimiter.limit(message, 100);
+
+        // then
+        assertThat(truncated).isFalse();
+        assertThat(message.toString()).isEqualTo("header a=\"short\" b=\"values\"");
+    }
+
+    @Test
+    public void truncatesLargestValuesFirst() {
+        // given
+        SyslogMessageBuffer message = message("small", "a much larger value that does not fit");
+
+        // when
+        boolean truncated = MessageSizeLimiter.limit(message, 40);
+
+        // then
+        assertThat(truncated).isTrue();
+        assertThat(message.toString()).isEqualTo("header a=\"small\" b=\"a much larger va...\"");
+        assertThat(message.length()).isLessThanOrEqualTo(40);
+    }
+
+    @Test
+    public void truncatesOnCharacterBoundaries() {
+        // given
+        SyslogMessageBuffer message = message("x", "€€€€€€€€");
+
+        // when
+        MessageSizeLimiter.limit(message, 26);
+
+        // then
+        assertThat(message.toString()).isEqualTo("header a=\"x\" b=\"€€...\"");
+    }
+
+    @Test
+    public void neverSeparatesAnEscapeFromTheCharacterItEscapes() {
+        // given
+        SyslogMessageBuffer message = new SyslogMessageBuffer();
+        message.append("header a=\"");
+        int start = message.length();
+        ParamValueEscaper.escape("ab\"\"\"\"\"\"\"\"", message);
+        message.addSpan(start, message.length());
+        message.append("\"");
+
+        // when
+        MessageSizeLimiter.limit(message, 19);
+
+        // then
+        assertThat(message.toString()).isEqualTo("header a=\"ab\\\"...\"");
+    }
+
+    private static SyslogMessageBuffer message(String a, String b) {
+        SyslogMessageBuffer message = new SyslogMessageBuffer();
+        message.append("header a=\"");
+        int start = message.length();
+        message.append(a);
+        message.addSpan(start, message.length());
+        message.append("\" b=\"");
+        start = message.length();
+        message.append(b.getBytes(StandardCharsets.UTF_8));
+        message.addSpan(start, message.length());
+        message.append("\"");
+        return message;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class NestedValueWriterTest {
+
+    @DataProvider
+    public Object[][] values() {
+        return new Object[][] {
+            { object(field("key", "value"), field("nested", object(field("a", 1), field("b", "c")))) },
+            { array("a", array("b", "c"), array(object(field("d", "e")))) },
+            { array(0, -1, 42L, Long.MAX_VALUE, 3.5, -0.25, 1.0E10) },
+            { array(true, false) },
+            { object(field("null", null), field("list", array(null, "null"))) },
+            { array("caf\u00e9", "\u65e5\u672c\u8a9e", "\ud83d\ude00", "non\u00a0breaking") },
+            { object(field("[bracketed]", "a ] b")) },
+            { 42 },
+            { true }
+        };
+    }
+
+    @Test(dataProvider = "values")
+    public void writesWhatEscapingJsonValueToStringWrote(Object value) {
+        // given
+        SyslogMessageBuffer sd = new SyslogMessageBuffer();
+
+        // when
+        NestedValueWriter.write(value, sd, 1024);
+
+        // then
+        assertThat(sd.toString()).isEqualTo(escapedJsonValueToString(value));
+    }
+
+    @Test
+    public void writesEscapedJsonInJsonValueLayout() {
+        // given
+        Object value = object(
+                field("name", "a \"quoted\" [value]"),
+                field("path", "C:\\temp"),
+                field("lines", "one\ntwo"),
+                field("list", array(1, true, null)));
+        SyslogMessageBuffer sd = new SyslogMessageBuffer();
+
+        // when
+        NestedValueWriter.write(value, sd, 1024);
+
+        // then
+        assertThat(sd.toString()).isEqualTo("{ \\\"name\\\": \\\"a \\\\\\\"quoted\\\\\\\" [value\\]\\\", "
+                + "\\\"path\\\": \\\"C:\\\\\\\\temp\\\", "
+                + "\\\"lines\\\": \\\"one\\\\ntwo\\\", "
+                + "\\\"list\\\": [ 1, true, null \\] }");
+    }
+
+    @Test
+    public void stopsWalkingOnceSizeLimitIsExceeded() {
+        // given
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            values.add("value-" + i);
+        }
+        SyslogMessageBuffer sd = new SyslogMessageBuffer();
+
+        // when
+        NestedValueWriter.write(values, sd, 100);
+
+        // then
+        assertThat(sd.length()).isLessThan(150);
+        assertThat(sd.toString()).startsWith("[ \\\"value-0\\\", ").endsWith(NestedValueWriter.TRUNCATION_MARKER);
+    }
+
+    @Test
+    public void cutsSingleOversizedStringsOnCharacterBoundaries() {
+        // given
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            text.append("\u00e9\"\\]\n");
+        }
+        Object value = object(field("text", text.toString()));
+        SyslogMessageBuffer sd = new SyslogMessageBuffer();
+
+        // when
+        NestedValueWriter.write(value, sd, 100);
+
+        // then
+        String written = sd.toString();
+        String content = written.substring(0, written.length() - NestedValueWriter.TRUNCATION_MARKER.length());
+        assertThat(sd.length()).isLessThanOrEqualTo(100 + NestedValueWriter.TRUNCATION_MARKER.length());
+        assertThat(written).startsWith("{ \\\"text\\\": \\\"\u00e9\\\\\\\"")
+                .endsWith(NestedValueWriter.TRUNCATION_MARKER);
+        assertThat(content).doesNotContain("\ufffd").matches("(?s).*(\u00e9|\\\\\\\"|\\\\\\\\|\\]|\\\\n)");
+    }
+
+    @Test
+    public void stopsWalkingPathologicallyDeepValues() {
+        // given
+        Object value = "leaf";
+        for (int i = 0; i < 10000; i++) {
+            value = object(field("child", value));
+        }
+        SyslogMessageBuffer sd = new SyslogMessageBuffer();
+
+        // when
+        NestedValueWriter.write(value, sd, 1024 * 1024);
+
+        // then
+        assertThat(sd.toString()).doesNotContain("leaf").endsWith(NestedValueWriter.TRUNCATION_MARKER);
+    }
+
+    /** The rendering that NestedValueWriter replaced: JsonValue.toString(), then escaped as an SD-PARAM value. */
+    private static String escapedJsonValueToString(Object value) {
+        return new JsonValue(value).toString().replaceAll("[\\\\\"\\]]", "\\\\$0");
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.Test;
+
+/**
+ * Compares the throughput of threads publishing to the same {@link SyslogPublisher} through a handler-level monitor,
+ * as the handler used to, with the throughput of threads relying on the publisher's own thread-safety.
+ * <p>
+ * Not part of the regular test run; execute with <code>mvn test -Dtest=PublisherContentionBenchmark</code>.
+ */
+@SuppressWarnings("javadoc")
+public class PublisherContentionBenchmark {
+
+    private static final int[] THREADS = { 1, 8, 64, 256 };
+    private static final int EVENTS = 1 << 20;
+    private static final byte[] MESSAGE = ("15 Mar 14:21:26 CEF:0|ForgeRock Inc|OpenAM|1.0|174|forgerock cef|"
+            + "INFORMATIONAL| src=127.0.0.1 act=AM-ACCESS-ATTEMPT targetType=server.name procId=1234 "
+            + "msg=[firstTestTopic.OpenAM@36733 transactionId=\"transactionId-1\" field4=\"123456789\"]")
+            .getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void asynchronousPublisherThroughput() throws Exception {
+        for (int threads : THREADS) {
+            CountingConnection connection = new CountingConnection();
+            AsynchronousSyslogPublisher publisher =
+                    new AsynchronousSyslogPublisher("SyslogPublisher", connection, 10000);
+            long locked = measure(publisher, threads, true);
+            long lockFree = measure(publisher, threads, false);
+            publisher.close();
+            report("asynchronous", threads, locked, lockFree);
+            assertThat(connection.sent.get()).isEqualTo(2L * (EVENTS / threads) * threads);
+        }
+    }
+
+    @Test
+    public void synchronousPublisherThroughput() throws Exception {
+        for (int threads : THREADS) {
+            CountingConnection connection = new CountingConnection();
+            SynchronousSyslogPublisher publisher = new SynchronousSyslogPublisher(connection);
+            long locked = measure(publisher, threads, true);
+            long lockFree = measure(publisher, threads, false);
+            publisher.close();
+            report("synchronous", threads, locked, lockFree);
+            assertThat(connection.sent.get()).isEqualTo(2L * (EVENTS / threads) * threads);
+        }
+    }
+
+    /**
+     * Publishes the same number of messages from the provided number of threads, each with its own buffer, and
+     * returns the elapsed time in nanoseconds.
+     */
+    private static long measure(SyslogPublisher publisher, int threadCount, boolean handlerLock) throws Exception {
+        final int eventsPerThread = EVENTS / threadCount;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(() -> {
+                SyslogMessageBuffer buffer = new SyslogMessageBuffer();
+                buffer.append(MESSAGE);
+                try {
+                    start.await();
+                    for (int i = 0; i < eventsPerThread; i++) {
+                        if (handlerLock) {
+                            synchronized (publisher) {
+                                publisher.publishMessage(buffer);
+                            }
+                        } else {
+                            publisher.publishMessage(buffer);
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            threads[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - begin;
+    }
+
+    private static void report(String publisher, int threads, long locked, long lockFree) {
+        System.out.printf("%s publisher, %d threads: handler lock %d msg/s, publisher thread-safety %d msg/s%n",
+                publisher, threads, perSecond(locked, threads), perSecond(lockFree, threads));
+    }
+
+    private static long perSecond(long elapsedNanos, int threads) {
+        return (long) ((double) (EVENTS / threads) * threads * 1_000_000_000L / elapsedNanos);
+    }
+
+    private static final class CountingConnection implements SyslogConnection {
+
+        private final AtomicLong sent = new AtomicLong();
+
+        @Override
+        public void reconnect() {
+            // nothing to do
+        }
+
+        @Override
+        public void send(byte[] syslogMessage) {
+            sent.incrementAndGet();
+        }
+
+        @Override
+        public void send(SyslogMessageBuffer syslogMessage) {
+            sent.incrementAndGet();
+        }
+
+        @Override
+        public void flush() {
+            // nothing to do
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    }
+}
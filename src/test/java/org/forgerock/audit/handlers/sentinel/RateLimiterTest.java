@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.RateLimit;
+import org.forgerock.audit.handlers.sentinel.SyslogFormatter.TopicPlan;
+import org.forgerock.audit.providers.LocalHostNameProvider;
+import org.forgerock.audit.providers.ProductInfoProvider;
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SuppressWarnings("javadoc")
+public class RateLimiterTest {
+
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final JsonValue EVENT = json(object(
+            field("_id", "0f1a2b3c-1"),
+            field("timestamp", "2015-03-25T14:21:26.239Z"),
+            field("transactionId", "transactionId-1"),
+            field("eventName", "AM-LOGIN-COMPLETED"),
+            field("field4", "10.0.0.1")));
+
+    @Test
+    public void admitsBurstThenSustainedRate() throws Exception {
+        // given
+        RateLimiter rateLimiter = new RateLimiter(singletonList(rateLimit(null, 1000, 3, 1.0)),
+                loadEventTopicsMetaData());
+        long now = System.nanoTime();
+
+        // when
+        int admittedInBurst = 0;
+        for (int i = 0; i < 10; i++) {
+            admittedInBurst += rateLimiter.tryAcquire("firstTestTopic", EVENT, now) ? 1 : 0;
+        }
+        boolean admittedAfterOneInterval = rateLimiter.tryAcquire("firstTestTopic", EVENT, now + MILLISECOND);
+        boolean admittedTooSoon = rateLimiter.tryAcquire("firstTestTopic", EVENT, now + MILLISECOND);
+        boolean otherTopicAdmitted = rateLimiter.tryAcquire("secondTestTopic", EVENT, now);
+
+        // then
+        assertThat(admittedInBurst).isEqualTo(3);
+        assertThat(admittedAfterOneInterval).isTrue();
+        assertThat(admittedTooSoon).isFalse();
+        assertThat(otherTopicAdmitted).isTrue();
+        assertThat(rateLimiter.getSuppressedEventCount()).isEqualTo(8);
+    }
+
+    @Test
+    public void limitsEachFieldValueSeparately() throws Exception {
+        // given
+        RateLimiter rateLimiter = new RateLimiter(singletonList(rateLimit("field4", 1, 1, 1.0)),
+                loadEventTopicsMetaData());
+        JsonValue otherClient = EVENT.copy();
+        otherClient.put("field4", "10.0.0.2");
+        long now = System.nanoTime();
+
+        // when
+        boolean firstAdmitted = rateLimiter.tryAcquire("firstTestTopic", EVENT, now);
+        boolean firstAdmittedAgain = rateLimiter.tryAcquire("firstTestTopic", EVENT, now);
+        boolean otherAdmitted = rateLimiter.tryAcquire("firstTestTopic", otherClient, now);
+
+        // then
+        assertThat(firstAdmitted).isTrue();
+        assertThat(firstAdmittedAgain).isFalse();
+        assertThat(otherAdmitted).isTrue();
+    }
+
+    @Test
+    public void sharesAnOverflowBucketOnceTooManyValuesAreTracked() throws Exception {
+        // given
+        RateLimit limit = rateLimit("field4", 1, 1, 1.0);
+        limit.setMaxTrackedValues(1);
+        RateLimiter rateLimiter = new RateLimiter(singletonList(limit), loadEventTopicsMetaData());
+        long now = System.nanoTime();
+        rateLimiter.tryAcquire("firstTestTopic", EVENT, now);
+
+        // when
+        boolean secondValueAdmitted = rateLimiter.tryAcquire("firstTestTopic",
+                json(object(field("field4", "10.0.0.2"))), now);
+        boolean thirdValueAdmitted = rateLimiter.tryAcquire("firstTestTopic",
+                json(object(field("field4", "10.0.0.3"))), now);
+
+        // then
+        assertThat(secondValueAdmitted).isTrue();
+        assertThat(thirdValueAdmitted).isFalse();
+    }
+
+    @Test
+    public void suppressesEverythingAtAZeroSampleRate() throws Exception {
+        // given
+        RateLimiter rateLimiter = new RateLimiter(singletonList(rateLimit(null, 0, 0, 0.0)),
+                loadEventTopicsMetaData());
+
+        // when
+        boolean admitted = rateLimiter.tryAcquire("firstTestTopic", EVENT);
+
+        // then
+        assertThat(admitted).isFalse();
+        assertThat(rateLimiter.getSuppressedEventCount()).isEqualTo(1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsSampleRatesAboveOne() throws Exception {
+        new RateLimiter(singletonList(rateLimit(null, 0, 0, 1.5)), loadEventTopicsMetaData());
+    }
+
+    @Test
+    public void reportsSuppressedEventsInTheNextMessageOfTheTopic() throws Exception {
+        // given
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.setFacility(Facility.LOCAL5);
+        SyslogFormatter formatter = newSyslogFormatter(config);
+        TopicPlan topicPlan = formatter.getTopicPlan("firstTestTopic");
+        topicPlan.recordSuppressedEvent();
+        topicPlan.recordSuppressedEvent();
+
+        // when
+        String reporting = formatter.format("firstTestTopic", EVENT);
+        String following = formatter.format("firstTestTopic", EVENT);
+
+        // then
+        assertThat(reporting).contains(" " + SyslogFormatter.SUPPRESSED_LABEL + "2 procId=");
+        assertThat(following).doesNotContain(SyslogFormatter.SUPPRESSED_LABEL);
+    }
+
+    private static RateLimit rateLimit(String field, double eventsPerSecond, int burst, double sampleRate) {
+        RateLimit rateLimit = new RateLimit();
+        rateLimit.setTopic("firstTestTopic");
+        rateLimit.setField(field);
+        rateLimit.setEventsPerSecond(eventsPerSecond);
+        rateLimit.setBurst(burst);
+        rateLimit.setSampleRate(sampleRate);
+        return rateLimit;
+    }
+
+    private SyslogFormatter newSyslogFormatter(SentinelAuditEventHandlerConfiguration config) throws Exception {
+        LocalHostNameProvider localHostNameProvider = mock(LocalHostNameProvider.class);
+        given(localHostNameProvider.getLocalHostName()).willReturn("server.name");
+        ProductInfoProvider productInfoProvider = mock(ProductInfoProvider.class);
+        given(productInfoProvider.getProductName()).willReturn("OpenAM");
+        return new SyslogFormatter(loadEventTopicsMetaData(), config, localHostNameProvider, productInfoProvider);
+    }
+
+    private EventTopicsMetaData loadEventTopicsMetaData() throws Exception {
+        Map<String, JsonValue> events = new LinkedHashMap<>();
+        try (InputStream configStream = getClass().getResourceAsStream("/events.json")) {
+            final JsonValue predefinedEventTypes = new JsonValue(new ObjectMapper().readValue(configStream, Map.class));
+            for (String eventTypeName : predefinedEventTypes.keys()) {
+                events.put(eventTypeName, predefinedEventTypes.get(eventTypeName));
+            }
+        }
+        return new EventTopicsMetaData(events);
+    }
+}
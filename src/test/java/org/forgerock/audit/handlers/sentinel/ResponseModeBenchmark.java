@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.ResponseMode;
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Measures the bytes allocated by the publishing thread for each event published, in each {@link ResponseMode}.
+ * <p>
+ * Not part of the regular test run; execute with <code>mvn test -Dtest=ResponseModeBenchmark</code>.
+ */
+@SuppressWarnings("javadoc")
+public class ResponseModeBenchmark {
+
+    private static final int WARM_UP_EVENTS = 100000;
+    private static final int EVENTS = 100000;
+
+    @Test
+    public void allocatedBytesPerEvent() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        JsonValue event = json(object(
+                field("_id", "0f1a2b3c-1"),
+                field("timestamp", "2015-03-25T14:21:26.239Z"),
+                field("transactionId", "transactionId-1"),
+                field("eventName", "AM-ACCESS-ATTEMPT"),
+                field("field1", object(field("field2", "A list with escaped characters"), field("field3", "\"]\\"))),
+                field("field4", "123456789")));
+
+        for (ResponseMode responseMode : ResponseMode.values()) {
+            // given
+            SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+            config.setName("sentinel");
+            config.setTopics(singleton("firstTestTopic"));
+            config.setProtocol(TransportProtocol.UDP);
+            config.setHost("localhost");
+            config.setPort(514);
+            config.setFacility(Facility.LOCAL0);
+            config.setResponseMode(responseMode);
+            SentinelAuditEventHandler handler = new SentinelAuditEventHandler(config, loadEventTopicsMetaData(),
+                    () -> "OpenAM", () -> "server.name");
+            for (int i = 0; i < WARM_UP_EVENTS; i++) {
+                handler.publishEvent(null, "firstTestTopic", event);
+            }
+
+            // when
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < EVENTS; i++) {
+                handler.publishEvent(null, "firstTestTopic", event);
+            }
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+            handler.shutdown();
+
+            // then
+            System.out.printf("publishEvent with %s response: %d bytes allocated per event%n", responseMode,
+                    allocated / EVENTS);
+            assertThat(allocated).isPositive();
+        }
+    }
+
+    private EventTopicsMetaData loadEventTopicsMetaData() throws Exception {
+        Map<String, JsonValue> events = new LinkedHashMap<>();
+        try (InputStream configStream = getClass().getResourceAsStream("/events.json")) {
+            final JsonValue predefinedEventTypes = new JsonValue(new ObjectMapper().readValue(configStream, Map.class));
+            for (String eventTypeName : predefinedEventTypes.keys()) {
+                events.put(eventTypeName, predefinedEventTypes.get(eventTypeName));
+            }
+        }
+        return new EventTopicsMetaData(events);
+    }
+}
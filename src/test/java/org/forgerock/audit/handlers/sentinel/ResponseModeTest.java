@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static java.util.Collections.singleton;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.ResponseMode;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ResourceResponse;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SuppressWarnings("javadoc")
+public class ResponseModeTest {
+
+    @Test
+    public void respondsWithACopyOfTheEventByDefault() throws Exception {
+        // given
+        JsonValue event = event();
+
+        // when
+        ResourceResponse response = publish(new SentinelAuditEventHandlerConfiguration(), event);
+
+        // then
+        assertThat(response.getId()).isEqualTo("0f1a2b3c-1");
+        assertThat(response.getContent()).isNotSameAs(event);
+        assertThat(response.getContent().getObject()).isEqualTo(event.getObject());
+    }
+
+    @Test
+    public void respondsWithTheEventItselfInOriginalMode() throws Exception {
+        // given
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.setResponseMode(ResponseMode.ORIGINAL);
+        JsonValue event = event();
+
+        // when
+        ResourceResponse response = publish(config, event);
+
+        // then
+        assertThat(response.getId()).isEqualTo("0f1a2b3c-1");
+        assertThat(response.getContent()).isSameAs(event);
+    }
+
+    @Test
+    public void respondsWithTheIdOnlyInIdOnlyMode() throws Exception {
+        // given
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.setResponseMode(ResponseMode.ID_ONLY);
+
+        // when
+        ResourceResponse response = publish(config, event());
+
+        // then
+        assertThat(response.getId()).isEqualTo("0f1a2b3c-1");
+        assertThat(response.getContent().keys()).containsExactly(ResourceResponse.FIELD_CONTENT_ID);
+        assertThat(response.getContent().get(ResourceResponse.FIELD_CONTENT_ID).asString()).isEqualTo("0f1a2b3c-1");
+    }
+
+    private ResourceResponse publish(SentinelAuditEventHandlerConfiguration config, JsonValue event)
+            throws Exception {
+        config.setName("sentinel");
+        config.setTopics(singleton("firstTestTopic"));
+        config.setProtocol(TransportProtocol.UDP);
+        config.setHost("localhost");
+        config.setPort(514);
+        config.setFacility(Facility.LOCAL0);
+        SentinelAuditEventHandler handler = new SentinelAuditEventHandler(config, loadEventTopicsMetaData(),
+                () -> "OpenAM", () -> "server.name");
+        try {
+            return handler.publishEvent(null, "firstTestTopic", event).getOrThrow();
+        } finally {
+            handler.shutdown();
+        }
+    }
+
+    private static JsonValue event() {
+        return json(object(
+                field("_id", "0f1a2b3c-1"),
+                field("timestamp", "2015-03-25T14:21:26.239Z"),
+                field("transactionId", "transactionId-1"),
+                field("eventName", "AM-ACCESS-ATTEMPT"),
+                field("field1", object(field("field2", "foo"), field("field3", "bar"))),
+                field("field4", "123456789")));
+    }
+
+    private EventTopicsMetaData loadEventTopicsMetaData() throws Exception {
+        Map<String, JsonValue> events = new LinkedHashMap<>();
+        try (InputStream configStream = getClass().getResourceAsStream("/events.json")) {
+            final JsonValue predefinedEventTypes = new JsonValue(new ObjectMapper().readValue(configStream, Map.class));
+            for (String eventTypeName : predefinedEventTypes.keys()) {
+                events.put(eventTypeName, predefinedEventTypes.get(eventTypeName));
+            }
+        }
+        return new EventTopicsMetaData(events);
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.FieldProjection;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.FieldProjection.Redaction;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.Rollup;
+import org.forgerock.audit.providers.LocalHostNameProvider;
+import org.forgerock.audit.providers.ProductInfoProvider;
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SuppressWarnings("javadoc")
+public class RollupsTest {
+
+    @Test
+    public void summarizesTheEventsCountedDuringTheInterval() throws Exception {
+        // given
+        RecordingPublisher publisher = new RecordingPublisher();
+        Rollups rollups = newRollups(rollup(), publisher);
+
+        // when
+        rollups.count("firstTestTopic", event("10.0.0.1", "FAILED"));
+        rollups.count("firstTestTopic", event("10.0.0.1", "FAILED"));
+        rollups.count("firstTestTopic", event("10.0.0.2", "SUCCESSFUL"));
+        rollups.count("secondTestTopic", event("10.0.0.3", "FAILED"));
+        rollups.close();
+
+        // then
+        assertThat(publisher.messages).hasSize(1);
+        assertThat(publisher.messages.get(0))
+                .contains("|forgerock cef|INFORMATIONAL| ")
+                .contains(" act=" + Rollups.ROLLUP + " ")
+                .contains(" cnt=3 ")
+                .contains("[rollup.OpenAM@36733 topic=\"firstTestTopic\" severity.INFORMATIONAL=\"3\"")
+                .contains(" outcome.FAILED=\"2\" outcome.SUCCESSFUL=\"1\"")
+                .endsWith(" top1.key=\"10.0.0.1\" top1.count=\"2\" top2.key=\"10.0.0.2\" top2.count=\"1\"]");
+    }
+
+    @Test
+    public void countsSerializedEventsLikeParsedOnes() throws Exception {
+        // given
+        RecordingPublisher publisher = new RecordingPublisher();
+        Rollups rollups = newRollups(rollup(), publisher);
+
+        // when
+        byte[] serialized = new ObjectMapper().writeValueAsString(event("10.0.0.1", "FAILED").getObject())
+                .getBytes(StandardCharsets.UTF_8);
+        rollups.count("firstTestTopic", serialized);
+        rollups.close();
+
+        // then
+        assertThat(publisher.messages).hasSize(1);
+        assertThat(publisher.messages.get(0))
+                .contains(" cnt=1 ")
+                .endsWith(" outcome.FAILED=\"1\" top1.key=\"10.0.0.1\" top1.count=\"1\"]");
+    }
+
+    @Test
+    public void reportsKeysAsTheFieldProjectionRedactsThem() throws Exception {
+        // given
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        FieldProjection projection = new FieldProjection();
+        projection.setTopic("firstTestTopic");
+        projection.setRedactions(singletonMap("field1.field2", Redaction.HASH));
+        projection.setHashKey("secret");
+        config.setFieldProjections(singletonList(projection));
+        RecordingPublisher publisher = new RecordingPublisher();
+        Rollups rollups = newRollups(rollup(), publisher, config);
+
+        // when
+        rollups.count("firstTestTopic", event("10.0.0.1", "FAILED"));
+        rollups.close();
+
+        // then
+        assertThat(publisher.messages).hasSize(1);
+        assertThat(publisher.messages.get(0))
+                .doesNotContain("10.0.0.1")
+                .endsWith(" top1.key=\"eb5a0e55d511c2fe4af165cf4f0256914825c54d5dc71d5eae7c3ab1d25ad5d1\" top1.count=\"1\"]");
+    }
+
+    @Test
+    public void doesNotCountKeysExcludedByTheFieldProjection() throws Exception {
+        // given
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        FieldProjection projection = new FieldProjection();
+        projection.setTopic("firstTestTopic");
+        projection.setExcludedFields(singletonList("field1"));
+        config.setFieldProjections(singletonList(projection));
+        RecordingPublisher publisher = new RecordingPublisher();
+        Rollups rollups = newRollups(rollup(), publisher, config);
+
+        // when
+        rollups.count("firstTestTopic", event("10.0.0.1", "FAILED"));
+        rollups.close();
+
+        // then
+        assertThat(publisher.messages).hasSize(1);
+        assertThat(publisher.messages.get(0))
+                .doesNotContain("10.0.0.1")
+                .endsWith(" outcome.FAILED=\"1\"]");
+    }
+
+    @Test
+    public void publishesNothingForAnIntervalWithoutEvents() throws Exception {
+        // given
+        RecordingPublisher publisher = new RecordingPublisher();
+        Rollups rollups = newRollups(rollup(), publisher);
+
+        // when
+        rollups.close();
+
+        // then
+        assertThat(publisher.messages).isEmpty();
+    }
+
+    @Test
+    public void replacesCharactersNotAllowedInParamNames() {
+        assertThat(Rollups.toSdName("outcome.not found=\"x\"]")).isEqualTo("outcome.not_found__x__");
+        assertThat(Rollups.toSdName("outcome.0123456789012345678901234567890")).hasSize(32);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsNonPositiveInterval() throws Exception {
+        Rollup rollup = rollup();
+        rollup.setIntervalMillis(0);
+        newRollups(rollup, new RecordingPublisher());
+    }
+
+    private static JsonValue event(String clientIp, String outcome) {
+        return json(object(
+                field("_id", "0f1a2b3c-1"),
+                field("timestamp", "2015-03-25T14:21:26.239Z"),
+                field("transactionId", "transactionId-1"),
+                field("eventName", "AM-ACCESS-OUTCOME"),
+                field("field1", object(field("field2", clientIp))),
+                field("field4", outcome)));
+    }
+
+    private static Rollup rollup() {
+        Rollup rollup = new Rollup();
+        rollup.setTopic("firstTestTopic");
+        rollup.setIntervalMillis(60000);
+        rollup.setOutcomeField("field4");
+        rollup.setKeyField("field1/field2");
+        rollup.setTopKeys(5);
+        return rollup;
+    }
+
+    private Rollups newRollups(Rollup rollup, SyslogPublisher publisher) throws Exception {
+        return newRollups(rollup, publisher, new SentinelAuditEventHandlerConfiguration());
+    }
+
+    private Rollups newRollups(Rollup rollup, SyslogPublisher publisher,
+            SentinelAuditEventHandlerConfiguration config) throws Exception {
+        config.setFacility(Facility.LOCAL5);
+        LocalHostNameProvider localHostNameProvider = mock(LocalHostNameProvider.class);
+        given(localHostNameProvider.getLocalHostName()).willReturn("server.name");
+        ProductInfoProvider productInfoProvider = mock(ProductInfoProvider.class);
+        given(productInfoProvider.getProductName()).willReturn("OpenAM");
+        EventTopicsMetaData eventTopicsMetaData = loadEventTopicsMetaData();
+        SyslogFormatter formatter =
+                new SyslogFormatter(eventTopicsMetaData, config, localHostNameProvider, productInfoProvider);
+        return new Rollups(singletonList(rollup), eventTopicsMetaData, formatter, publisher);
+    }
+
+    private static final class RecordingPublisher implements SyslogPublisher {
+
+        private final List<String> messages = new ArrayList<>();
+
+        @Override
+        public void publishMessage(SyslogMessageBuffer syslogMessage) {
+            messages.add(syslogMessage.toString());
+        }
+
+        @Override
+        public double getOccupancy() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    }
+
+    private EventTopicsMetaData loadEventTopicsMetaData() throws Exception {
+        Map<String, JsonValue> events = new LinkedHashMap<>();
+        try (InputStream configStream = getClass().getResourceAsStream("/events.json")) {
+            final JsonValue predefinedEventTypes = new JsonValue(new ObjectMapper().readValue(configStream, Map.class));
+            for (String eventTypeName : predefinedEventTypes.keys()) {
+                events.put(eventTypeName, predefinedEventTypes.get(eventTypeName));
+            }
+        }
+        return new EventTopicsMetaData(events);
+    }
+}
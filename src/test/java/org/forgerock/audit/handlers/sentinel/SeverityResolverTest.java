@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static java.util.Collections.singletonMap;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.SeverityFieldMapping;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class SeverityResolverTest {
+
+    @DataProvider
+    public Object[][] fieldValues() {
+        return new Object[][] {
+            { "SUCCESSFUL", Severity.NOTICE },      // configured value mapping
+            { "ALERT", Severity.ALERT },            // exact severity name
+            { "warning", Severity.WARNING },        // severity name ignoring case
+            { "Warning", Severity.WARNING },        // served from the fallback cache the second time round
+            { "FAILED", Severity.INFORMATIONAL },   // unknown value
+            { 500, Severity.INFORMATIONAL },        // non-string value
+            { null, Severity.INFORMATIONAL }        // missing value
+        };
+    }
+
+    @Test(dataProvider = "fieldValues")
+    public void resolvesSeverityFromMappedField(Object fieldValue, Severity expected) {
+        // given
+        SeverityFieldMapping mapping = new SeverityFieldMapping();
+        mapping.setTopic("access");
+        mapping.setField("response/status");
+        mapping.setValueMappings(singletonMap("SUCCESSFUL", Severity.NOTICE));
+        SeverityResolver resolver = SeverityResolver.compile(mapping);
+
+        for (int i = 0; i < 2; i++) {
+            // when
+            Severity severity = resolver.resolve(json(object(field("response", object(field("status", fieldValue))))));
+
+            // then
+            assertThat(severity).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void unmappedTopicsAreInformational() {
+        assertThat(SeverityResolver.UNMAPPED.resolve(json(object(field("status", "ALERT")))))
+                .isEqualTo(Severity.INFORMATIONAL);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.forgerock.audit.events.EventTopicsMetaData;
+import org.forgerock.audit.providers.LocalHostNameProvider;
+import org.forgerock.audit.providers.ProductInfoProvider;
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@SuppressWarnings("javadoc")
+public class StreamingFieldReaderTest {
+
+    private static final String EVENT = "{\"_id\": \"0f1a2b3c-1\", \"timestamp\": \"2015-03-25T14:21:26.239Z\", "
+            + "\"request\": {\"detail\": [1, 2, {\"field2\": \"ignored\"}]}, "
+            + "\"eventName\": \"AM-ACCESS-ATTEMPT\", \"transactionId\": null, "
+            + "\"field1\": {\"field2\": \"A \\\"quoted\\\"] value\\\\\", \"field3\": [1, 2.5, true, {\"a\": null}]}, "
+            + "\"field4\": 12345678901}";
+
+    @Test
+    public void readsOnlyTheSelectedFields() throws Exception {
+        // given
+        StreamingFieldReader reader = new StreamingFieldReader(asList(
+                new JsonPointer("/field1/field2"), new JsonPointer("/field4"), new JsonPointer("/missing")));
+
+        // when
+        JsonValue[] values = read(reader, EVENT);
+
+        // then
+        assertThat(values[0].asString()).isEqualTo("A \"quoted\"] value\\");
+        assertThat(values[1].getObject()).isEqualTo(12345678901L);
+        assertThat(values[2]).isNull();
+    }
+
+    @Test
+    public void distinguishesNullFieldsFromMissingOnes() throws Exception {
+        // given
+        StreamingFieldReader reader = new StreamingFieldReader(asList(
+                new JsonPointer("/transactionId"), new JsonPointer("/field4/field5")));
+
+        // when
+        JsonValue[] values = read(reader, EVENT);
+
+        // then
+        assertThat(values[0].isNull()).isTrue();
+        assertThat(values[1]).isNull();
+    }
+
+    @Test
+    public void readsNestedValuesAsObjectMapperWould() throws Exception {
+        // given
+        StreamingFieldReader reader = new StreamingFieldReader(asList(new JsonPointer("/field1/field3")));
+        JsonValue parsed = new JsonValue(new ObjectMapper().readValue(EVENT, Map.class));
+
+        // when
+        JsonValue[] values = read(reader, EVENT);
+
+        // then
+        assertThat(values[0].getObject()).isEqualTo(parsed.get(new JsonPointer("/field1/field3")).getObject());
+    }
+
+    @Test
+    public void letsTheLastOfDuplicateMembersWin() throws Exception {
+        // given
+        StreamingFieldReader reader = new StreamingFieldReader(asList(
+                new JsonPointer("/field1/field2"), new JsonPointer("/field1/field3")));
+
+        // when
+        JsonValue[] values = read(reader, "{\"field1\": {\"field2\": \"a\"}, \"field1\": {\"field3\": \"b\"}}");
+
+        // then
+        assertThat(values[0]).isNull();
+        assertThat(values[1].asString()).isEqualTo("b");
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void rejectsEventsThatAreNotObjects() throws Exception {
+        read(new StreamingFieldReader(asList(new JsonPointer("/field4"))), "[1, 2]");
+    }
+
+    @Test
+    public void formatsSerializedEventsExactlyAsParsedOnes() throws Exception {
+        // given
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.setFacility(Facility.LOCAL5);
+        config.getTimestamp().setUseEventTimestamp(true);
+        SyslogFormatter formatter = newSyslogFormatter(config);
+        byte[] serialized = EVENT.getBytes(StandardCharsets.UTF_8);
+        JsonValue parsed = new JsonValue(new ObjectMapper().readValue(serialized, Map.class));
+
+        // when
+        String streamed = formatter.format("firstTestTopic", serialized);
+
+        // then
+        assertThat(streamed).isEqualTo(formatter.format("firstTestTopic", parsed));
+    }
+
+    private static JsonValue[] read(StreamingFieldReader reader, String json) throws IOException {
+        try (JsonParser parser = new JsonFactory().createParser(json)) {
+            return reader.read(parser);
+        }
+    }
+
+    private SyslogFormatter newSyslogFormatter(SentinelAuditEventHandlerConfiguration config) throws Exception {
+        LocalHostNameProvider localHostNameProvider = mock(LocalHostNameProvider.class);
+        given(localHostNameProvider.getLocalHostName()).willReturn("server.name");
+        ProductInfoProvider productInfoProvider = mock(ProductInfoProvider.class);
+        given(productInfoProvider.getProductName()).willReturn("OpenAM");
+        return new SyslogFormatter(loadEventTopicsMetaData(), config, localHostNameProvider, productInfoProvider);
+    }
+
+    private EventTopicsMetaData loadEventTopicsMetaData() throws Exception {
+        Map<String, JsonValue> events = new LinkedHashMap<>();
+        try (InputStream configStream = getClass().getResourceAsStream("/events.json")) {
+            final JsonValue predefinedEventTypes = new JsonValue(new ObjectMapper().readValue(configStream, Map.class));
+            for (String eventTypeName : predefinedEventTypes.keys()) {
+                events.put(eventTypeName, predefinedEventTypes.get(eventTypeName));
+            }
+        }
+        return new EventTopicsMetaData(events);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.audit.events.AuditEventHelper.getAuditEventSchema;
+import static org.forgerock.audit.events.AuditEventHelper.jsonPointerToDotNotation;
+import static org.forgerock.audit.util.JsonSchemaUtils.generateJsonPointers;
+import static org.forgerock.audit.util.JsonValueUtils.extractValueAsString;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares the compiled {@link StructuredDataFormatter} with the implementation it replaced, which looped over the
+ * schema's JSON pointers and re-parsed each of them for every event.
+ * <p>
+ * Not part of the regular test run; execute with <code>mvn test -Dtest=StructuredDataFormatterBenchmark</code>.
+ */
+@SuppressWarnings("javadoc")
+public class StructuredDataFormatterBenchmark {
+
+    private static final int WARM_UP_ITERATIONS = 50000;
+    private static final int MEASURED_ITERATIONS = 200000;
+
+    @Test
+    public void compiledPlanAgainstPointerLoop() throws Exception {
+        // given
+        JsonValue metaData = loadEventMetaData("firstTestTopic");
+        Set<String> fieldPointers = generateJsonPointers(getAuditEventSchema(metaData));
+        StructuredDataFormatter formatter = new StructuredDataFormatter("OpenAM", "firstTestTopic", metaData,
+                new SentinelAuditEventHandlerConfiguration());
+        List<JsonValue> events = events();
+
+        // the compiled plan renders exactly what the pointer loop renders in pointer order
+        for (JsonValue event : events) {
+            SyslogMessageBuffer buffer = new SyslogMessageBuffer();
+            formatter.format(event, buffer);
+            assertThat(buffer.toString()).isEqualTo(formatWithPointerLoop(new TreeSet<>(fieldPointers), event));
+        }
+
+        // when
+        long pointerLoopNanos = measure(() -> {
+            for (JsonValue event : events) {
+                formatWithPointerLoop(fieldPointers, event);
+            }
+        });
+        SyslogMessageBuffer buffer = new SyslogMessageBuffer();
+        long compiledPlanNanos = measure(() -> {
+            for (JsonValue event : events) {
+                buffer.reset();
+                formatter.format(event, buffer);
+            }
+        });
+
+        // then
+        System.out.printf("StructuredDataFormatter: pointer loop %.1f ns/event, compiled plan %.1f ns/event%n",
+                (double) pointerLoopNanos / (MEASURED_ITERATIONS * events.size()),
+                (double) compiledPlanNanos / (MEASURED_ITERATIONS * events.size()));
+    }
+
+    private static long measure(Runnable iteration) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            iteration.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            iteration.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The structured-data formatting as it was before the field plan was compiled.
+     */
+    private static String formatWithPointerLoop(Collection<String> fieldNames, JsonValue auditEvent) {
+        StringBuilder sd = new StringBuilder();
+        sd.append("[");
+        sd.append("firstTestTopic.OpenAM@36733");
+        for (String fieldName : fieldNames) {
+            String formattedName = jsonPointerToDotNotation(fieldName);
+            if ("_id".equals(formattedName) || "timestamp".equals(formattedName)
+                    || "eventName".equals(formattedName)) {
+                continue;
+            }
+            sd.append(" ");
+            sd.append(formattedName);
+            sd.append("=\"");
+            String value = extractValueAsString(auditEvent, fieldName);
+            sd.append(value == null ? "" : value.replaceAll("[\\\\\"\\]]", "\\\\$0"));
+            sd.append("\"");
+        }
+        sd.append("]");
+        return sd.toString();
+    }
+
+    private static List<JsonValue> events() {
+        List<JsonValue> events = new ArrayList<>();
+        events.add(json(object(
+                field("_id", "0f1a2b3c-1"),
+                field("timestamp", "2015-03-25T14:21:26.239Z"),
+                field("transactionId", "transactionId-1"),
+                field("eventName", "AM-ACCESS-ATTEMPT"),
+                field("field1", object(field("field2", "foo"), field("field3", "bar"))),
+                field("field4", "123456789"))));
+        events.add(json(object(
+                field("_id", "0f1a2b3c-2"),
+                field("timestamp", "2015-03-25T14:21:27.239Z"),
+                field("transactionId", "transactionId-2"),
+                field("eventName", "AM-ACCESS-OUTCOME"),
+                field("field1", object(field("field2", "A list with escaped characters"), field("field3", "\"]\\"))),
+                field("field4", "\"]\\"))));
+        events.add(json(object(
+                field("_id", "0f1a2b3c-3"),
+                field("timestamp", "2015-03-25T14:21:28.239Z"),
+                field("eventName", "AM-ACCESS-ATTEMPT"))));
+        return events;
+    }
+
+    private JsonValue loadEventMetaData(String topic) throws Exception {
+        Map<String, JsonValue> events = new LinkedHashMap<>();
+        try (InputStream configStream = getClass().getResourceAsStream("/events.json")) {
+            final JsonValue predefinedEventTypes = new JsonValue(new ObjectMapper().readValue(configStream, Map.class));
+            for (String eventTypeName : predefinedEventTypes.keys()) {
+                events.put(eventTypeName, predefinedEventTypes.get(eventTypeName));
+            }
+        }
+        return events.get(topic);
+    }
+}
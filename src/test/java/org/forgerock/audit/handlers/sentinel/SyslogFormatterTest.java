@@ -22,11 +22,13 @@ import org.forgerock.audit.providers.LocalHostNameProvider;
 import org.forgerock.audit.providers.ProductInfoProvider;
 import org.forgerock.audit.events.AuditEvent;
 import org.forgerock.audit.events.AuditEventBuilder;
+import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.FieldProjection;
 import org.forgerock.audit.handlers.sentinel.SentinelAuditEventHandlerConfiguration.SeverityFieldMapping;
 import org.forgerock.json.JsonValue;
 import org.testng.annotations.Test;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -398,6 +400,122 @@ public class SyslogFormatterTest {
         assertThat(syslogMessage.structuredData.get("field4")).isEqualTo("\"]\\");
     }
 
+    @Test
+    public void doesNotRepeatCefExtensionKeysWhenFieldsUseCefKeys() throws Exception {
+        // given
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.getCompact().setUseCefKeys(true);
+        Map<String, String> cefKeys = new HashMap<>(config.getCompact().getCefKeys());
+        cefKeys.put("field4", "src");
+        config.getCompact().setCefKeys(cefKeys);
+        SyslogFormatter syslogFormatter = newSyslogFormatter("OpenAM", "server.name", config);
+
+        AuditEvent auditEvent = firstTestTopic()
+                .transactionId("transactionId")
+                .timestamp(1427293286239L)
+                .eventName("AM-ACCESS-ATTEMPT")
+                .field4("192.168.0.1")
+                .toEvent();
+
+        // when
+        String formattedEvent = syslogFormatter.format("firstTestTopic", auditEvent.getValue());
+
+        // then
+        assertThat(keysOf(formattedEvent)).contains("src", "externalId").doesNotHaveDuplicates();
+        assertThat(formattedEvent).contains(" src=\"192.168.0.1\"");
+    }
+
+    @Test
+    public void writesHostAddressAsSourceOnTopicsWithoutTheMappedField() throws Exception {
+        // given
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.getCompact().setUseCefKeys(true);
+        Map<String, String> cefKeys = new HashMap<>(config.getCompact().getCefKeys());
+        cefKeys.put("field4", "src");
+        config.getCompact().setCefKeys(cefKeys);
+        FieldProjection projection = new FieldProjection();
+        projection.setTopic("secondTestTopic");
+        projection.setExcludedFields(singletonList("field4"));
+        config.setFieldProjections(singletonList(projection));
+        SyslogFormatter syslogFormatter = newSyslogFormatter("OpenAM", "server.name", config);
+
+        AuditEvent auditEvent = secondTestTopic()
+                .transactionId("transactionId")
+                .timestamp(1427293286239L)
+                .eventName("AM-ACCESS-ATTEMPT")
+                .field4("192.168.0.1")
+                .toEvent();
+
+        // when
+        String formattedEvent = syslogFormatter.format("secondTestTopic", auditEvent.getValue());
+
+        // then
+        assertThat(keysOf(formattedEvent)).contains("src").doesNotHaveDuplicates();
+        assertThat(formattedEvent).doesNotContain("192.168.0.1");
+    }
+
+    @Test
+    public void writesHostAddressAsSourceWhenTheEventHasNoValueForTheMappedField() throws Exception {
+        // given
+        SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
+        config.getCompact().setUseCefKeys(true);
+        config.getCompact().setOmitEmptyValues(true);
+        Map<String, String> cefKeys = new HashMap<>(config.getCompact().getCefKeys());
+        cefKeys.put("field4", "src");
+        config.getCompact().setCefKeys(cefKeys);
+        SyslogFormatter syslogFormatter = newSyslogFormatter("OpenAM", "server.name", config);
+
+        AuditEvent auditEvent = firstTestTopic()
+                .transactionId("transactionId")
+                .timestamp(1427293286239L)
+                .eventName("AM-ACCESS-ATTEMPT")
+                .toEvent();
+
+        // when
+        String formattedEvent = syslogFormatter.format("firstTestTopic", auditEvent.getValue());
+
+        // then
+        assertThat(keysOf(formattedEvent)).contains("src").doesNotHaveDuplicates();
+        assertThat(formattedEvent).doesNotContain(" src=\"");
+    }
+
+    @Test
+    public void formatsEventSnapshotsAsTheEventsThemselves() throws Exception {
+        // given
+        SyslogFormatter syslogFormatter = newSyslogFormatter("OpenAM", Facility.LOCAL0, "server.name");
+        SyslogFormatter.TopicPlan topicPlan = syslogFormatter.getTopicPlan("firstTestTopic");
+        JsonValue event = firstTestTopic()
+                .transactionId("transactionId")
+                .timestamp(1427293286239L)
+                .eventName("AM-ACCESS-ATTEMPT")
+                .field1("value2", "value3")
+                .field4("value4")
+                .toEvent()
+                .getValue();
+        event.put("unformatted", json(object(field("large", "value"))).getObject());
+        SyslogMessageBuffer expected = new SyslogMessageBuffer();
+        syslogFormatter.format(topicPlan, event, 1427293286239L, expected);
+
+        // when
+        JsonValue snapshot = topicPlan.snapshot(event);
+        event.get("field1").put("field2", "changed");
+        SyslogMessageBuffer formatted = new SyslogMessageBuffer();
+        syslogFormatter.format(topicPlan, snapshot, 1427293286239L, formatted);
+
+        // then
+        assertThat(snapshot.isDefined("unformatted")).isFalse();
+        assertThat(formatted.toString()).isEqualTo(expected.toString());
+    }
+
+    private static List<String> keysOf(String formattedEvent) {
+        List<String> keys = new ArrayList<>();
+        Matcher matcher = Pattern.compile(" ([A-Za-z0-9.]+)=").matcher(formattedEvent);
+        while (matcher.find()) {
+            keys.add(matcher.group(1));
+        }
+        return keys;
+    }
+
     private SyslogFormatter newSyslogFormatter(String productName, Facility facility, String localHostName)
             throws Exception {
         return newSyslogFormatter(productName, facility, localHostName, Collections.<SeverityFieldMapping>emptyList());
@@ -406,11 +524,16 @@ public class SyslogFormatterTest {
     private SyslogFormatter newSyslogFormatter(String productName, Facility facility, String localHostName,
             List<SeverityFieldMapping> severityFieldMappings) throws Exception {
 
-        EventTopicsMetaData eventTopicsMetaData = loadEventTopicsMetaData();
-
         SentinelAuditEventHandlerConfiguration config = new SentinelAuditEventHandlerConfiguration();
         config.setFacility(facility);
         config.setSeverityFieldMappings(severityFieldMappings);
+        return newSyslogFormatter(productName, localHostName, config);
+    }
+
+    private SyslogFormatter newSyslogFormatter(String productName, String localHostName,
+            SentinelAuditEventHandlerConfiguration config) throws Exception {
+
+        EventTopicsMetaData eventTopicsMetaData = loadEventTopicsMetaData();
 
         LocalHostNameProvider localHostNameProvider = mock(LocalHostNameProvider.class);
         given(localHostNameProvider.getLocalHostName()).willReturn(localHostName);
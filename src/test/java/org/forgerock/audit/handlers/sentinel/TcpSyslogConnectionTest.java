@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class TcpSyslogConnectionTest {
+
+    private static final byte[] MESSAGE = "message".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void reportsFlushFailures() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            // given
+            TcpSyslogConnection connection = new TcpSyslogConnection(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), 1000);
+            connection.reconnect();
+            try (Socket accepted = server.accept()) {
+                accepted.setSoLinger(true, 0);
+            }
+
+            // when
+            IOException flushFailure = null;
+            for (int i = 0; i < 100 && flushFailure == null; i++) {
+                connection.send(MESSAGE);
+                try {
+                    connection.flush();
+                } catch (IOException e) {
+                    flushFailure = e;
+                }
+                Thread.sleep(10);
+            }
+
+            // then
+            assertThat(flushFailure).isNotNull();
+        }
+    }
+}
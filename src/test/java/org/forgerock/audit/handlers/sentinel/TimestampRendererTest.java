@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015-2017 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+package org.forgerock.audit.handlers.sentinel;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.audit.handlers.sentinel.TimestampRenderer.INVALID_TIMESTAMP;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.forgerock.json.JsonValue;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+@SuppressWarnings("javadoc")
+public class TimestampRendererTest {
+
+    @DataProvider
+    public Object[][] timeZones() {
+        return new Object[][] {
+            { "UTC" },
+            { "Europe/London" },
+            { "America/Los_Angeles" },
+            { "Asia/Kolkata" },
+            { "Australia/Lord_Howe" }
+        };
+    }
+
+    @Test(dataProvider = "timeZones")
+    public void rendersExactlyAsSimpleDateFormat(String timeZoneId) throws Exception {
+        // given
+        TimeZone timeZone = TimeZone.getTimeZone(timeZoneId);
+        TimestampRenderer renderer = new TimestampRenderer(timeZone, false, false);
+        SimpleDateFormat expectedFormat = new SimpleDateFormat("dd MMMMM HH:mm:ss", TimestampRenderer.LOCALE);
+        expectedFormat.setTimeZone(timeZone);
+
+        Random random = new Random(timeZoneId.hashCode());
+        for (int i = 0; i < 10000; i++) {
+            long epochMillis = (long) (random.nextDouble() * 4102444800000L); // 1970 to 2100
+
+            // when
+            String rendered = renderer.render(epochMillis);
+
+            // then
+            assertThat(rendered).isEqualTo(expectedFormat.format(new Date(epochMillis)));
+        }
+    }
+
+    @Test(dataProvider = "timeZones")
+    public void rendersMillisecondsExactlyAsSimpleDateFormat(String timeZoneId) throws Exception {
+        // given
+        TimeZone timeZone = TimeZone.getTimeZone(timeZoneId);
+        TimestampRenderer renderer = new TimestampRenderer(timeZone, false, true);
+        SimpleDateFormat expectedFormat = new SimpleDateFormat("dd MMMMM HH:mm:ss.SSS", TimestampRenderer.LOCALE);
+        expectedFormat.setTimeZone(timeZone);
+
+        Random random = new Random(timeZoneId.hashCode());
+        for (int i = 0; i < 10000; i++) {
+            long epochMillis = (long) (random.nextDouble() * 4102444800000L);
+
+            // when
+            String rendered = renderer.render(epochMillis);
+
+            // then
+            assertThat(rendered).isEqualTo(expectedFormat.format(new Date(epochMillis)));
+        }
+    }
+
+    @Test
+    public void servesCachedTextWithinTheSameSecond() {
+        // given
+        TimestampRenderer renderer = new TimestampRenderer(TimeZone.getTimeZone("UTC"), false, false);
+
+        // when
+        String first = renderer.render(1427293286000L);
+        String second = renderer.render(1427293286999L);
+        String third = renderer.render(1427293287000L);
+
+        // then
+        assertThat(second).isSameAs(first);
+        assertThat(third).isEqualTo(expected("dd MMMMM HH:mm:ss", 1427293287000L));
+    }
+
+    @Test
+    public void canRenderEventTimestamp() {
+        // given
+        TimestampRenderer renderer = new TimestampRenderer(TimeZone.getTimeZone("UTC"), true, true);
+        JsonValue auditEvent = json(object(field("timestamp", "2015-03-25T14:21:26.239Z")));
+
+        // when
+        String rendered = renderer.render(auditEvent);
+
+        // then
+        assertThat(rendered).isEqualTo(expected("dd MMMMM HH:mm:ss.SSS", 1427293286239L));
+    }
+
+    @Test
+    public void fallsBackToWallClockIfEventTimestampIsInvalid() {
+        // given
+        TimestampRenderer renderer = new TimestampRenderer(TimeZone.getTimeZone("UTC"), true, false);
+        JsonValue auditEvent = json(object(field("timestamp", "yesterday")));
+
+        // when
+        long before = System.currentTimeMillis() / 1000;
+        String rendered = renderer.render(auditEvent);
+        long after = System.currentTimeMillis() / 1000;
+
+        // then
+        assertThat(rendered).isIn(renderer.render(before * 1000), renderer.render(after * 1000));
+    }
+
+    @Test
+    public void canParseIsoTimestamps() {
+        assertThat(TimestampRenderer.parseTimestamp("2015-03-25T14:21:26.239Z")).isEqualTo(1427293286239L);
+        assertThat(TimestampRenderer.parseTimestamp("2015-03-25T14:21:26Z")).isEqualTo(1427293286000L);
+        assertThat(TimestampRenderer.parseTimestamp("2015-03-25T14:21:26.2Z")).isEqualTo(1427293286200L);
+        assertThat(TimestampRenderer.parseTimestamp("2015-03-25T14:21:26.239123Z")).isEqualTo(1427293286239L);
+        assertThat(TimestampRenderer.parseTimestamp("2015-03-25T16:21:26.239+02:00")).isEqualTo(1427293286239L);
+        assertThat(TimestampRenderer.parseTimestamp("2015-03-25T09:21:26.239-05:00")).isEqualTo(1427293286239L);
+        assertThat(TimestampRenderer.parseTimestamp("1969-12-31T23:59:59.999Z")).isEqualTo(-1L);
+    }
+
+    @Test
+    public void rejectsMalformedTimestamps() {
+        assertThat(TimestampRenderer.parseTimestamp(null)).isEqualTo(INVALID_TIMESTAMP);
+        assertThat(TimestampRenderer.parseTimestamp("2015-03-25")).isEqualTo(INVALID_TIMESTAMP);
+        assertThat(TimestampRenderer.parseTimestamp("2015-03-25 14:21:26.239Z")).isEqualTo(INVALID_TIMESTAMP);
+        assertThat(TimestampRenderer.parseTimestamp("2015-13-25T14:21:26.239Z")).isEqualTo(INVALID_TIMESTAMP);
+        assertThat(TimestampRenderer.parseTimestamp("2015-03-25T14:21:26.Z")).isEqualTo(INVALID_TIMESTAMP);
+        assertThat(TimestampRenderer.parseTimestamp("2015-03-25T14:21:26.239")).isEqualTo(INVALID_TIMESTAMP);
+    }
+
+    private static String expected(String pattern, long epochMillis) {
+        SimpleDateFormat expectedFormat = new SimpleDateFormat(pattern, TimestampRenderer.LOCALE);
+        expectedFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return expectedFormat.format(new Date(epochMillis));
+    }
+}